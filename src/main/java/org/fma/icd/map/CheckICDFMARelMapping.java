@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.formats.FunctionalSyntaxDocumentFormat;
 import org.semanticweb.owlapi.model.IRI;
@@ -51,8 +52,8 @@ public class CheckICDFMARelMapping {
 	public static void main(String[] args) throws OWLOntologyCreationException, OWLOntologyStorageException {
 		man = OWLManager.createOWLOntologyManager();
 		
-		icdOnt = man.loadOntologyFromOntologyDocument(new File(ICD_prj_path));
-		fmaOnt = man.loadOntologyFromOntologyDocument(new File(FMA_prj_path));
+		icdOnt = OntologyLoader.loadOntology(man, new File(ICD_prj_path));
+		fmaOnt = OntologyLoader.loadOntology(man, new File(FMA_prj_path));
 		mapOnt = man.createOntology();
 		
 		System.out.println("Loaded the ontologies");
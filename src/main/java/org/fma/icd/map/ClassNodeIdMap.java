@@ -0,0 +1,100 @@
+package org.fma.icd.map;
+
+import org.semanticweb.owlapi.model.OWLClass;
+
+/**
+ * A hash map from classes to the long ids of their graph nodes, with open addressing, that does not box the ids.
+ * The classes are the ones of the ontology, so the map only adds a reference and a long per class.
+ * The ids must not be negative. It is not thread-safe.
+ */
+public class ClassNodeIdMap {
+
+	public static final long NO_ID = -1L;
+
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private OWLClass[] keys;
+	private long[] values;
+	private int size = 0;
+	private int resizeAt;
+
+
+	public ClassNodeIdMap() {
+		this(1024);
+	}
+
+	public ClassNodeIdMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * @return the id of the class, or {@link #NO_ID} if the class is not in the map
+	 */
+	public long get(OWLClass cls) {
+		int slot = findSlot(keys, cls);
+		return keys[slot] == null ? NO_ID : values[slot];
+	}
+
+	public boolean containsKey(OWLClass cls) {
+		return keys[findSlot(keys, cls)] != null;
+	}
+
+	public void put(OWLClass cls, long id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Negative ids are not supported: " + id);
+		}
+		int slot = findSlot(keys, cls);
+		if (keys[slot] == null) {
+			keys[slot] = cls;
+			size++;
+		}
+		values[slot] = id;
+
+		if (size > resizeAt) {
+			rehash();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+
+	private void rehash() {
+		OWLClass[] oldKeys = keys;
+		long[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = findSlot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new OWLClass[capacity];
+		values = new long[capacity];
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * @return the slot of the class, or the empty slot where it should go
+	 */
+	private static int findSlot(OWLClass[] keys, OWLClass cls) {
+		int mask = keys.length - 1;
+		int slot = hash(cls) & mask;
+		while (keys[slot] != null && keys[slot].equals(cls) == false) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(OWLClass cls) {
+		int h = cls.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
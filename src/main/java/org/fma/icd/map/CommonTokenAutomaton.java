@@ -0,0 +1,220 @@
+package org.fma.icd.map;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A generalized suffix automaton over the tokens of several labels, used to find the token aligned
+ * substrings that are common to all labels in one pass, instead of comparing the labels pairwise.
+ * <p>
+ * The labels are split with the same tokenizer as {@link StringUtils#longestCommonTokens(String, String)},
+ * and the tokens are compared ignoring case. Each token is mapped to an int id, and the transitions are kept
+ * in one primitive map keyed by the state and the token id. Each state counts in how many labels its
+ * substrings occur. The common substrings are then read from the first label: for each token, the longest
+ * common substring ending at it, kept only if it cannot be extended to the right.
+ * <p>
+ * Same as the pairwise comparison, a common substring does not start with a space, and it is kept only if it
+ * is longer than 2 characters, without the surrounding spaces. The strings are returned as they appear in the first label.
+ */
+public class CommonTokenAutomaton {
+
+	private int[] len;
+	private int[] link;
+	private int[] edgeHead; //the transitions of a state, as a linked list of tokens, used only when cloning
+	private int[] edgeToken;
+	private int[] edgeNext;
+	private int stateCount = 0;
+	private int edgeCount = 0;
+
+	private LongIntHashMap transitions;
+
+	private int[] lastLabel;
+	private int[] labelCount;
+
+	private Map<String, Integer> token2id = new HashMap<String, Integer>();
+
+	private String[][] labelTokens;
+	private int[][] labelTokenIds;
+
+
+	private CommonTokenAutomaton(List<String> labels) {
+		int labelCount = labels.size();
+		labelTokens = new String[labelCount][];
+		labelTokenIds = new int[labelCount][];
+
+		int totalTokens = 0;
+		for (int i = 0; i < labelCount; i++) {
+			labelTokens[i] = StringUtils.tokenize(labels.get(i), StringUtils.COMMON_TOKEN_DELIMITERS, true);
+			labelTokenIds[i] = new int[labelTokens[i].length];
+			for (int j = 0; j < labelTokens[i].length; j++) {
+				labelTokenIds[i][j] = getTokenId(labelTokens[i][j]);
+			}
+			totalTokens += labelTokens[i].length;
+		}
+
+		int maxStates = 2 * totalTokens + 1;
+		len = new int[maxStates];
+		link = new int[maxStates];
+		edgeHead = new int[maxStates];
+		lastLabel = new int[maxStates];
+		this.labelCount = new int[maxStates];
+		edgeToken = new int[4 * totalTokens + 4];
+		edgeNext = new int[edgeToken.length];
+		transitions = new LongIntHashMap(3 * totalTokens + 1);
+
+		newState(0, -1);
+	}
+
+	/**
+	 * @return the token aligned substrings common to all labels, or an empty set
+	 * if there are less than 2 labels, or any of them is null
+	 */
+	public static Set<String> getCommonTokens(List<String> labels) {
+		if (labels.size() < 2 || labels.contains(null)) {
+			return new LinkedHashSet<String>();
+		}
+
+		CommonTokenAutomaton automaton = new CommonTokenAutomaton(labels);
+		for (int i = 0; i < labels.size(); i++) {
+			automaton.addLabel(i);
+		}
+		for (int i = 0; i < labels.size(); i++) {
+			automaton.countLabel(i);
+		}
+		return automaton.getCommonTokensOfFirstLabel();
+	}
+
+
+	private void addLabel(int label) {
+		int last = 0;
+		for (int token : labelTokenIds[label]) {
+			last = extend(last, token);
+		}
+	}
+
+	/**
+	 * Marks all states that have a substring of the label, walking up the suffix links from the state
+	 * of each prefix, until a state that was already marked for this label.
+	 */
+	private void countLabel(int label) {
+		int state = 0;
+		for (int token : labelTokenIds[label]) {
+			state = getTransition(state, token);
+			for (int s = state; s > 0 && lastLabel[s] != label + 1; s = link[s]) {
+				lastLabel[s] = label + 1;
+				labelCount[s]++;
+			}
+		}
+	}
+
+	private Set<String> getCommonTokensOfFirstLabel() {
+		int all = labelTokenIds.length;
+		int[] tokens = labelTokenIds[0];
+
+		//the length (in tokens) of the longest common substring ending at each token
+		int[] common = new int[tokens.length];
+		int state = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			state = getTransition(state, tokens[i]);
+			int s = state;
+			while (s > 0 && labelCount[s] < all) {
+				s = link[s];
+			}
+			common[i] = Math.min(len[s], i + 1);
+		}
+
+		Set<String> result = new LinkedHashSet<String>();
+		String[] strTokens = labelTokens[0];
+		for (int i = 0; i < tokens.length; i++) {
+			if (common[i] == 0 || (i + 1 < tokens.length && common[i + 1] == common[i] + 1)) {
+				continue; //it is part of a longer common substring
+			}
+			int start = i - common[i] + 1;
+			while (start <= i && strTokens[start].equals(" ")) {
+				start++;
+			}
+			String s = StringUtils.buildString(strTokens, start, i + 1);
+			if (s.trim().length() > 2) { //same as in longestCommonTokens
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+
+	private int extend(int last, int token) {
+		int q = getTransition(last, token);
+		if (q != -1) { //the prefix was already added with another label
+			return len[last] + 1 == len[q] ? q : clone(last, q, token);
+		}
+
+		int cur = newState(len[last] + 1, -1);
+		int p = last;
+		while (p != -1 && getTransition(p, token) == -1) {
+			addTransition(p, token, cur);
+			p = link[p];
+		}
+		if (p == -1) {
+			link[cur] = 0;
+		} else {
+			q = getTransition(p, token);
+			link[cur] = len[p] + 1 == len[q] ? q : clone(p, q, token);
+		}
+		return cur;
+	}
+
+	private int clone(int p, int q, int token) {
+		int clone = newState(len[p] + 1, link[q]);
+		for (int e = edgeHead[q]; e != -1; e = edgeNext[e]) {
+			addTransition(clone, edgeToken[e], getTransition(q, edgeToken[e]));
+		}
+		link[q] = clone;
+		while (p != -1 && getTransition(p, token) == q) {
+			transitions.put(key(p, token), clone);
+			p = link[p];
+		}
+		return clone;
+	}
+
+	private int newState(int length, int suffixLink) {
+		int state = stateCount++;
+		len[state] = length;
+		link[state] = suffixLink;
+		edgeHead[state] = -1;
+		return state;
+	}
+
+	private int getTransition(int state, int token) {
+		return transitions.get(key(state, token), -1);
+	}
+
+	private void addTransition(int state, int token, int target) {
+		transitions.put(key(state, token), target);
+		if (edgeCount == edgeToken.length) {
+			edgeToken = Arrays.copyOf(edgeToken, edgeCount * 2);
+			edgeNext = Arrays.copyOf(edgeNext, edgeCount * 2);
+		}
+		edgeToken[edgeCount] = token;
+		edgeNext[edgeCount] = edgeHead[state];
+		edgeHead[state] = edgeCount++;
+	}
+
+	private static long key(int state, int token) {
+		return ((long) state << 32) | token;
+	}
+
+	private int getTokenId(String token) {
+		String lowerCaseToken = token.toLowerCase();
+		Integer id = token2id.get(lowerCaseToken);
+		if (id == null) {
+			id = token2id.size();
+			token2id.put(lowerCaseToken, id);
+		}
+		return id;
+	}
+
+}
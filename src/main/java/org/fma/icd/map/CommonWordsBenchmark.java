@@ -0,0 +1,179 @@
+package org.fma.icd.map;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks {@link CommonTokenAutomaton} against a brute force search of its definition of the common token aligned
+ * substrings, on random sibling groups. This only checks the automaton itself: its results are not the ones of the
+ * pairwise {@link StringUtils#getCommonWords(List)}, see {@link StringUtils#getCommonTokenSubstrings(List)}.
+ * The groups with different results are counted, and both are timed.
+ * <p>
+ * The sibling groups are built like the ICD sibling labels: a common prefix and suffix around a specific part.
+ * If a labels file is given, consecutive labels are also grouped and timed.
+ * <p>
+ * Usage: CommonWordsBenchmark [labels file, one label per line] [group size]
+ */
+public class CommonWordsBenchmark {
+
+	private static final String[] WORDS = {"injury", "of", "by", "or", "with", "undetermined", "intent",
+			"Threat", "to", "breathing", "Vehicle", "transport", "event", "fall", "water", "body", "self-harm"};
+
+	private static final String[] DELIMITERS = {" ", " ", " ", ", ", ". ", "  "};
+
+	public static void main(String[] args) throws IOException {
+		int groupSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		checkRandomGroups(20000, new Random(42));
+
+		List<List<String>> groups = new ArrayList<List<String>>();
+		Random random = new Random(43);
+		for (int i = 0; i < 200; i++) {
+			groups.add(randomSiblings(random, groupSize));
+		}
+		compareAndTime("Random sibling groups", groups);
+
+		if (args.length > 0) {
+			List<String> labels = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+			groups = new ArrayList<List<String>>();
+			for (int i = 0; i + groupSize <= labels.size(); i += groupSize) {
+				groups.add(labels.subList(i, i + groupSize));
+			}
+			compareAndTime("Labels from file", groups);
+		}
+	}
+
+	private static void checkRandomGroups(int groupCount, Random random) {
+		int differences = 0;
+		for (int i = 0; i < groupCount; i++) {
+			List<String> labels = new ArrayList<String>();
+			int labelCount = 2 + random.nextInt(4);
+			for (int j = 0; j < labelCount; j++) {
+				labels.add(randomLabel(random, random.nextInt(8)));
+			}
+			Set<String> expected = bruteForce(labels);
+			Set<String> actual = CommonTokenAutomaton.getCommonTokens(labels);
+			if (expected.equals(actual) == false) {
+				differences++;
+				if (differences <= 20) {
+					System.out.println("Different: " + labels + " brute force: " + expected + " automaton: " + actual);
+				}
+			}
+		}
+		System.out.println("Random groups: " + groupCount + ", different results from brute force: " + differences);
+	}
+
+	private static void compareAndTime(String name, List<List<String>> groups) {
+		int differences = 0;
+		for (List<String> group : groups) {
+			Collection<String> pairwise = StringUtils.getCommonWords(group);
+			Collection<String> automaton = StringUtils.getCommonTokenSubstrings(group);
+			if (new LinkedHashSet<String>(pairwise).equals(automaton) == false) {
+				differences++;
+				if (differences <= 5) {
+					System.out.println("Different: pairwise: " + pairwise + " automaton: " + automaton);
+				}
+			}
+		}
+
+		long t0 = System.nanoTime();
+		for (List<String> group : groups) {
+			StringUtils.getCommonWords(group);
+		}
+		long t1 = System.nanoTime();
+		for (List<String> group : groups) {
+			StringUtils.getCommonTokenSubstrings(group);
+		}
+		long t2 = System.nanoTime();
+
+		System.out.println(name + ": " + groups.size() + " groups, different results: " + differences +
+				", pairwise: " + (t1 - t0) / 1000000 + " ms, automaton: " + (t2 - t1) / 1000000 + " ms");
+	}
+
+	/**
+	 * The definition of {@link StringUtils#getCommonTokenSubstrings(List)}, searched directly: for each token of
+	 * the first label, the longest token aligned substring ending at it that is in all labels, if it cannot be
+	 * extended to the right, and with the same filters.
+	 */
+	private static Set<String> bruteForce(List<String> labels) {
+		List<List<String>> tokens = new ArrayList<List<String>>();
+		for (String label : labels) {
+			List<String> labelTokens = new ArrayList<String>();
+			for (String token : StringUtils.tokenize(label, StringUtils.COMMON_TOKEN_DELIMITERS, true)) {
+				labelTokens.add(token.toLowerCase());
+			}
+			tokens.add(labelTokens);
+		}
+
+		String[] first = StringUtils.tokenize(labels.get(0), StringUtils.COMMON_TOKEN_DELIMITERS, true);
+		int[] common = new int[first.length];
+		for (int end = 0; end < first.length; end++) {
+			for (int start = 0; start <= end && common[end] == 0; start++) {
+				List<String> sub = tokens.get(0).subList(start, end + 1);
+				boolean inAll = true;
+				for (int k = 1; k < tokens.size() && inAll == true; k++) {
+					inAll = indexOf(tokens.get(k), sub) != -1;
+				}
+				if (inAll == true) {
+					common[end] = end - start + 1;
+				}
+			}
+		}
+
+		Set<String> result = new LinkedHashSet<String>();
+		for (int i = 0; i < first.length; i++) {
+			if (common[i] == 0 || (i + 1 < first.length && common[i + 1] == common[i] + 1)) {
+				continue;
+			}
+			int start = i - common[i] + 1;
+			while (start <= i && first[start].equals(" ")) {
+				start++;
+			}
+			String s = StringUtils.buildString(first, start, i + 1);
+			if (s.trim().length() > 2) {
+				result.add(s);
+			}
+		}
+		return result;
+	}
+
+	private static int indexOf(List<String> list, List<String> sub) {
+		for (int i = 0; i + sub.size() <= list.size(); i++) {
+			if (list.subList(i, i + sub.size()).equals(sub)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static List<String> randomSiblings(Random random, int count) {
+		String prefix = randomLabel(random, 2 + random.nextInt(4));
+		String suffix = random.nextBoolean() ? "" : " " + randomLabel(random, 1 + random.nextInt(4));
+		List<String> labels = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			labels.add(prefix + " " + randomLabel(random, 1 + random.nextInt(6)) + suffix);
+		}
+		return labels;
+	}
+
+	private static String randomLabel(Random random, int wordCount) {
+		StringBuilder label = new StringBuilder();
+		for (int i = 0; i < wordCount; i++) {
+			if (i > 0) {
+				label.append(DELIMITERS[random.nextInt(DELIMITERS.length)]);
+			}
+			String word = WORDS[random.nextInt(WORDS.length)];
+			label.append(random.nextInt(5) == 0 ? word.toUpperCase() : word);
+		}
+		return label.toString();
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.fma.icd.map;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Times {@link StringMatcher#containsWord(String, String)} against the previous, regex based,
+ * {@link StringMatcher#containsRegex(String, String)}, and the {@link WordBoundaryMatcher}, which finds all
+ * the contained patterns at once, on all the pairs of labels from a file, after counting the pairs where
+ * the regex and the hand made search differ. The equivalence on random strings is checked by StringMatcherTest.
+ * <p>
+ * Usage: ContainsBenchmark &lt;labels file, one label per line&gt;
+ */
+public class ContainsBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: ContainsBenchmark <labels file, one label per line>");
+			return;
+		}
+		List<String> labels = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+		if (labels.size() > 2000) {
+			labels = labels.subList(0, 2000);
+		}
+		checkAndTime(labels);
+	}
+
+	private static void checkAndTime(List<String> labels) {
+		int differences = 0;
+		for (String str : labels) {
+			for (String subStr : labels) {
+				if (StringMatcher.containsRegex(str, subStr) != StringMatcher.containsWord(str, subStr)) {
+					differences++;
+				}
+			}
+		}
+		System.out.println("Label pairs: " + (long) labels.size() * labels.size() + ", different results: " + differences);
+
+		long regexTime = time(labels, StringMatcher::containsRegex);
+		long wordTime = time(labels, StringMatcher::containsWord);
+		long automatonTime = timeAutomaton(labels);
+		System.out.println("Regex:      " + regexTime / 1000000 + " ms");
+		System.out.println("Hand made:  " + wordTime / 1000000 + " ms");
+		System.out.println("Automaton:  " + automatonTime / 1000000 + " ms (including the build)");
+	}
+
+	private static long timeAutomaton(List<String> labels) {
+		long start = System.nanoTime();
+		WordBoundaryMatcher matcher = new WordBoundaryMatcher();
+		int[] ids = new int[labels.size()];
+		for (int i = 0; i < labels.size(); i++) {
+			ids[i] = matcher.add(labels.get(i));
+		}
+		matcher.build();
+
+		int matches = 0;
+		for (String str : labels) {
+			BitSet found = matcher.findAll(str);
+			for (int id : ids) { //the duplicated labels are counted as many times as in the pairs
+				if (found.get(id)) {
+					matches++;
+				}
+			}
+		}
+		long time = System.nanoTime() - start;
+		System.out.println("Matches: " + matches);
+		return time;
+	}
+
+	private static long time(List<String> labels, BiPredicate<String, String> impl) {
+		int matches = 0;
+		long start = System.nanoTime();
+		for (String str : labels) {
+			for (String subStr : labels) {
+				if (impl.test(str, subStr)) {
+					matches++;
+				}
+			}
+		}
+		long time = System.nanoTime() - start;
+		System.out.println("Matches: " + matches);
+		return time;
+	}
+
+}
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -49,7 +50,7 @@ public class FindMissingMappings {
 
 		man = OWLManager.createOWLOntologyManager();
 
-		icdOnt = man.loadOntologyFromOntologyDocument(new File(ICD_OWL_path));
+		icdOnt = OntologyLoader.loadOntology(man, new File(ICD_OWL_path));
 		
 		icdSynProp = man.getOWLDataFactory().getOWLAnnotationProperty(ICD_SYN_PROP);
 
@@ -0,0 +1,258 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.xdrop.fuzzywuzzy.algorithms.DefaultStringFunction;
+
+/**
+ * Inverted index from the character trigrams of preprocessed strings to the entries containing them.
+ * It is used for blocking the candidates of a fuzzy query, so that the expensive fuzzy score
+ * is computed only for the entries that could possibly score over the cut-off.
+ * <p>
+ * The blocking is exact for {@link StringMatcher#stemFuzzyMatch(String, String)}, i.e. it never drops
+ * an entry that would have scored over the cut-off. The token sort ratio is
+ * round(100 * (a + b - d) / (a + b)), where a and b are the lengths of the two sorted strings and
+ * d is their insert/delete distance. So, for a given cut-off we know the maximum distance d, and:
+ * <ul>
+ * <li>the length difference of the two strings cannot be bigger than d</li>
+ * <li>the two strings share at least max(a, b) - 3 + 1 - 3 * d trigrams (q-gram lemma)</li>
+ * </ul>
+ * The entries that pass both filters are returned in the order they were added to the index.
+ */
+public class FuzzyCandidateIndex {
+
+	private static final int Q = 3;
+
+	private static final DefaultStringFunction fuzzyStringFunction = new DefaultStringFunction();
+
+	private int cutOff;
+
+	private List<String> entryIds = new ArrayList<String>();
+	private List<String> entryStrings = new ArrayList<String>();
+	private List<String> entryNormalizedStrings = new ArrayList<String>();
+
+	private Map<String, Postings> gram2postings = new HashMap<String, Postings>();
+	private int[][] entriesByLength;
+
+	//per query arrays, indexed by entry; reused, because they are as big as the index
+	private ThreadLocal<int[]> commonGramsScratch = new ThreadLocal<int[]>();
+	private ThreadLocal<int[]> touchedScratch = new ThreadLocal<int[]>();
+
+
+	public FuzzyCandidateIndex(int cutOff) {
+		this.cutOff = cutOff;
+	}
+
+	/**
+	 * Adds an entry to the index. The order in which the entries are added is the order
+	 * in which the candidates will be returned. Call {@link #build()} after adding all the entries.
+	 */
+	public void add(String id, String str) {
+		int entry = entryIds.size();
+		String normalized = normalize(str);
+
+		entryIds.add(id);
+		entryStrings.add(str);
+		entryNormalizedStrings.add(normalized);
+
+		for (Map.Entry<String, Integer> gramCount : getGramCounts(normalized).entrySet()) {
+			Postings postings = gram2postings.get(gramCount.getKey());
+			if (postings == null) {
+				postings = new Postings();
+				gram2postings.put(gramCount.getKey(), postings);
+			}
+			postings.add(entry, gramCount.getValue());
+		}
+	}
+
+	public void build() {
+		int maxLength = 0;
+		for (String normalized : entryNormalizedStrings) {
+			maxLength = Math.max(maxLength, normalized.length());
+		}
+
+		int[] lengthCounts = new int[maxLength + 1];
+		for (String normalized : entryNormalizedStrings) {
+			lengthCounts[normalized.length()]++;
+		}
+
+		entriesByLength = new int[maxLength + 1][];
+		for (int length = 0; length <= maxLength; length++) {
+			entriesByLength[length] = new int[lengthCounts[length]];
+			lengthCounts[length] = 0;
+		}
+		for (int entry = 0; entry < entryNormalizedStrings.size(); entry++) {
+			int length = entryNormalizedStrings.get(entry).length();
+			entriesByLength[length][lengthCounts[length]++] = entry;
+		}
+
+		for (Postings postings : gram2postings.values()) {
+			postings.trim();
+		}
+	}
+
+	/**
+	 * Returns the entries that could match the query over the cut-off, sorted in the order
+	 * in which they were added to the index.
+	 */
+	public int[] getCandidates(String query) {
+		String normalizedQuery = normalize(query);
+		int queryLength = normalizedQuery.length();
+
+		int[] commonGrams = getScratch(commonGramsScratch);
+		int[] touched = getScratch(touchedScratch);
+		int touchedCount = 0;
+
+		for (Map.Entry<String, Integer> gramCount : getGramCounts(normalizedQuery).entrySet()) {
+			Postings postings = gram2postings.get(gramCount.getKey());
+			if (postings == null) {
+				continue;
+			}
+			int queryCount = gramCount.getValue();
+			for (int i = 0; i < postings.size; i++) {
+				int entry = postings.entries[i];
+				if (commonGrams[entry] == 0) {
+					touched[touchedCount++] = entry;
+				}
+				commonGrams[entry] += Math.min(queryCount, postings.counts[i]);
+			}
+		}
+
+		int[] candidates = new int[Math.min(touchedCount + 16, entryIds.size())];
+		int candidateCount = 0;
+
+		//entries that share enough trigrams with the query
+		for (int i = 0; i < touchedCount; i++) {
+			int entry = touched[i];
+			int minCommonGrams = getMinCommonGrams(queryLength, entryNormalizedStrings.get(entry).length());
+			if (minCommonGrams > 0 && commonGrams[entry] >= minCommonGrams) {
+				candidates[candidateCount++] = entry; //cannot overflow, there are more slots than touched entries
+			}
+			commonGrams[entry] = 0;
+		}
+
+		//entries too short for the trigram filter, but with a compatible length
+		for (int length = 0; length < entriesByLength.length; length++) {
+			int minCommonGrams = getMinCommonGrams(queryLength, length);
+			if (minCommonGrams == Integer.MAX_VALUE || minCommonGrams > 0) {
+				continue;
+			}
+			int[] entries = entriesByLength[length];
+			if (candidateCount + entries.length > candidates.length) {
+				candidates = Arrays.copyOf(candidates, Math.max(candidates.length * 2, candidateCount + entries.length));
+			}
+			System.arraycopy(entries, 0, candidates, candidateCount, entries.length);
+			candidateCount += entries.length;
+		}
+
+		candidates = Arrays.copyOf(candidates, candidateCount);
+		Arrays.sort(candidates);
+		return candidates;
+	}
+
+	public String getId(int entry) {
+		return entryIds.get(entry);
+	}
+
+	public String getString(int entry) {
+		return entryStrings.get(entry);
+	}
+
+	public int size() {
+		return entryIds.size();
+	}
+
+
+	/**
+	 * Returns the minimum number of trigrams that two strings with the given lengths need to share
+	 * in order to score over the cut-off, or Integer.MAX_VALUE if they can never score over the cut-off.
+	 */
+	private int getMinCommonGrams(int length1, int length2) {
+		int maxDistance = getMaxDistance(length1 + length2);
+		if (maxDistance < 0 || Math.abs(length1 - length2) > maxDistance) {
+			return Integer.MAX_VALUE;
+		}
+		return Math.max(length1, length2) - Q + 1 - Q * maxDistance;
+	}
+
+	/**
+	 * Returns the maximum insert/delete distance of two strings with a total length of
+	 * totalLength that still scores over the cut-off, or -1 if no such distance exists.
+	 * It uses the same arithmetic as the fuzzy ratio, so that there are no rounding surprises.
+	 */
+	private int getMaxDistance(int totalLength) {
+		if (totalLength == 0) {
+			return -1;
+		}
+		int distance = totalLength * (100 - cutOff) / 100;
+		while (distance < totalLength && isOverCutOff(totalLength, distance + 1)) {
+			distance++;
+		}
+		while (distance >= 0 && isOverCutOff(totalLength, distance) == false) {
+			distance--;
+		}
+		return distance;
+	}
+
+	private boolean isOverCutOff(int totalLength, int distance) {
+		double ratio = (double) (totalLength - distance) / (double) totalLength;
+		return Math.round(100 * ratio) > cutOff;
+	}
+
+	private int[] getScratch(ThreadLocal<int[]> threadScratch) {
+		int[] scratch = threadScratch.get();
+		if (scratch == null || scratch.length < entryIds.size()) {
+			scratch = new int[entryIds.size()];
+			threadScratch.set(scratch);
+		}
+		return scratch;
+	}
+
+
+	/**
+	 * The string exactly as the token sort ratio compares it in
+	 * {@link StringMatcher#stemFuzzyMatch(String, String)}: preprocessed,
+	 * normalized by fuzzywuzzy, and with the tokens sorted.
+	 */
+	public static String normalize(String str) {
+		String processed = fuzzyStringFunction.apply(StringMatcher.preprocessString(str));
+		String[] tokens = processed.split("\\s+");
+		Arrays.sort(tokens);
+		return String.join(" ", tokens).trim();
+	}
+
+	private static Map<String, Integer> getGramCounts(String str) {
+		Map<String, Integer> gramCounts = new HashMap<String, Integer>();
+		for (int i = 0; i + Q <= str.length(); i++) {
+			gramCounts.merge(str.substring(i, i + Q), 1, Integer::sum);
+		}
+		return gramCounts;
+	}
+
+
+	private static class Postings {
+		private int[] entries = new int[4];
+		private int[] counts = new int[4];
+		private int size = 0;
+
+		private void add(int entry, int count) {
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			entries[size] = entry;
+			counts[size] = count;
+			size++;
+		}
+
+		private void trim() {
+			entries = Arrays.copyOf(entries, size);
+			counts = Arrays.copyOf(counts, size);
+		}
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.fma.icd.map;
+
+/**
+ * Thrown when the writes to the graph database failed and were rolled back, e.g., when a batch could not be committed.
+ * The graph is then incomplete, so the load should be stopped.
+ */
+public class GraphWriteException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public GraphWriteException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.fma.icd.map;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.RelationshipType;
+import org.ontologies.extract.ExportProperties;
+
+/**
+ * Writes the nodes and relationships of a graph, either to a Neo4j database ({@link Neo4JBatchWriter}), or to
+ * the CSV files of neo4j-admin import ({@link Neo4JImportCSVWriter}). The nodes are referred to by the ids
+ * returned when they are created.
+ * <p>
+ * The writes are grouped in phases, and the number of writes and their throughput is logged at the end of each phase.
+ */
+public abstract class GraphWriter implements AutoCloseable {
+
+	private static transient Logger log = Logger.getLogger(GraphWriter.class);
+
+	public static final String NAME_PROP = "name";
+	public static final String PREF_LABEL_PROP = "prefLabel";
+
+	private String phase;
+	private long phaseStart;
+	private long phaseNodeCount;
+	private long phaseRelCount;
+
+
+	/**
+	 * @return a writer to the CSV files of neo4j-admin import in neo4j.import.dir, if it is set, or else a writer
+	 * to the database in the folder, with transactions of neo4j.batch.size writes, which upserts, if neo4j.upsert is true
+	 * @param relProps - the names of the properties of the relationships, needed by the CSV files
+	 */
+	public static GraphWriter open(File dbFolder, String... relProps) throws IOException {
+		String importDir = ExportProperties.getNeo4JImportDirLocation();
+		if (importDir != null) {
+			return new Neo4JImportCSVWriter(new File(importDir), relProps);
+		}
+		return Neo4JBatchWriter.openDatabase(dbFolder, ExportProperties.getNeo4JBatchSize(Neo4JBatchWriter.DEFAULT_BATCH_SIZE),
+				ExportProperties.getNeo4JUpsert());
+	}
+
+	/**
+	 * Makes the name of the nodes with the label unique and indexed. Called before the nodes with the label are created.
+	 */
+	public abstract void prepareLabel(String label) throws IOException;
+
+	/**
+	 * Removes what was in the graph before, but was not written since the writer was opened, if the writer refreshes
+	 * an existing graph. Called after the whole graph was written.
+	 */
+	public void removeStale() throws IOException {
+	}
+
+	/**
+	 * Creates a node with the label and the name and preferred label properties.
+	 * @param prefLabel - the preferred label, or null, if the node has none
+	 * @return the id of the node
+	 */
+	public abstract long createNode(String label, String name, String prefLabel) throws IOException;
+
+	/**
+	 * Creates a relationship between two nodes, with one optional property.
+	 * @param propName - the name of the property, or null, if the relationship has none
+	 */
+	public abstract void createRelationship(long fromNode, long toNode, RelationshipType type,
+			String propName, String propValue) throws IOException;
+
+	public void createRelationship(long fromNode, long toNode, RelationshipType type) throws IOException {
+		createRelationship(fromNode, toNode, type, null, null);
+	}
+
+	/**
+	 * Writes everything written so far, e.g., commits the open transaction.
+	 */
+	public abstract void flush() throws IOException;
+
+	@Override
+	public abstract void close() throws IOException;
+
+
+	public void startPhase(String phase) {
+		this.phase = phase;
+		this.phaseStart = System.currentTimeMillis();
+		this.phaseNodeCount = 0;
+		this.phaseRelCount = 0;
+	}
+
+	/**
+	 * Flushes the writes of the phase and logs their throughput.
+	 */
+	public void endPhase() throws IOException {
+		flush();
+		long time = Math.max(1, System.currentTimeMillis() - phaseStart);
+		log.info(phase + ": " + phaseNodeCount + " nodes, " + phaseRelCount + " relationships in " + time + " ms (" +
+				((phaseNodeCount + phaseRelCount) * 1000 / time) + " writes/s)");
+	}
+
+	protected void nodeCreated() {
+		phaseNodeCount++;
+	}
+
+	protected void relationshipCreated() {
+		phaseRelCount++;
+	}
+
+}
@@ -0,0 +1,478 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * The class hierarchy computed by a reasoner, built once and kept in int arrays, so that the
+ * sub- and superclass lookups of {@link OWLAPIUtil} do not call the reasoner.
+ * <p>
+ * Each node of the reasoner (a set of equivalent classes) gets an int id. The direct children and parents
+ * are stored in CSR arrays (an offsets array and one array with all the ids). The nodes are numbered in the
+ * post-order of a depth first traversal from owl:Thing, and each node is labelled with the post-order intervals
+ * of its descendants: one interval for the spanning tree, plus the merged intervals of the children reached over
+ * the other edges of the polyhierarchy. A node is a descendant of another if its post-order number is in one of
+ * the intervals of the other, which is a binary search over a few intervals.
+ * <p>
+ * The StructuralReasoner of OWL API 5 may give nodes that share classes, or nodes in a cycle, when the subclass
+ * axioms have cycles. These nodes are merged into one, so that the classes in the cycles are equivalent, as they are
+ * in the ontology; the lookups of such classes can then differ from the ones of the reasoner. The classes that the
+ * reasoner does not show below owl:Thing are not in the index.
+ * <p>
+ * The index is a snapshot: it does not see the changes made to the ontology after it was built.
+ * It is immutable, and can be used from several threads.
+ */
+public class HierarchyIndex {
+
+	private static transient Logger log = Logger.getLogger(HierarchyIndex.class);
+
+	private Map<OWLClass, Integer> cls2node;
+	private OWLClass[][] nodeClses;
+
+	private int[] childStart;
+	private int[] children;
+	private int[] parentStart;
+	private int[] parents;
+
+	private int[] post;
+	private int[] nodeByPost;
+
+	//the intervals of node n are intervalLo[i], intervalHi[i] for i in intervalStart[n] .. intervalStart[n+1]-1
+	private int[] intervalStart;
+	private int[] intervalLo;
+	private int[] intervalHi;
+
+
+	public HierarchyIndex(OWLReasoner reasoner) {
+		long t0 = System.currentTimeMillis();
+
+		List<List<Integer>> nodeChildren = buildNodes(reasoner);
+		buildEdges(nodeChildren);
+		buildIntervals();
+
+		log.info("Built hierarchy index: " + nodeClses.length + " nodes, " + children.length + " edges, " +
+				intervalLo.length + " intervals in " + (System.currentTimeMillis() - t0) + " ms");
+	}
+
+	/**
+	 * @return true if the class is in the index; the other methods can only be called for such classes
+	 */
+	public boolean contains(OWLClass cls) {
+		return cls2node.containsKey(cls);
+	}
+
+	/**
+	 * Same as {@link OWLAPIUtil#getNamedSubclasses(OWLClass, org.semanticweb.owlapi.model.OWLOntology, OWLReasoner, boolean)}
+	 */
+	public Set<OWLClass> getSubclasses(OWLClass cls, boolean direct) {
+		int node = cls2node.get(cls);
+		Set<OWLClass> subclses = new HashSet<OWLClass>();
+
+		if (direct == true) {
+			for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+				addClses(children[i], subclses);
+			}
+			return subclses;
+		}
+
+		for (int i = intervalStart[node]; i < intervalStart[node + 1]; i++) {
+			for (int p = intervalLo[i]; p <= intervalHi[i]; p++) {
+				if (nodeByPost[p] != node) {
+					addClses(nodeByPost[p], subclses);
+				}
+			}
+		}
+		return subclses;
+	}
+
+	/**
+	 * Same as {@link OWLAPIUtil#getNamedSuperclasses(OWLClass, org.semanticweb.owlapi.model.OWLOntology, OWLReasoner, boolean)}
+	 */
+	public Set<OWLClass> getSuperclasses(OWLClass cls, boolean direct) {
+		int node = cls2node.get(cls);
+		Set<OWLClass> superclses = new HashSet<OWLClass>();
+
+		if (direct == true) {
+			for (int i = parentStart[node]; i < parentStart[node + 1]; i++) {
+				addClses(parents[i], superclses);
+			}
+			return superclses;
+		}
+
+		BitSet visited = new BitSet(nodeClses.length);
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = node;
+		while (top > 0) {
+			int current = stack[--top];
+			for (int i = parentStart[current]; i < parentStart[current + 1]; i++) {
+				int parent = parents[i];
+				if (visited.get(parent) == false) {
+					visited.set(parent);
+					addClses(parent, superclses);
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = parent;
+				}
+			}
+		}
+		return superclses;
+	}
+
+	/**
+	 * Same as {@link OWLAPIUtil#isSubclassOf(OWLClass, OWLClass, OWLReasoner)}
+	 */
+	public boolean isSubclassOf(OWLClass subCls, OWLClass superCls) {
+		int subNode = cls2node.get(subCls);
+		int superNode = cls2node.get(superCls);
+		return subNode != superNode && isDescendant(subNode, superNode);
+	}
+
+	public int size() {
+		return nodeClses.length;
+	}
+
+
+	private boolean isDescendant(int node, int ancestor) {
+		int p = post[node];
+		int lo = intervalStart[ancestor];
+		int hi = intervalStart[ancestor + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (intervalHi[mid] < p) {
+				lo = mid + 1;
+			} else if (intervalLo[mid] > p) {
+				hi = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addClses(int node, Set<OWLClass> clses) {
+		for (OWLClass cls : nodeClses[node]) {
+			clses.add(cls);
+		}
+	}
+
+	/**
+	 * Visits the nodes from owl:Thing breadth first and gives them ids. owl:Nothing is left out,
+	 * as it is filtered out by the lookups. The nodes are then grouped, see {@link #groupNodes(List, List)}.
+	 * @return the ids of the direct children of each node
+	 */
+	private List<List<Integer>> buildNodes(OWLReasoner reasoner) {
+		Map<Node<OWLClass>, Integer> node2id = new HashMap<Node<OWLClass>, Integer>();
+		List<Node<OWLClass>> nodes = new ArrayList<Node<OWLClass>>();
+		List<List<Integer>> nodeChildren = new ArrayList<List<Integer>>();
+
+		Node<OWLClass> topNode = reasoner.getTopClassNode();
+		node2id.put(topNode, 0);
+		nodes.add(topNode);
+
+		for (int i = 0; i < nodes.size(); i++) {
+			Set<Integer> childIds = new LinkedHashSet<Integer>();
+			//the subclasses of all the classes of the node, as they can differ when the node is a cycle
+			nodes.get(i).entities().flatMap(cls -> reasoner.getSubClasses(cls, true).nodes()).
+				filter(n -> n.isBottomNode() == false).
+				forEach(n -> {
+					Integer id = node2id.get(n);
+					if (id == null) {
+						id = nodes.size();
+						node2id.put(n, id);
+						nodes.add(n);
+					}
+					childIds.add(id);
+				});
+			nodeChildren.add(new ArrayList<Integer>(childIds));
+		}
+
+		//the groups are numbered in the order of their first node, so owl:Thing stays 0
+		int[] group = groupNodes(nodes, nodeChildren);
+		Map<Integer, Integer> groupIds = new HashMap<Integer, Integer>();
+		for (int i = 0; i < nodes.size(); i++) {
+			Integer id = groupIds.get(group[i]);
+			if (id == null) {
+				id = groupIds.size();
+				groupIds.put(group[i], id);
+			}
+			group[i] = id;
+		}
+		if (groupIds.size() < nodes.size()) {
+			log.warn("The reasoner nodes share classes or are in subclass cycles. Merged " + nodes.size() +
+					" nodes into " + groupIds.size() + ", the classes of a merged node are taken as equivalent.");
+		}
+
+		List<Set<OWLClass>> groupClses = new ArrayList<Set<OWLClass>>();
+		List<Set<Integer>> groupChildren = new ArrayList<Set<Integer>>();
+		for (int i = 0; i < groupIds.size(); i++) {
+			groupClses.add(new LinkedHashSet<OWLClass>());
+			groupChildren.add(new LinkedHashSet<Integer>());
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).entities().forEach(groupClses.get(group[i])::add);
+			for (int child : nodeChildren.get(i)) {
+				if (group[child] != group[i]) {
+					groupChildren.get(group[i]).add(group[child]);
+				}
+			}
+		}
+
+		cls2node = new HashMap<OWLClass, Integer>(nodes.size() * 2);
+		nodeClses = new OWLClass[groupClses.size()][];
+		List<List<Integer>> result = new ArrayList<List<Integer>>();
+		for (int i = 0; i < groupClses.size(); i++) {
+			nodeClses[i] = groupClses.get(i).toArray(new OWLClass[0]);
+			for (OWLClass cls : nodeClses[i]) {
+				cls2node.put(cls, i);
+			}
+			result.add(new ArrayList<Integer>(groupChildren.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * The StructuralReasoner does not always give disjoint nodes without cycles, when the subclass axioms have cycles.
+	 * Such nodes are grouped: first the nodes that share a class, and then the nodes in a cycle of the grouped
+	 * nodes, found as the strongly connected components of Tarjan's algorithm, which is iterative here.
+	 * @return the group of each node, as the id of one of its nodes
+	 */
+	private static int[] groupNodes(List<Node<OWLClass>> nodes, List<List<Integer>> nodeChildren) {
+		int nodeCount = nodes.size();
+		int[] group = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			group[i] = i;
+		}
+
+		Map<OWLClass, Integer> cls2firstNode = new HashMap<OWLClass, Integer>();
+		for (int i = 0; i < nodeCount; i++) {
+			for (OWLClass cls : nodes.get(i).entities().toArray(OWLClass[]::new)) {
+				Integer first = cls2firstNode.putIfAbsent(cls, i);
+				if (first != null) {
+					union(group, first, i);
+				}
+			}
+		}
+
+		List<List<Integer>> groupChildren = new ArrayList<List<Integer>>();
+		for (int i = 0; i < nodeCount; i++) {
+			groupChildren.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			for (int child : nodeChildren.get(i)) {
+				groupChildren.get(find(group, i)).add(find(group, child));
+			}
+		}
+
+		int[] index = new int[nodeCount];
+		Arrays.fill(index, -1);
+		int[] low = new int[nodeCount];
+		int[] cursor = new int[nodeCount];
+		boolean[] onStack = new boolean[nodeCount];
+		int[] sccStack = new int[nodeCount];
+		int[] callStack = new int[nodeCount];
+		int sccTop = 0;
+		int counter = 0;
+
+		for (int start = 0; start < nodeCount; start++) {
+			if (find(group, start) != start || index[start] != -1) {
+				continue;
+			}
+			int callTop = 0;
+			callStack[callTop++] = start;
+			index[start] = low[start] = counter++;
+			sccStack[sccTop++] = start;
+			onStack[start] = true;
+
+			while (callTop > 0) {
+				int v = callStack[callTop - 1];
+				List<Integer> vChildren = groupChildren.get(v);
+				if (cursor[v] < vChildren.size()) {
+					int w = vChildren.get(cursor[v]++);
+					if (index[w] == -1) {
+						index[w] = low[w] = counter++;
+						sccStack[sccTop++] = w;
+						onStack[w] = true;
+						callStack[callTop++] = w;
+					} else if (onStack[w] == true) {
+						low[v] = Math.min(low[v], index[w]);
+					}
+				} else {
+					callTop--;
+					if (callTop > 0) {
+						int parent = callStack[callTop - 1];
+						low[parent] = Math.min(low[parent], low[v]);
+					}
+					if (low[v] == index[v]) {
+						int w;
+						do {
+							w = sccStack[--sccTop];
+							onStack[w] = false;
+							union(group, v, w);
+						} while (w != v);
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < nodeCount; i++) {
+			group[i] = find(group, i);
+		}
+		return group;
+	}
+
+	private static int find(int[] group, int node) {
+		while (group[node] != node) {
+			group[node] = group[group[node]];
+			node = group[node];
+		}
+		return node;
+	}
+
+	private static void union(int[] group, int a, int b) {
+		int rootA = find(group, a);
+		int rootB = find(group, b);
+		if (rootA != rootB) {
+			group[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+		}
+	}
+
+	private void buildEdges(List<List<Integer>> nodeChildren) {
+		int nodeCount = nodeChildren.size();
+
+		childStart = new int[nodeCount + 1];
+		for (int i = 0; i < nodeCount; i++) {
+			childStart[i + 1] = childStart[i] + nodeChildren.get(i).size();
+		}
+		children = new int[childStart[nodeCount]];
+		int[] parentCount = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			int j = childStart[i];
+			for (int child : nodeChildren.get(i)) {
+				children[j++] = child;
+				parentCount[child]++;
+			}
+		}
+
+		parentStart = new int[nodeCount + 1];
+		for (int i = 0; i < nodeCount; i++) {
+			parentStart[i + 1] = parentStart[i] + parentCount[i];
+		}
+		parents = new int[children.length];
+		int[] next = Arrays.copyOf(parentStart, nodeCount);
+		for (int i = 0; i < nodeCount; i++) {
+			for (int j = childStart[i]; j < childStart[i + 1]; j++) {
+				parents[next[children[j]]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Numbers the nodes in the post-order of an iterative depth first traversal from owl:Thing,
+	 * and then labels them with intervals, children first.
+	 */
+	private void buildIntervals() {
+		int nodeCount = nodeClses.length;
+		post = new int[nodeCount];
+		nodeByPost = new int[nodeCount];
+		int[] treeLo = new int[nodeCount];
+
+		boolean[] visited = new boolean[nodeCount];
+		int[] stack = new int[nodeCount];
+		int[] cursor = new int[nodeCount];
+		int top = 0;
+		int counter = 0;
+
+		stack[top++] = 0;
+		visited[0] = true;
+		treeLo[0] = counter;
+		cursor[0] = childStart[0];
+
+		while (top > 0) {
+			int node = stack[top - 1];
+			if (cursor[node] < childStart[node + 1]) {
+				int child = children[cursor[node]++];
+				if (visited[child] == false) {
+					visited[child] = true;
+					treeLo[child] = counter;
+					cursor[child] = childStart[child];
+					stack[top++] = child;
+				}
+			} else {
+				top--;
+				post[node] = counter;
+				nodeByPost[counter] = node;
+				counter++;
+			}
+		}
+
+		//the children are always numbered before their parents
+		int[][] nodeIntervals = new int[nodeCount][];
+		int intervalCount = 0;
+		for (int p = 0; p < nodeCount; p++) {
+			int node = nodeByPost[p];
+			nodeIntervals[node] = mergeIntervals(node, treeLo[node], nodeIntervals);
+			intervalCount += nodeIntervals[node].length / 2;
+		}
+
+		intervalStart = new int[nodeCount + 1];
+		intervalLo = new int[intervalCount];
+		intervalHi = new int[intervalCount];
+		int i = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			intervalStart[node] = i;
+			int[] intervals = nodeIntervals[node];
+			for (int j = 0; j < intervals.length; j += 2) {
+				intervalLo[i] = intervals[j];
+				intervalHi[i] = intervals[j + 1];
+				i++;
+			}
+		}
+		intervalStart[nodeCount] = i;
+	}
+
+	/**
+	 * @return the sorted, merged intervals of the node, as lo, hi pairs
+	 */
+	private int[] mergeIntervals(int node, int treeLo, int[][] nodeIntervals) {
+		List<int[]> all = new ArrayList<int[]>();
+		all.add(new int[] {treeLo, post[node]});
+		for (int i = childStart[node]; i < childStart[node + 1]; i++) {
+			int[] childIntervals = nodeIntervals[children[i]];
+			for (int j = 0; j < childIntervals.length; j += 2) {
+				//the intervals inside the tree interval are already covered
+				if (childIntervals[j] < treeLo || childIntervals[j + 1] > post[node]) {
+					all.add(new int[] {childIntervals[j], childIntervals[j + 1]});
+				}
+			}
+		}
+
+		all.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+		int[] merged = new int[all.size() * 2];
+		int size = 0;
+		for (int[] interval : all) {
+			if (size > 0 && interval[0] <= merged[size - 1] + 1) {
+				merged[size - 1] = Math.max(merged[size - 1], interval[1]);
+			} else {
+				merged[size++] = interval[0];
+				merged[size++] = interval[1];
+			}
+		}
+		return Arrays.copyOf(merged, size);
+	}
+
+}
@@ -11,6 +11,14 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -31,34 +39,75 @@ public class ICDFMALexicalMatch {
 	private static HashMap<String,String> fmaId2fmaPrefName = new HashMap<String, String>();
 	private static HashMap<String,List<String>> fmaId2fmaSyns = new HashMap<String, List<String>>();
 	
-	//per ICD line
-	private static int maxMatchScore = 0;
+	//candidate blocking for the fuzzy queries, built once after reading the FMA CSV
+	private static boolean useCandidateIndex = true;
+	private static boolean compareWithBruteForce = false;
+	private static FuzzyCandidateIndex fmaPrefNameIndex;
+	private static FuzzyCandidateIndex fmaSynIndex;
+	private static AtomicLong candidateCount = new AtomicLong();
+	private static AtomicInteger mismatchCount = new AtomicInteger();
 	
 	private static int fmaLineCount = 0;
-	private static int icdLineCount = 0;
+	private static AtomicInteger icdLineCount = new AtomicInteger();
 	
 	private static int log_print = 100;
 	
+	//1 means the ICD rows are processed sequentially
+	private static int threadCount = 1;
+	//how many ICD rows per thread can be scored ahead of the row that is written next
+	private static final int ROWS_AHEAD_PER_THREAD = 16;
+	
 	private static BufferedWriter resultCSVWriter;
 
 	
 	public static void main(String[] args) {
-		 if (args.length != 3) {
-	            log.error("Needs 3 params: (1) ICD CSV file, (2) FMA CSV file, and (3) output file");
+		 if (args.length < 3 || args.length > 5) {
+	            log.error("Needs 3 params: (1) ICD CSV file, (2) FMA CSV file, and (3) output file; " +
+	            		"an optional (4) matching mode: index (default), bruteforce, or compare; " + 
+	            		"and an optional (5) number of threads (default 1)");
 	            return;
 	     }
 		 
+		 if (args.length > 3) {
+			 setMatchingMode(args[3]);
+		 }
+		 if (args.length > 4) {
+			 setThreadCount(args[4]);
+		 }
+		 
 		 try {
 			readFMACSV(args[1]);
 			
 			log.info("Ended reading FMA .. " + fmaLineCount + " lines. " + new Date());
 			
-			processICDCSV(args[0], args[2]);
+			if (threadCount > 1) {
+				processICDCSVParallel(args[0], args[2]);
+			} else {
+				processICDCSV(args[0], args[2]);
+			}
 			
 			
 			log.info("Ended mappings. Processed " + icdLineCount + " ICD lines. " + new Date());
+			if (useCandidateIndex == true) {
+				log.info("Scored " + candidateCount + " FMA candidates using the candidate index.");
+			}
+			if (compareWithBruteForce == true) {
+				log.info("Found " + mismatchCount + " differences between the candidate index and the brute force matching.");
+			}
+			log.info("Stem cache: " + StringMatcher.getStemCache());
 		} catch (IOException e) {
 			log.error("IO Exception", e);
+		} catch (InterruptedException e) {
+			log.error("Interrupted while processing the ICD rows", e);
+		}
+	}
+	
+	
+	private static void setThreadCount(String threads) {
+		try {
+			threadCount = Math.max(1, Integer.parseInt(threads));
+		} catch (NumberFormatException e) {
+			log.warn("Invalid number of threads: " + threads + ". Will process the ICD rows sequentially.");
 		}
 	}
 	
@@ -73,7 +122,7 @@ public class ICDFMALexicalMatch {
 		try {
 			while (( row = csvReader.readLine()) != null) {
 				processICDLine(row);
-				if (icdLineCount % log_print == 0) {
+				if (icdLineCount.get() % log_print == 0) {
 					log.info("Processed " + icdLineCount + " ICD lines.");
 				}
 			}
@@ -86,16 +135,87 @@ public class ICDFMALexicalMatch {
 	}
 	
 	
+	/**
+	 * Scores the ICD rows on a pool of threadCount workers. The futures are kept in a bounded 
+	 * queue in input order, which acts as a reorder buffer: the rows are written in the same 
+	 * order as in the ICD CSV, even if they finish out of order.
+	 */
+	private static void processICDCSVParallel(String icdCSV, String resultCSV) throws IOException, InterruptedException {
+		BufferedReader csvReader = new BufferedReader(new FileReader(icdCSV));
+		resultCSVWriter = new BufferedWriter(new FileWriter(new File(resultCSV)));
+		
+		log.info("Processing ICD rows with " + threadCount + " threads.");
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		BlockingQueue<Future<List<ICDFMAMatchRecord>>> pending = 
+				new ArrayBlockingQueue<Future<List<ICDFMAMatchRecord>>>(threadCount * ROWS_AHEAD_PER_THREAD);
+		
+		int writtenRows = 0;
+		String row = null;
+		try {
+			try {
+				while (( row = csvReader.readLine()) != null) {
+					if (pending.remainingCapacity() == 0) {
+						writeNextRow(pending, ++writtenRows);
+					}
+					final String icdRow = row;
+					pending.put(executor.submit(() -> matchICDLine(icdRow)));
+				}
+			} catch (IOException e) {
+				log.error("IO Exception at processing ICD row: " + row, e);
+			}
+			
+			while (pending.isEmpty() == false) {
+				writeNextRow(pending, ++writtenRows);
+			}
+			resultCSVWriter.flush();
+		} finally {
+			//the rows still pending, if the writing was interrupted, are not needed anymore
+			executor.shutdownNow();
+			resultCSVWriter.close();
+			csvReader.close();
+		}
+	}
+	
+	
+	private static void writeNextRow(BlockingQueue<Future<List<ICDFMAMatchRecord>>> pending, int rowNumber) 
+			throws InterruptedException {
+		try {
+			List<ICDFMAMatchRecord> matchRecs = pending.take().get();
+			if (matchRecs != null) {
+				writeMatchRecords(matchRecs, resultCSVWriter);
+			}
+			if (rowNumber % log_print == 0) {
+				log.info("Written " + rowNumber + " ICD rows.");
+			}
+		} catch (ExecutionException e) {
+			log.error("Exception at processing ICD row", e.getCause());
+		}
+	}
+	
+	
 	/**
 	 * id, title, syns*
 	 * @param row
 	 */
 	private static void processICDLine(String row) {
+		List<ICDFMAMatchRecord> matchRecs = matchICDLine(row);
+		if (matchRecs != null) {
+			writeMatchRecords(matchRecs, resultCSVWriter);
+		}
+	}
+	
+	
+	/**
+	 * Returns the pruned match records of an ICD row, or null if the row was ignored.
+	 * It does not write anything, so it can be called from any thread.
+	 */
+	private static List<ICDFMAMatchRecord> matchICDLine(String row) {
 		String[] data = row.split(COL_SEPARATOR);
 		
 		if (data.length < 2) {
 			log.warn("Ignoring ICD row, because no pref name, or no id: " + row);
-			return;
+			return null;
 		} 
 		
 		String id = data[0];
@@ -107,24 +227,42 @@ public class ICDFMALexicalMatch {
 			syns = data[2].split(VALUE_SEPARATOR);
 		}
 		
-		processICDEntity(id, title, syns, resultCSVWriter);
+		List<ICDFMAMatchRecord> matchRecs = matchICDEntity(id, title, syns);
+		
+		icdLineCount.incrementAndGet();
 		
-		icdLineCount ++ ;
+		return matchRecs;
 	}
 
 
 	public static void processICDEntity(String icdId, String icdTitle, String[] syns, BufferedWriter writer) {
-		maxMatchScore = 0;
+		writeMatchRecords(matchICDEntity(icdId, icdTitle, syns), writer);
+	}
+	
+	
+	/**
+	 * Each call has its own record list and max score, so the ICD entities can be matched in parallel.
+	 */
+	public static List<ICDFMAMatchRecord> matchICDEntity(String icdId, String icdTitle, String[] syns) {
 		List<ICDFMAMatchRecord> matchRecs = new ArrayList<ICDFMAMatchRecord>();
 		
-		
 		matchRecs.addAll(processTitle(icdId, icdTitle, true)); //ICD title -> FMA pref name
 		matchRecs.addAll(processTitle(icdId, icdTitle, false)); //ICD title -> FMA syns
 		matchRecs.addAll(processSyns(icdId, icdTitle, syns, true)); //ICD syn -> FMA pref name
 		matchRecs.addAll(processSyns(icdId, icdTitle, syns, false)); //ICD syn -> FMA syn
 		
-		matchRecs = pruneMatchRecords(matchRecs, maxMatchScore);
-		writeMatchRecords(matchRecs, writer);
+		return pruneMatchRecords(matchRecs, getMaxMatchScore(matchRecs));
+	}
+	
+	
+	private static int getMaxMatchScore(List<ICDFMAMatchRecord> matchRecs) {
+		int maxMatchScore = 0;
+		for (ICDFMAMatchRecord rec : matchRecs) {
+			if (rec.getScore() > maxMatchScore) {
+				maxMatchScore = rec.getScore();
+			}
+		}
+		return maxMatchScore;
 	}
 	
 
@@ -153,11 +291,6 @@ public class ICDFMALexicalMatch {
 					icdTitle, PREF_NAME_ABREV,
 					result.getString(), processWithFMAPrefName ? PREF_NAME_ABREV : SYN_ABREV,
 					result.getScore()));
-			
-			int score = result.getScore();
-			if (score > maxMatchScore) {
-				maxMatchScore = score;
-			}
 		}
 		
 		return recs;
@@ -179,11 +312,6 @@ public class ICDFMALexicalMatch {
 						syn, SYN_ABREV,
 						result.getString(), processWithFMAPrefName ? PREF_NAME_ABREV : SYN_ABREV,
 						result.getScore()));
-				
-				int score = result.getScore();
-				if (score > maxMatchScore) {
-					maxMatchScore = score;
-				}
 			}
 		}
 		
@@ -221,7 +349,33 @@ public class ICDFMALexicalMatch {
 	}
 
 
+	private static void setMatchingMode(String mode) {
+		if ("bruteforce".equals(mode)) {
+			useCandidateIndex = false;
+		} else if ("compare".equals(mode)) {
+			compareWithBruteForce = true;
+		} else if ("index".equals(mode) == false) {
+			log.warn("Unknown matching mode: " + mode + ". Will use the candidate index.");
+		}
+	}
+	
+	
 	private static List<FMAExtractedResult> fuzzyQuery(String query, boolean isPrefName) {
+		if (useCandidateIndex == false) {
+			return bruteForceFuzzyQuery(query, isPrefName);
+		}
+		
+		List<FMAExtractedResult> results = indexedFuzzyQuery(query, isPrefName);
+		
+		if (compareWithBruteForce == true) {
+			compareResults(query, isPrefName, results, bruteForceFuzzyQuery(query, isPrefName));
+		}
+		
+		return results;
+	}
+	
+	
+	private static List<FMAExtractedResult> bruteForceFuzzyQuery(String query, boolean isPrefName) {
 		List<FMAExtractedResult> results = new ArrayList<FMAExtractedResult>();
 				
 		for (String fmaid : fmaId2fmaPrefName.keySet()) {
@@ -231,6 +385,49 @@ public class ICDFMALexicalMatch {
 	}
 	
 	
+	/**
+	 * Scores only the FMA strings returned by the candidate index. The index returns them in 
+	 * the same order as the brute force iteration, so the results are the same.
+	 */
+	private static List<FMAExtractedResult> indexedFuzzyQuery(String query, boolean isPrefName) {
+		List<FMAExtractedResult> results = new ArrayList<FMAExtractedResult>();
+		
+		FuzzyCandidateIndex index = isPrefName == true ? fmaPrefNameIndex : fmaSynIndex;
+		int[] candidates = index.getCandidates(query);
+		candidateCount.addAndGet(candidates.length);
+		
+		for (int candidate : candidates) {
+			String fmaid = index.getId(candidate);
+			String str = index.getString(candidate);
+			int score = fuzzyQuery(str, query);
+			if (score > FUZZY_MATCH_CUT_OFF) {
+				results.add(new FMAExtractedResult(str, score, 0, fmaid, fmaId2fmaPrefName.get(fmaid)));
+			}
+		}
+		return results;
+	}
+	
+	
+	private static void compareResults(String query, boolean isPrefName, 
+			List<FMAExtractedResult> indexResults, List<FMAExtractedResult> bruteForceResults) {
+		boolean same = indexResults.size() == bruteForceResults.size();
+		for (int i = 0; same == true && i < indexResults.size(); i++) {
+			FMAExtractedResult res1 = indexResults.get(i);
+			FMAExtractedResult res2 = bruteForceResults.get(i);
+			same = res1.getFmaId().equals(res2.getFmaId()) && 
+					res1.getString().equals(res2.getString()) &&
+					res1.getScore() == res2.getScore();
+		}
+		
+		if (same == false) {
+			mismatchCount.incrementAndGet();
+			log.warn("Candidate index and brute force results differ for " + (isPrefName ? "pref name" : "syn") + 
+					" query: " + query + ". Index: " + indexResults.size() + " results, brute force: " + 
+					bruteForceResults.size() + " results.");
+		}
+	}
+	
+	
 	public static List<FMAExtractedResult> fuzzyQuery(String fmaid, String query, boolean isPrefName) {
 		List<FMAExtractedResult> results = new ArrayList<FMAExtractedResult>();
 		
@@ -276,6 +473,36 @@ public class ICDFMALexicalMatch {
 			log.error("IO Exception at processing FMA row: " + row, e);
 		}
 		csvReader.close();
+		
+		if (useCandidateIndex == true) {
+			buildFMAIndex();
+		}
+	}
+	
+	
+	/**
+	 * The entries are added in the iteration order of the brute force fuzzy query.
+	 */
+	private static void buildFMAIndex() {
+		fmaPrefNameIndex = new FuzzyCandidateIndex(FUZZY_MATCH_CUT_OFF);
+		fmaSynIndex = new FuzzyCandidateIndex(FUZZY_MATCH_CUT_OFF);
+		
+		for (String fmaid : fmaId2fmaPrefName.keySet()) {
+			fmaPrefNameIndex.add(fmaid, fmaId2fmaPrefName.get(fmaid));
+			
+			List<String> syns = fmaId2fmaSyns.get(fmaid);
+			if (syns != null) {
+				for (String syn : syns) {
+					fmaSynIndex.add(fmaid, syn);
+				}
+			}
+		}
+		
+		fmaPrefNameIndex.build();
+		fmaSynIndex.build();
+		
+		log.info("Built FMA candidate index: " + fmaPrefNameIndex.size() + " pref names and " + 
+				fmaSynIndex.size() + " synonyms. " + new Date());
 	}
 	
 	
@@ -0,0 +1,117 @@
+package org.fma.icd.map;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe cache with a bounded size that evicts the least recently used entries.
+ *
+ * The entries are spread over several segments by the hash of the key, and each segment is
+ * an access ordered {@link LinkedHashMap} guarded by its own lock. So, threads working on
+ * different keys rarely wait for each other, and the eviction is LRU within each segment.
+ *
+ * It also counts the hits and misses, which is useful to tune the size of the cache.
+ */
+public class LRUCache<K, V> {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private final Segment<K, V>[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+
+	@SuppressWarnings("unchecked")
+	public LRUCache(int maxSize) {
+		int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+		segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment<K, V>(segmentSize);
+		}
+	}
+
+	/**
+	 * @return the cached value, or null if the key is not in the cache
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = getSegment(key);
+		V value;
+		synchronized (segment) {
+			value = segment.get(key);
+		}
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	public void put(K key, V value) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size = size + segment.size();
+			}
+		}
+		return size;
+	}
+
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.reset();
+		misses.reset();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		long hitCount = getHitCount();
+		long total = hitCount + getMissCount();
+		return "size: " + size() + ", hits: " + hitCount + ", misses: " + getMissCount() +
+				", hit rate: " + (total == 0 ? 0 : hitCount * 100 / total) + "%";
+	}
+
+	private Segment<K, V> getSegment(K key) {
+		int hash = key.hashCode();
+		hash = hash ^ (hash >>> 16);
+		return segments[(hash & 0x7fffffff) % SEGMENT_COUNT];
+	}
+
+
+	private static class Segment<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		private Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.fma.icd.map;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to int values, with open addressing, that does not box the keys or values.
+ * The keys must not be negative. It is not thread-safe.
+ */
+public class LongIntHashMap {
+
+	private static final long EMPTY = -1L;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private int resizeAt;
+
+
+	public LongIntHashMap() {
+		this(1024);
+	}
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * @return the value of the key, or defaultValue if the key is not in the map
+	 */
+	public int get(long key, int defaultValue) {
+		int slot = findSlot(keys, key);
+		return keys[slot] == key ? values[slot] : defaultValue;
+	}
+
+	public boolean containsKey(long key) {
+		return keys[findSlot(keys, key)] == key;
+	}
+
+	public void put(long key, int value) {
+		if (key < 0) {
+			throw new IllegalArgumentException("Negative keys are not supported: " + key);
+		}
+		int slot = findSlot(keys, key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+
+		if (size > resizeAt) {
+			rehash();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = findSlot(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * @return the slot of the key, or the empty slot where it should go
+	 */
+	private static int findSlot(long[] keys, long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != key && keys[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.fma.icd.map;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+/**
+ * Checks that the rolling row versions of {@link StringUtils#longestCommonSubstring(String, String)} and
+ * {@link StringUtils#longestCommonSubstrings(String, String)} give the same results as the previous full table versions,
+ * and measures the time and the bytes allocated per call of each.
+ * <p>
+ * The allocation is read from the thread allocation counter of the JVM, so it includes the returned strings.
+ * The pairs are random strings over a small alphabet, so that there are many common substrings,
+ * and all pairs of labels from a file, if given.
+ * <p>
+ * Usage: LongestCommonSubstringBenchmark [labels file, one label per line] [random pairs]
+ */
+public class LongestCommonSubstringBenchmark {
+
+	private static final String ALPHABET = "abcAB ";
+
+	public static void main(String[] args) throws IOException {
+		int pairCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		List<String[]> pairs = new ArrayList<String[]>();
+		Random random = new Random(42);
+		for (int i = 0; i < pairCount; i++) {
+			pairs.add(new String[] {randomString(random, random.nextInt(40)), randomString(random, random.nextInt(40))});
+		}
+		checkAndTime("Random pairs", pairs);
+
+		if (args.length > 0) {
+			List<String> labels = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+			if (labels.size() > 500) {
+				labels = labels.subList(0, 500);
+			}
+			pairs = new ArrayList<String[]>();
+			for (int i = 0; i < labels.size(); i++) {
+				for (int j = i + 1; j < labels.size(); j++) {
+					pairs.add(new String[] {labels.get(i), labels.get(j)});
+				}
+			}
+			checkAndTime("Label pairs", pairs);
+		}
+	}
+
+	private static void checkAndTime(String name, List<String[]> pairs) {
+		int differences = 0;
+		for (String[] pair : pairs) {
+			if (StringUtils.longestCommonSubstringTable(pair[0], pair[1]).equals(
+					StringUtils.longestCommonSubstring(pair[0], pair[1])) == false) {
+				differences++;
+			}
+			if (StringUtils.longestCommonSubstringsTable(pair[0], pair[1]).equals(
+					StringUtils.longestCommonSubstrings(pair[0], pair[1])) == false) {
+				differences++;
+				if (differences <= 20) {
+					System.out.println("Different: [" + pair[0] + "] [" + pair[1] + "] table: " +
+							StringUtils.longestCommonSubstringsTable(pair[0], pair[1]) +
+							" rolling: " + StringUtils.longestCommonSubstrings(pair[0], pair[1]));
+				}
+			}
+		}
+		System.out.println(name + ": " + pairs.size() + ", different results: " + differences);
+
+		//twice, so that the second round is measured after the warm up
+		for (int round = 0; round < 2; round++) {
+			measure("longestCommonSubstring, table", pairs, StringUtils::longestCommonSubstringTable);
+			measure("longestCommonSubstring, rolling", pairs, StringUtils::longestCommonSubstring);
+			measure("longestCommonSubstrings, table", pairs, StringUtils::longestCommonSubstringsTable);
+			measure("longestCommonSubstrings, rolling", pairs, StringUtils::longestCommonSubstrings);
+		}
+	}
+
+	private static void measure(String name, List<String[]> pairs, BiFunction<String, String, Object> function) {
+		long bytes0 = getAllocatedBytes();
+		long t0 = System.nanoTime();
+		int hash = 0;
+		for (String[] pair : pairs) {
+			hash += function.apply(pair[0], pair[1]).hashCode();
+		}
+		long t1 = System.nanoTime();
+		long bytes1 = getAllocatedBytes();
+
+		System.out.println("  " + name + ": " + (t1 - t0) / pairs.size() + " ns/call, " +
+				(bytes1 - bytes0) / pairs.size() + " bytes/call (" + hash + ")");
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).
+				getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static String randomString(Random random, int length) {
+		StringBuilder str = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			str.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return str.toString();
+	}
+
+}
@@ -0,0 +1,364 @@
+package org.fma.icd.map;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
+
+/**
+ * Writes the graph to an embedded Neo4j database, committing a transaction every batch size writes,
+ * instead of one transaction per node or relationship.
+ * <p>
+ * The name (the IRI) of the nodes is unique per label, with a constraint created by {@link #prepareLabel(String)},
+ * which also indexes it. In the upsert mode, the nodes and relationships are looked up before they are created,
+ * so that a database can be refreshed from a newer ontology: the existing nodes and relationships are kept,
+ * the changed preferred labels are updated, and {@link #removeStale()} deletes what was not written in the run.
+ * <p>
+ * If a write fails or a transaction cannot be committed, the writes of the open batch are rolled back and
+ * a {@link GraphWriteException} is thrown, so that the load is stopped.
+ */
+public class Neo4JBatchWriter extends GraphWriter {
+
+	private static transient Logger log = Logger.getLogger(Neo4JBatchWriter.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	private GraphDatabaseService graphDb;
+	private int batchSize;
+	private boolean shutdownOnClose = false;
+	private boolean upsert = false;
+
+	private Set<Label> labels = new LinkedHashSet<Label>();
+	//the nodes and relationships written or found in the upsert mode, by id
+	private BitSet writtenNodes = new BitSet();
+	private BitSet writtenRels = new BitSet();
+
+	private long createdCount = 0;
+	private long updatedCount = 0;
+	private long unchangedCount = 0;
+
+	private Transaction tx;
+	private int txWriteCount = 0;
+	private long commitCount = 0;
+
+
+	/**
+	 * @param batchSize - the number of writes per transaction; 1 commits each write on its own
+	 */
+	public Neo4JBatchWriter(GraphDatabaseService graphDb, int batchSize) {
+		this.graphDb = graphDb;
+		this.batchSize = Math.max(1, batchSize);
+		log.info("Writing to Neo4j in transactions of " + this.batchSize + " nodes or relationships");
+	}
+
+	/**
+	 * Opens the embedded database in the folder, which is shut down when the writer is closed.
+	 */
+	public static Neo4JBatchWriter openDatabase(File dbFolder, int batchSize, boolean upsert) {
+		GraphDatabaseService graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(dbFolder);
+		registerShutdownHook(graphDb);
+
+		Neo4JBatchWriter writer = new Neo4JBatchWriter(graphDb, batchSize);
+		writer.shutdownOnClose = true;
+		writer.setUpsert(upsert);
+		return writer;
+	}
+
+	/**
+	 * @param upsert - if true, the nodes are looked up by label and name, and the relationships by type, end node
+	 * and property, and are only created, if they are not found
+	 */
+	public void setUpsert(boolean upsert) {
+		this.upsert = upsert;
+		if (upsert == true) {
+			log.info("Upserting the nodes and relationships");
+		}
+	}
+
+	/**
+	 * Creates the uniqueness constraint of the name of the nodes with the label, if it does not exist, and waits for its index.
+	 * Without upsert, the database must not have nodes with the label.
+	 */
+	@Override
+	public void prepareLabel(String labelName) {
+		Label label = Label.label(labelName);
+		if (labels.add(label) == false) {
+			return;
+		}
+		flush();
+
+		try (Transaction schemaTx = graphDb.beginTx()) {
+			if (hasNameConstraint(label) == false) {
+				graphDb.schema().constraintFor(label).assertPropertyIsUnique(NAME_PROP).create();
+				log.info("Created the uniqueness constraint on " + labelName + "." + NAME_PROP);
+			}
+			schemaTx.success();
+		}
+
+		try (Transaction readTx = graphDb.beginTx()) {
+			graphDb.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+			if (upsert == false) {
+				try (ResourceIterator<Node> nodes = graphDb.findNodes(label)) {
+					if (nodes.hasNext() == true) {
+						throw new IllegalStateException("The database already has " + labelName +
+								" nodes. Set neo4j.upsert=true to refresh it, or start from an empty database.");
+					}
+				}
+			}
+			readTx.success();
+		}
+	}
+
+	public GraphDatabaseService getGraphDb() {
+		return graphDb;
+	}
+
+	@Override
+	public long createNode(String label, String name, String prefLabel) {
+		beginTx();
+		nodeCreated();
+		try {
+			if (upsert == true) {
+				Node node = graphDb.findNode(Label.label(label), NAME_PROP, name);
+				if (node != null) {
+					updateNode(node, prefLabel);
+					writtenNodes.set(toIndex(node.getId()));
+					return node.getId();
+				}
+			}
+
+			Node node = graphDb.createNode(Label.label(label));
+			node.setProperty(NAME_PROP, name);
+			if (prefLabel != null) {
+				node.setProperty(PREF_LABEL_PROP, prefLabel);
+			}
+			if (upsert == true) {
+				writtenNodes.set(toIndex(node.getId()));
+			}
+			createdCount++;
+			written();
+			return node.getId();
+		} catch (RuntimeException e) {
+			throw rollback("the node " + name, e);
+		}
+	}
+
+	@Override
+	public void createRelationship(long fromNode, long toNode, RelationshipType type, String propName, String propValue) {
+		beginTx();
+		relationshipCreated();
+		try {
+			Node from = graphDb.getNodeById(fromNode);
+			if (upsert == true) {
+				Relationship rel = findRelationship(from, toNode, type, propName, propValue);
+				if (rel != null) {
+					writtenRels.set(toIndex(rel.getId()));
+					unchangedCount++;
+					return;
+				}
+			}
+
+			Relationship rel = from.createRelationshipTo(graphDb.getNodeById(toNode), type);
+			if (propName != null) {
+				rel.setProperty(propName, propValue);
+			}
+			if (upsert == true) {
+				writtenRels.set(toIndex(rel.getId()));
+			}
+			createdCount++;
+			written();
+		} catch (RuntimeException e) {
+			throw rollback("the " + type.name() + " relationship from " + fromNode + " to " + toNode, e);
+		}
+	}
+
+	/**
+	 * In the upsert mode, deletes the relationships from the nodes with the prepared labels that were not written
+	 * in this run, and the nodes that were not written, with all their relationships. It should only be called
+	 * after the whole graph was written.
+	 */
+	@Override
+	public void removeStale() {
+		if (upsert == false) {
+			return;
+		}
+		flush();
+
+		List<Long> staleNodes = new ArrayList<Long>();
+		List<Long> staleRels = new ArrayList<Long>();
+		try (Transaction readTx = graphDb.beginTx()) {
+			for (Label label : labels) {
+				try (ResourceIterator<Node> nodes = graphDb.findNodes(label)) {
+					while (nodes.hasNext() == true) {
+						Node node = nodes.next();
+						if (writtenNodes.get(toIndex(node.getId())) == false) {
+							staleNodes.add(node.getId());
+							continue;
+						}
+						for (Relationship rel : node.getRelationships(Direction.OUTGOING)) {
+							if (writtenRels.get(toIndex(rel.getId())) == false) {
+								staleRels.add(rel.getId());
+							}
+						}
+					}
+				}
+			}
+			readTx.success();
+		}
+
+		for (long relId : staleRels) {
+			beginTx();
+			graphDb.getRelationshipById(relId).delete();
+			written();
+		}
+		for (long nodeId : staleNodes) {
+			beginTx();
+			Node node = graphDb.getNodeById(nodeId);
+			for (Relationship rel : node.getRelationships()) {
+				rel.delete();
+			}
+			node.delete();
+			written();
+		}
+		flush();
+
+		log.info("Removed " + staleNodes.size() + " stale nodes and " + staleRels.size() + " stale relationships");
+	}
+
+	@Override
+	public void flush() {
+		if (tx == null) {
+			return;
+		}
+		try {
+			tx.success();
+			tx.close();
+			commitCount++;
+		} catch (RuntimeException e) {
+			throw new GraphWriteException("Could not commit the transaction with the last " + txWriteCount + " writes", e);
+		} finally {
+			tx = null;
+			txWriteCount = 0;
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		log.info("Committed " + commitCount + " transactions");
+		if (upsert == true) {
+			log.info("Created " + createdCount + " nodes and relationships, updated " + updatedCount +
+					", unchanged " + unchangedCount);
+		}
+		if (shutdownOnClose == true) {
+			graphDb.shutdown();
+		}
+	}
+
+
+	private static void registerShutdownHook(GraphDatabaseService graphDb) {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				graphDb.shutdown();
+			};
+		});
+	}
+
+	private boolean hasNameConstraint(Label label) {
+		for (ConstraintDefinition constraint : graphDb.schema().getConstraints(label)) {
+			if (constraint.isConstraintType(ConstraintType.UNIQUENESS) == true) {
+				for (String key : constraint.getPropertyKeys()) {
+					if (NAME_PROP.equals(key) == true) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void updateNode(Node node, String prefLabel) {
+		Object oldPrefLabel = node.getProperty(PREF_LABEL_PROP, null);
+		if (Objects.equals(oldPrefLabel, prefLabel) == true) {
+			unchangedCount++;
+			return;
+		}
+		if (prefLabel == null) {
+			node.removeProperty(PREF_LABEL_PROP);
+		} else {
+			node.setProperty(PREF_LABEL_PROP, prefLabel);
+		}
+		updatedCount++;
+		written();
+	}
+
+	private static Relationship findRelationship(Node from, long toNode, RelationshipType type, String propName, String propValue) {
+		for (Relationship rel : from.getRelationships(Direction.OUTGOING, type)) {
+			if (rel.getEndNodeId() == toNode &&
+					(propName == null || Objects.equals(rel.getProperty(propName, null), propValue) == true)) {
+				return rel;
+			}
+		}
+		return null;
+	}
+
+	private static int toIndex(long id) {
+		if (id > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Node or relationship id too large for the upsert mode: " + id);
+		}
+		return (int) id;
+	}
+
+	/**
+	 * Rolls back the open transaction after a failed write.
+	 * @return the exception to throw
+	 */
+	private GraphWriteException rollback(String write, RuntimeException e) {
+		if (e instanceof GraphWriteException) {
+			//the commit of the full batch failed, and the transaction is already closed
+			return (GraphWriteException) e;
+		}
+		int lostCount = txWriteCount;
+		try {
+			tx.failure();
+			tx.close();
+		} catch (RuntimeException closeException) {
+			e.addSuppressed(closeException);
+		} finally {
+			tx = null;
+			txWriteCount = 0;
+		}
+		return new GraphWriteException("Could not write " + write + ", rolled back the last " + lostCount + " writes", e);
+	}
+
+	private void beginTx() {
+		if (tx == null) {
+			tx = graphDb.beginTx();
+		}
+	}
+
+	private void written() {
+		txWriteCount++;
+		if (txWriteCount >= batchSize) {
+			flush();
+		}
+	}
+
+}
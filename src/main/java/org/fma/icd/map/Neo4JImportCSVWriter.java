@@ -0,0 +1,148 @@
+package org.fma.icd.map;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Writes the graph in one pass to a nodes and a relationships CSV file, to be loaded into an empty
+ * database with neo4j-admin import, which is much faster than writing it through transactions.
+ * <p>
+ * The nodes get consecutive ids, which are only used to link the relationships to them, and are not stored.
+ * The relationship properties are columns, so they have to be given upfront. The values are always quoted,
+ * and a missing value is left empty, so that the property is not set. The uniqueness constraints of the names
+ * cannot be imported, so the statements creating them are logged, to be run after the import.
+ */
+public class Neo4JImportCSVWriter extends GraphWriter {
+
+	private static transient Logger log = Logger.getLogger(Neo4JImportCSVWriter.class);
+
+	public static final String NODES_FILE = "nodes.csv";
+	public static final String RELATIONSHIPS_FILE = "relationships.csv";
+
+	private File dir;
+	private Writer nodesWriter;
+	private Writer relsWriter;
+	private List<String> relProps;
+	private Set<String> labels = new LinkedHashSet<String>();
+
+	private long nextNodeId = 0;
+	private boolean hasMultilineValues = false;
+
+
+	/**
+	 * @param relProps - the names of the properties of the relationships
+	 */
+	public Neo4JImportCSVWriter(File dir, String... relProps) throws IOException {
+		this.dir = dir;
+		this.relProps = Arrays.asList(relProps);
+		dir.mkdirs();
+
+		nodesWriter = openWriter(new File(dir, NODES_FILE));
+		nodesWriter.write(":ID," + NAME_PROP + "," + PREF_LABEL_PROP + ",:LABEL\n");
+
+		relsWriter = openWriter(new File(dir, RELATIONSHIPS_FILE));
+		relsWriter.write(":START_ID,:END_ID,:TYPE");
+		for (String prop : relProps) {
+			relsWriter.write(',');
+			relsWriter.write(prop);
+		}
+		relsWriter.write('\n');
+
+		log.info("Writing the neo4j-admin import files to " + dir.getAbsolutePath());
+	}
+
+	@Override
+	public void prepareLabel(String label) {
+		labels.add(label);
+	}
+
+	@Override
+	public long createNode(String label, String name, String prefLabel) throws IOException {
+		long id = nextNodeId++;
+		nodesWriter.write(Long.toString(id));
+		nodesWriter.write(',');
+		writeValue(nodesWriter, name);
+		nodesWriter.write(',');
+		writeValue(nodesWriter, prefLabel);
+		nodesWriter.write(',');
+		writeValue(nodesWriter, label);
+		nodesWriter.write('\n');
+		nodeCreated();
+		return id;
+	}
+
+	@Override
+	public void createRelationship(long fromNode, long toNode, RelationshipType type, String propName, String propValue)
+			throws IOException {
+		int propIndex = propName == null ? -1 : relProps.indexOf(propName);
+		if (propName != null && propIndex == -1) {
+			throw new IllegalArgumentException("Relationship property not declared in the CSV header: " + propName);
+		}
+
+		relsWriter.write(Long.toString(fromNode));
+		relsWriter.write(',');
+		relsWriter.write(Long.toString(toNode));
+		relsWriter.write(',');
+		writeValue(relsWriter, type.name());
+		for (int i = 0; i < relProps.size(); i++) {
+			relsWriter.write(',');
+			writeValue(relsWriter, i == propIndex ? propValue : null);
+		}
+		relsWriter.write('\n');
+		relationshipCreated();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		nodesWriter.flush();
+		relsWriter.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		nodesWriter.close();
+		relsWriter.close();
+		log.info("Wrote " + nextNodeId + " nodes. Load them into an empty database with: neo4j-admin import --id-type=INTEGER" +
+				(hasMultilineValues ? " --multiline-fields=true" : "") +
+				" --nodes=" + new File(dir, NODES_FILE).getAbsolutePath() +
+				" --relationships=" + new File(dir, RELATIONSHIPS_FILE).getAbsolutePath());
+		for (String label : labels) {
+			log.info("After the import, run: CREATE CONSTRAINT ON (n:" + label + ") ASSERT n." + NAME_PROP + " IS UNIQUE");
+		}
+	}
+
+
+	private static Writer openWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private void writeValue(Writer out, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				out.write('"');
+			} else if (c == '\n' || c == '\r') {
+				hasMultilineValues = true;
+			}
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.fma.icd.map;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.logical.defs.extcauses.ExtCausesStringMatcher;
+
+/**
+ * Compares the single pass {@link TextNormalizer} with the previous, regex based, string preprocessing:
+ * first it checks that both give the same results on all the labels, and then it times them.
+ * <p>
+ * Usage: NormalizerBenchmark [labels file, one label per line] [rounds]
+ * <br>
+ * Without a labels file, it uses a few built-in labels.
+ */
+public class NormalizerBenchmark {
+
+	private static final List<String> sampleLabels = Arrays.asList(
+			"The old foxes jumped over the a house of cards in Hensons's diseases",
+			"chest wall, nos",
+			"Chest wall, NOS",
+			"anterior part of right ankle",
+			"shaft of the fifth metacarpal bone",
+			"Infections due to Chlamydia",
+			"46,XX androgen-induced disorder of sex development due to maternal Krukenberg tumour",
+			"Abscess of tendon sheath : lower leg",
+			"Tibial muscular (dystrophy), \\[Udd-type]",
+			"Cholera due to Vibrio cholerae O1, biovar eltor",
+			"Neural tube defect, unspecified",
+			"Permanent teeth of the Feet",
+			"Coeliac disease complicating pregnancy",
+			"Other specified diseases of the nervous system, not elsewhere classified",
+			"Exposure to being struck by person, animal or plant with undetermined intent",
+			"Contact with hot object or fluid",
+			"Aspect of cannabis (natural; phytocannabinoids) related poisoning",
+			"Cannabinoids & hallucinogens",
+			"Antipsychotics [neuroleptics]",
+			"Motor cyclist injured in transport on-road accident",
+			"Pedal cyclist injured in collision with other nonmotor vehicle : passenger injured in traffic accident",
+			"Controlled fire, flame in building or structure",
+			"Analgesics, antipyretics or nonsteroidal anti-inflammatory drugs",
+			"Land transport injury event of undetermined intent, unknown whether road traffic or off-road nontraffic injuring a car occupant",
+			"a pedestrian");
+
+
+	public static void main(String[] args) throws IOException {
+		List<String> labels = args.length > 0 ?
+				Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8) : sampleLabels;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		System.out.println("Labels: " + labels.size() + ", rounds: " + rounds);
+
+		compare("removeExcludedWords", labels, rounds,
+				StringMatcher::removeExcludedWordsRegex,
+				StringMatcher::removeExcludedWords);
+
+		compare("StringMatcher preprocessing (without stemming)", labels, rounds,
+				StringMatcher::preprocessStringRegex,
+				s -> StringMatcher.preprocessNormalizer.normalize(s));
+
+		compare("ExtCausesStringMatcher preprocessing (without lemmatization)", labels, rounds,
+				s -> StringMatcher.removeExcludedWordsRegex(ExtCausesStringMatcher.replaceWords(s.toLowerCase())),
+				ExtCausesStringMatcher::normalize);
+	}
+
+
+	private static void compare(String name, List<String> labels, int rounds,
+			Function<String, String> regexImpl, Function<String, String> normalizerImpl) {
+		System.out.println("--- " + name + " ---");
+
+		List<String> differences = new ArrayList<String>();
+		for (String label : labels) {
+			String expected = regexImpl.apply(label);
+			String actual = normalizerImpl.apply(label);
+			if (expected.equals(actual) == false) {
+				differences.add(label + "\n\tregex:      " + expected + "\n\tnormalizer: " + actual);
+			}
+		}
+		System.out.println("Different results: " + differences.size());
+		for (int i = 0; i < Math.min(20, differences.size()); i++) {
+			System.out.println(differences.get(i));
+		}
+
+		//first round is the warm up
+		time(labels, 1, regexImpl);
+		time(labels, 1, normalizerImpl);
+
+		long regexTime = time(labels, rounds, regexImpl);
+		long normalizerTime = time(labels, rounds, normalizerImpl);
+
+		long strings = (long) labels.size() * rounds;
+		System.out.println("Regex:      " + regexTime / 1000000 + " ms, " + regexTime / Math.max(1, strings) + " ns/string");
+		System.out.println("Normalizer: " + normalizerTime / 1000000 + " ms, " + normalizerTime / Math.max(1, strings) + " ns/string");
+	}
+
+	private static long time(List<String> labels, int rounds, Function<String, String> impl) {
+		long length = 0;
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String label : labels) {
+				length = length + impl.apply(label).length();
+			}
+		}
+		long time = System.nanoTime() - start;
+		if (length == -1) { //so that the calls are not optimized away
+			System.out.println();
+		}
+		return time;
+	}
+
+}
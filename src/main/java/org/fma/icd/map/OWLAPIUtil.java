@@ -1,11 +1,12 @@
 package org.fma.icd.map;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -112,6 +113,29 @@ public class OWLAPIUtil {
 	
 	/*************** Sub- and super-classes *****************/
 	
+	private static Map<OWLReasoner, HierarchyIndex> reasoner2hierarchyIndex = 
+			Collections.synchronizedMap(new WeakHashMap<OWLReasoner, HierarchyIndex>());
+	
+	/**
+	 * Builds the {@link HierarchyIndex} of the reasoner, and uses it from then on in the sub- and superclass lookups
+	 * called with this reasoner, instead of calling the reasoner. It should be called only if the ontology
+	 * does not change anymore; otherwise, call {@link #removeHierarchyIndex(OWLReasoner)} after the change.
+	 */
+	public static HierarchyIndex indexHierarchy(OWLReasoner reasoner) {
+		HierarchyIndex index = new HierarchyIndex(reasoner);
+		reasoner2hierarchyIndex.put(reasoner, index);
+		return index;
+	}
+	
+	public static void removeHierarchyIndex(OWLReasoner reasoner) {
+		reasoner2hierarchyIndex.remove(reasoner);
+	}
+	
+	private static HierarchyIndex getHierarchyIndex(OWLReasoner reasoner, OWLClass cls) {
+		HierarchyIndex index = reasoner2hierarchyIndex.get(reasoner);
+		return index != null && index.contains(cls) ? index : null;
+	}
+	
 	
 	public static List<OWLClassExpression> getSuperclses(OWLOntology ont, OWLClass cls) {
 		return ont.subClassAxiomsForSubClass(cls).map(s -> ((OWLSubClassOfAxiom) s).getSuperClass())
@@ -125,6 +149,11 @@ public class OWLAPIUtil {
 	
 	public static Set<OWLClass> getNamedSubclasses(OWLClass owlClass, OWLOntology ontology, 
 			OWLReasoner reasoner, boolean direct) {
+		HierarchyIndex index = getHierarchyIndex(reasoner, owlClass);
+		if (index != null) {
+			return index.getSubclasses(owlClass, direct);
+		}
+		
 		Set<OWLClass> subclses = new HashSet<OWLClass>();
 		Stream<OWLClass> subclsesStream = reasoner.getSubClasses(owlClass, direct).entities();
 		
@@ -137,6 +166,11 @@ public class OWLAPIUtil {
 	
 	public static Set<OWLClass> getNamedSuperclasses(OWLClass owlClass, OWLOntology ontology, 
 			OWLReasoner reasoner, boolean direct) {
+		HierarchyIndex index = getHierarchyIndex(reasoner, owlClass);
+		if (index != null) {
+			return index.getSuperclasses(owlClass, direct);
+		}
+		
 		Set<OWLClass> superClses = new HashSet<OWLClass>();
 		Stream<OWLClass> superClsesStream = reasoner.getSuperClasses(owlClass, direct).entities();
 		
@@ -154,6 +188,11 @@ public class OWLAPIUtil {
 	}
 	
 	public static boolean isSubclassOf(OWLClass subCls, OWLClass superCls, OWLReasoner reasoner) {
+		HierarchyIndex index = getHierarchyIndex(reasoner, subCls);
+		if (index != null && index.contains(superCls)) {
+			return index.isSubclassOf(subCls, superCls);
+		}
+		
 		//return reasoner.superClasses(subCls).anyMatch(p -> p.equals(superCls));
 		NodeSet<OWLClass> superClses = reasoner.getSuperClasses(subCls, false);
 		return superClses.containsEntity(superCls);
@@ -162,44 +201,32 @@ public class OWLAPIUtil {
 	/*************** Path to root *****************/
 	
 	
+	/**
+	 * @return the paths of direct superclasses from the class to the superclass. The paths are enumerated by
+	 * {@link SuperclassPaths}; use it directly to enumerate them lazily, cap them, or count them, and to keep the
+	 * superclasses it looked up across several calls.
+	 */
 	public static Set<List<OWLClass>> getPathsToSuperclass(OWLClass owlClass, OWLClass superClass, 
 			OWLOntology ontology, OWLReasoner reasoner) {
-		Set<List<OWLClass>> res = new HashSet<List<OWLClass>>();
-		//OWLClass owlThing = ontology.getOWLOntologyManager().getOWLDataFactory().getOWLThing();
-		Set<List<OWLClass>> paths = new HashSet<List<OWLClass>>();
-		paths.add(Arrays.asList(new OWLClass[] {owlClass}));
-		while ( ! paths.isEmpty() ) {
-			Set<List<OWLClass>> nextPaths = new HashSet<List<OWLClass>>();
-			for (List<OWLClass> path : paths) {
-				OWLClass lastClassInPath = path.get(path.size() - 1);
-				if (lastClassInPath.equals(superClass)) {
-					res.add(path);
-				}
-				else if (lastClassInPath.isTopEntity()) {
-					//do nothing. We can disregard this path,
-					//as it did not lead to the superClass
-				}
-				else {
-					Set<OWLClass> superclasses = getNamedSuperclasses(lastClassInPath, ontology, reasoner, true);
-					for (OWLClass superclass : superclasses) {
-						if (path.contains(superclass))  {
-							//do nothing. We can disregard this path,
-							//as it contains a loop and exploring all such paths to the superClass
-							//will never end.
-						}
-						else {
-							List<OWLClass> newPath = new ArrayList<OWLClass>(path.size() + 1);
-							path.stream().forEach((n)->{newPath.add(n);});
-							newPath.add(superclass);
-							nextPaths.add(newPath);
-						}
-					}
-					
-				}
-				paths = nextPaths;
-			}
-		}
-		return res;
+		return getPathsToSuperclass(owlClass, superClass, ontology, reasoner, SuperclassPaths.UNLIMITED, SuperclassPaths.UNLIMITED);
+	}
+
+	/**
+	 * @param maxPaths - the maximum number of paths returned, or {@link SuperclassPaths#UNLIMITED}
+	 * @param maxLength - the maximum number of classes in a path, or {@link SuperclassPaths#UNLIMITED}
+	 */
+	public static Set<List<OWLClass>> getPathsToSuperclass(OWLClass owlClass, OWLClass superClass, 
+			OWLOntology ontology, OWLReasoner reasoner, int maxPaths, int maxLength) {
+		return new HashSet<List<OWLClass>>(
+				new SuperclassPaths(ontology, reasoner).getPaths(owlClass, superClass, maxPaths, maxLength));
+	}
+
+	/**
+	 * @return the number of paths from the class to the superclass, without enumerating them
+	 */
+	public static long countPathsToSuperclass(OWLClass owlClass, OWLClass superClass, 
+			OWLOntology ontology, OWLReasoner reasoner) {
+		return new SuperclassPaths(ontology, reasoner).countPaths(owlClass, superClass);
 	}
 
 
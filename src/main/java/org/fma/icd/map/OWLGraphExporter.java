@@ -0,0 +1,203 @@
+package org.fma.icd.map;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.RelationshipType;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Exports the classes of an ontology as graph nodes, and their superclasses and existential restrictions as
+ * relationships, through a {@link GraphWriter}.
+ * <p>
+ * The classes are streamed from the whole ontology or from a subtree, and the nodes are kept as long ids in
+ * a {@link ClassNodeIdMap}, so that the relationships can be created after all the nodes. What is exported is
+ * configured: the annotation property of the preferred label, the relationship of the subclass axioms, the reasoner,
+ * if the direct superclasses are taken from it, and the object properties of interest in the restrictions.
+ */
+public class OWLGraphExporter {
+
+	private static transient Logger log = Logger.getLogger(OWLGraphExporter.class);
+
+	private GraphWriter writer;
+	private OWLAnnotationProperty prefLabelProp;
+	private RelationshipType isARelType;
+	private OWLReasoner reasoner;
+
+	private Map<OWLObjectPropertyExpression, RelationProperty> relProps = new HashMap<OWLObjectPropertyExpression, RelationProperty>();
+
+	private ClassNodeIdMap cls2node = new ClassNodeIdMap();
+
+	private long classCount = 0;
+
+
+	private static class RelationProperty {
+		private RelationshipType type;
+		private String propName;
+		private String propValue;
+
+		RelationProperty(RelationshipType type, String propName, String propValue) {
+			this.type = type;
+			this.propName = propName;
+			this.propValue = propValue;
+		}
+	}
+
+	/**
+	 * @param prefLabelProp - the annotation property stored as the preferred label of the nodes
+	 * @param isARelType - the relationship type of the subclass axioms
+	 */
+	public OWLGraphExporter(GraphWriter writer, OWLAnnotationProperty prefLabelProp, RelationshipType isARelType) {
+		this.writer = writer;
+		this.prefLabelProp = prefLabelProp;
+		this.isARelType = isARelType;
+	}
+
+	/**
+	 * Takes the named superclasses from the direct superclasses computed by the reasoner, instead of the
+	 * asserted ones. The restrictions are always the asserted superclasses.
+	 */
+	public void setReasoner(OWLReasoner reasoner) {
+		this.reasoner = reasoner;
+	}
+
+	/**
+	 * Exports the asserted superclasses "prop some C" as relationships of the type to C, with the optional property.
+	 */
+	public void addRelationProperty(OWLObjectPropertyExpression prop, RelationshipType type, String propName, String propValue) {
+		relProps.put(prop, new RelationProperty(type, propName, propValue));
+	}
+
+	/**
+	 * @return the classes in the signature of the ontology
+	 */
+	public static Stream<OWLClass> classes(OWLOntology ont) {
+		return ont.classesInSignature();
+	}
+
+	/**
+	 * @return the subclasses of the top class computed by the reasoner, without the ones in the excluded subtrees
+	 */
+	public static Set<OWLClass> subtreeClasses(OWLOntology ont, OWLReasoner reasoner, OWLClass topCls, OWLClass... excludedTopClses) {
+		Set<OWLClass> subclses = OWLAPIUtil.getNamedSubclasses(topCls, ont, reasoner, false);
+		for (OWLClass excludedTopCls : excludedTopClses) {
+			subclses.remove(excludedTopCls);
+			subclses.removeAll(OWLAPIUtil.getNamedSubclasses(excludedTopCls, ont, reasoner, false));
+		}
+		return subclses;
+	}
+
+	/**
+	 * Creates a node with the label for each class, after the name of the nodes with the label is made unique.
+	 */
+	public void exportClasses(OWLOntology ont, String label, Stream<OWLClass> clses) throws IOException {
+		writer.prepareLabel(label);
+		writer.startPhase(label + " nodes");
+		Iterator<OWLClass> it = clses.iterator();
+		while (it.hasNext()) {
+			createNode(ont, label, it.next());
+		}
+		writer.endPhase();
+	}
+
+	/**
+	 * Creates the relationships of each class to its superclasses and to the fillers of its restrictions.
+	 */
+	public void exportRelations(OWLOntology ont, String phase, Stream<OWLClass> clses) throws IOException {
+		writer.startPhase(phase + " relations");
+		Iterator<OWLClass> it = clses.iterator();
+		while (it.hasNext()) {
+			createRelations(ont, it.next());
+		}
+		writer.endPhase();
+	}
+
+	/**
+	 * Creates a relationship between the nodes of two classes. A failed write is passed on, and should stop the export.
+	 * @return false, if one of the classes has no node
+	 */
+	public boolean createRelationship(OWLClass fromCls, OWLClass toCls, RelationshipType type, String propName, String propValue)
+			throws IOException {
+		long fromNode = cls2node.get(fromCls);
+		if (fromNode == ClassNodeIdMap.NO_ID) {
+			log.warn("Could not find node for " + fromCls);
+			return false;
+		}
+		long toNode = cls2node.get(toCls);
+		if (toNode == ClassNodeIdMap.NO_ID) {
+			log.warn("Could not find node for " + toCls);
+			return false;
+		}
+
+		writer.createRelationship(fromNode, toNode, type, propName, propValue);
+		return true;
+	}
+
+	/**
+	 * @return the id of the node of the class, or {@link ClassNodeIdMap#NO_ID}
+	 */
+	public long getNodeId(OWLClass cls) {
+		return cls2node.get(cls);
+	}
+
+	public GraphWriter getWriter() {
+		return writer;
+	}
+
+
+	/**
+	 * Skips the class, if its preferred label cannot be read, but passes on the failed writes.
+	 */
+	private void createNode(OWLOntology ont, String label, OWLClass cls) throws IOException {
+		String prefLabel = null;
+		try {
+			prefLabel = prefLabelProp == null ? null : OWLAPIUtil.getStringAnnotationValue(ont, cls, prefLabelProp);
+		} catch (RuntimeException e) {
+			log.warn("Exception at reading the preferred label of class " + cls + ", " + e.getMessage(), e);
+			return;
+		}
+		cls2node.put(cls, writer.createNode(label, cls.getIRI().toString(), prefLabel));
+
+		classCount++;
+		if (classCount % 10000 == 0) {
+			log.info("Created " + classCount + " classes");
+		}
+	}
+
+	private void createRelations(OWLOntology ont, OWLClass cls) throws IOException {
+		if (reasoner != null) {
+			for (OWLClass supercls : OWLAPIUtil.getNamedSuperclasses(cls, ont, reasoner, true)) {
+				createRelationship(cls, supercls, isARelType, null, null);
+			}
+			if (relProps.isEmpty() == true) {
+				return;
+			}
+		}
+
+		for (OWLClassExpression supercls : OWLAPIUtil.getSuperclses(ont, cls)) {
+			if (supercls instanceof OWLClass) {
+				if (reasoner == null) {
+					createRelationship(cls, (OWLClass) supercls, isARelType, null, null);
+				}
+			} else if (supercls instanceof OWLObjectSomeValuesFrom) {
+				OWLObjectSomeValuesFrom restriction = (OWLObjectSomeValuesFrom) supercls;
+				RelationProperty relProp = relProps.get(restriction.getProperty());
+				if (relProp != null && restriction.getFiller().isOWLClass() == true) {
+					createRelationship(cls, restriction.getFiller().asOWLClass(), relProp.type, relProp.propName, relProp.propValue);
+				}
+			}
+		}
+	}
+
+}
@@ -1,9 +1,7 @@
 package org.fma.icd.map;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 
@@ -24,13 +22,32 @@ public class StringMatcher {
 					 "\\bby\\b", "\\bon\\b", "\\bfrom\\b", ":",
 					 "complicating");
 					//"\\bother\\b"
-	
+
+	//applied after removing the excluded words and lower casing
+	public final static String[][] replacedWords = {
+			{"neural", "nerve"},
+			{"nervous", "nerve"},
+			{"teeth", "tooth"},
+			{"feet", "foot"},
+			{"coeliac", "celiac"}
+			//{"renal", "kidney"}
+	};
+
+	//precompiled from the lists above, so that a string is normalized in one pass, without regexes
+	private final static TextNormalizer excludedWordsRemover =
+			new TextNormalizer(excludedWords, new String[0][], false, false);
+	final static TextNormalizer preprocessNormalizer =
+			new TextNormalizer(excludedWords, replacedWords, true, false);
+
 	public final static String LEFT = "left";
 	public final static String RIGHT = "right";
 	public final static int LEFT_RIGHT_NO_MATCH_SCORE = 0;
 	
-	//this is a hack for performance reasons
-	private static Map<String,String> str2stemCache = new HashMap<String,String>();
+	public final static int PREPROCESS_CACHE_SIZE = 500000;
+	
+	//keyed on the original input; thread-safe and bounded, so that it can be used from many threads on big vocabularies
+	private static LRUCache<String,String> str2stemCache = new LRUCache<String,String>(PREPROCESS_CACHE_SIZE);
+	private static LRUCache<String,String> str2preprocCache = new LRUCache<String,String>(PREPROCESS_CACHE_SIZE);
 		
 	
 	
@@ -76,16 +93,16 @@ public class StringMatcher {
 	
 	public static String preprocessString(String s, boolean doStemming) {
 		//first try to get it from the cache
-		String cached = str2stemCache.get(s);
+		LRUCache<String,String> cache = doStemming == true ? str2stemCache : str2preprocCache;
+		String cached = cache.get(s);
 		if (cached != null) {
 			return cached;
 		}
 		
+		String input = s;
 		StringBuffer buff = new StringBuffer();
 		
-		s = removeExcludedWords(s);
-		s = s.toLowerCase();
-		s = replaceWords(s);
+		s = preprocessNormalizer.normalize(s);
 		String ret = s;
 		
 		if (doStemming == true) {
@@ -102,19 +119,23 @@ public class StringMatcher {
 		}
 		
 		ret = ret.trim();
-		str2stemCache.put(s, ret);
+		cache.put(input, ret);
 		return ret;
 	}
 	
 	
-	private static String replaceWords(String s) {
-		s = s.replace("neural", "nerve");
-		s = s.replace("nervous", "nerve");
-		s = s.replace("teeth", "tooth");
-		s = s.replace("feet", "foot");
-		s = s.replace("coeliac", "celiac");
-		//s = s.replace("renal", "kidney");
-		
+	public static LRUCache<String,String> getStemCache() {
+		return str2stemCache;
+	}
+	
+	
+	//the previous, regex based, implementation; kept for comparing the results and timing in NormalizerBenchmark
+	static String preprocessStringRegex(String s) {
+		s = removeExcludedWordsRegex(s);
+		s = s.toLowerCase();
+		for (String[] replacement : replacedWords) {
+			s = s.replace(replacement[0], replacement[1]);
+		}
 		return s;
 	}
 
@@ -126,6 +147,10 @@ public class StringMatcher {
 	}
 	
 	public static String removeExcludedWords(String s) {
+		return excludedWordsRemover.normalize(s);
+	}
+	
+	static String removeExcludedWordsRegex(String s) {
 		for (String ex : excludedWords) {
 			s = s.replaceAll(ex, " ");
 		}
@@ -171,11 +196,73 @@ public class StringMatcher {
 			subStr = preprocessString(subStr);
 		}
 		
+		return containsWord(str, subStr);
+	}
+	
+	/**
+	 * Same result as {@link #containsRegex(String, String)}, i.e. subStr occurs in str between
+	 * non-word chars or the ends of str, but without building and running a regex.
+	 */
+	static boolean containsWord(String str, String subStr) {
+		int index = str.indexOf(subStr);
+		if (index < 0) {
+			return false;
+		}
+		
+		int length = str.length();
+		int subLength = subStr.length();
+		
+		//the regex uses .* around the match, which does not go over line terminators
+		int firstLineTerminator = length;
+		int lastLineTerminator = -1;
+		for (int i = 0; i < length; i++) {
+			if (isLineTerminator(str.charAt(i))) {
+				firstLineTerminator = Math.min(firstLineTerminator, i);
+				lastLineTerminator = i;
+			}
+		}
+		
+		while (index >= 0) {
+			if (isWordMatch(str, index, index + subLength, firstLineTerminator, lastLineTerminator)) {
+				return true;
+			}
+			if (index == length) {
+				break;
+			}
+			index = str.indexOf(subStr, index + 1);
+		}
+		return false;
+	}
+	
+	/**
+	 * If the occurrence of a substring between start and end counts as a match for {@link #containsRegex(String, String)}.
+	 * The line terminators are the first and last ones in str, or length and -1 if there are none.
+	 */
+	static boolean isWordMatch(String str, int start, int end, int firstLineTerminator, int lastLineTerminator) {
+		boolean startOk = start == 0 || 
+				(isNonWordChar(str.charAt(start - 1)) && firstLineTerminator >= start - 1);
+		boolean endOk = end == str.length() || 
+				(isNonWordChar(str.charAt(end)) && lastLineTerminator <= end);
+		return startOk && endOk;
+	}
+	
+	//the previous implementation; kept for checking containsWord in StringMatcherTest and timing it in ContainsBenchmark
+	static boolean containsRegex(String str, String subStr) {
 		subStr = Pattern.quote(subStr);
 		
 		return str.matches("^" + subStr +"|" + subStr + "\\W.*|.*\\W" + subStr + "\\W.*|.*\\W" + subStr + "$");
 	}
 	
+	// \W in regexes, without the Unicode flag
+	private static boolean isNonWordChar(char c) {
+		return (c >= 'a' && c <= 'z') == false && (c >= 'A' && c <= 'Z') == false &&
+				(c >= '0' && c <= '9') == false && c != '_';
+	}
+	
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
 	private static void compareStringMatchMethods(String s1, String s2) {
 		System.out.println("--- Comparing: " + s1 + " *** " + s2 + " ---");
 		System.out.println("Ratio: " + FuzzySearch.ratio(s1,s2));
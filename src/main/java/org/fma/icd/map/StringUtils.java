@@ -3,6 +3,7 @@ package org.fma.icd.map;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -30,6 +31,8 @@ public class StringUtils {
 	public static final String VALUE_SEPARATOR = "*";
 	public static final String QUOTE = "\"";
 
+	static final String COMMON_TOKEN_DELIMITERS = "\\s+|,\\s*|\\.\\s*";
+
 	public static String toCsvField(Object o) {
 		String res = (o == null ? "" : o.toString());
 		if (res.contains("\n")) {
@@ -214,6 +217,22 @@ public class StringUtils {
 	}
 	
 	
+	/**
+	 * Finds the common token aligned substrings of the labels in one pass with a {@link CommonTokenAutomaton},
+	 * in near linear time: for each token of the first label, the longest substring ending at it that is in all
+	 * labels (ignoring case), if it cannot be extended to the right.
+	 * <p>
+	 * This is not a replacement of {@link #getCommonWords(List)}, which intersects the common substrings of each
+	 * pair of labels approximately: that one also keeps the shorter fragments that some pairs have inside a longer
+	 * common run, and may keep a substring of one pair that is only contained in the common substrings of the others.
+	 * The common substring annotations and the short labels of {@link #getCommonSubstrings(OWLOntology, Set)}
+	 * depend on these fragments, so they still use {@link #getCommonWords(List)}.
+	 */
+	public static Set<String> getCommonTokenSubstrings(List<String> labels) {
+		return CommonTokenAutomaton.getCommonTokens(labels);
+	}
+	
+	
 	/**
 	 * This intersection will also point a match, if only a substring matches, and keeps the substring.
 	 * For example: the approx intersection of ["a", "abc def", "efg"] and ["a", "abc d"] is ["a", "abc d"].
@@ -248,7 +267,55 @@ public class StringUtils {
 	}
 	
 	
+	/**
+	 * Reusable rows for the longest common substring methods, one per thread, 
+	 * so that the methods do not allocate a table on each call.
+	 */
+	private static class LCSScratch {
+		int[] prev = new int[64];
+		int[] cur = new int[64];
+		
+		//the cells with a value > 2 of each row, in the order of the columns
+		int[] rowStart = new int[64];
+		int[] entryCol = new int[256];
+		int[] entryVal = new int[256];
+		int entryCount;
+		
+		void ensureRowLength(int length) {
+			if (prev.length < length) {
+				prev = new int[Math.max(length, prev.length * 2)];
+				cur = new int[prev.length];
+			}
+		}
+		
+		void ensureRowCount(int count) {
+			if (rowStart.length < count) {
+				rowStart = new int[Math.max(count, rowStart.length * 2)];
+			}
+		}
+		
+		void addEntry(int col, int val) {
+			if (entryCount == entryCol.length) {
+				entryCol = Arrays.copyOf(entryCol, entryCount * 2);
+				entryVal = Arrays.copyOf(entryVal, entryCount * 2);
+			}
+			entryCol[entryCount] = col;
+			entryVal[entryCount] = val;
+			entryCount++;
+		}
+		
+		void swapRows() {
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+	}
+	
+	private static final ThreadLocal<LCSScratch> lcsScratch = ThreadLocal.withInitial(LCSScratch::new);
+	
+	
 	// Copied form: https://www.techiedelight.com/longest-common-substring-problem/
+	// Changed to keep only the previous and the current row of the lookup table.
 	public static String longestCommonSubstring(String str1, String str2) {
 		int m = str1.length();
 		int n = str2.length();
@@ -256,6 +323,126 @@ public class StringUtils {
 		int maxlen = 0; 		// stores the max length of LCS
 		int endingIndex = m;	// stores the ending index of LCS in X
 
+		// prev[j] and cur[j] store the length of LCS of substring
+		// X[0..i-2], Y[0..j-1] and X[0..i-1], Y[0..j-1]
+		LCSScratch scratch = lcsScratch.get();
+		scratch.ensureRowLength(n + 1);
+		Arrays.fill(scratch.prev, 0, n + 1, 0);
+		scratch.cur[0] = 0;
+
+		for (int i = 1; i <= m; i++)
+		{
+			int[] prev = scratch.prev;
+			int[] cur = scratch.cur;
+			char c = str1.charAt(i - 1);
+			for (int j = 1; j <= n; j++)
+			{
+				// if current character of X and Y matches
+				if (c == str2.charAt(j - 1))
+				{
+					cur[j] = prev[j - 1] + 1;
+
+					// update the maximum length and ending index
+					if (cur[j] > maxlen)
+					{
+						maxlen = cur[j];
+						endingIndex = i;
+					}
+				} else {
+					cur[j] = 0;
+				}
+			}
+			scratch.swapRows();
+		}
+
+		// return Longest common substring having length maxlen
+		return str1.substring(endingIndex - maxlen, endingIndex);
+	}
+	
+	
+	//Adapted from: https://stackoverflow.com/questions/34805488/finding-all-the-common-substrings-of-given-two-strings
+	//Changed to keep only two rows of the table, and the cells with a value > 2, which are the only ones read by the second pass.
+	public static Set<String> longestCommonSubstrings(String str1, String str2) {
+		Set<String> result = new HashSet<String>();
+		
+		if (str1 == null || str2 == null) {
+			return result;
+		}
+		
+		str1 = str1.toLowerCase();
+		str2 = str2.toLowerCase();
+		
+		int m = str1.length();
+		int n = str2.length();
+		
+		LCSScratch scratch = lcsScratch.get();
+		scratch.ensureRowLength(n);
+		scratch.ensureRowCount(m + 1);
+		scratch.entryCount = 0;
+		scratch.rowStart[0] = 0;
+
+		// first pass, fill in the rows, and remember the cells > 2
+		for (int i = 0; i < m; i++) {
+			int[] prev = scratch.prev;
+			int[] cur = scratch.cur;
+			char c = str1.charAt(i);
+			for (int j = 0; j < n; j++) {
+				if (c != str2.charAt(j)) {
+					cur[j] = 0;
+					continue;
+				}
+				cur[j] = (i == 0 || j == 0) ? 
+						1 :
+						1 + prev[j - 1];
+				if (cur[j] > 2) {
+					scratch.addEntry(j, cur[j]);
+				}
+			}
+			scratch.rowStart[i + 1] = scratch.entryCount;
+			scratch.swapRows();
+		}
+		
+		//second pass, find the longest filled diagonals, from the last row up;
+		//after a match, skip the rows of the diagonal and the one above it
+		int i = m - 1;
+		int lastCol = n - 1;
+		while (i >= 0) {
+			int val = 0;
+			for (int e = scratch.rowStart[i + 1] - 1; e >= scratch.rowStart[i]; e--) {
+				if (scratch.entryCol[e] <= lastCol) {
+					val = scratch.entryVal[e];
+					break;
+				}
+			}
+			if (val == 0) {
+				i--;
+				lastCol = n - 1;
+				continue;
+			}
+			
+			String s = str1.substring(i-val+1, i+1);
+			result.add(s);
+			i = i - val - 1;
+			if (i < 0) {
+				return result;
+			}
+			lastCol = n - 2; //the original loop continued the next row from the second to last column
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * The full table version of {@link #longestCommonSubstring(String, String)}, kept for comparison.
+	 */
+	// Copied form: https://www.techiedelight.com/longest-common-substring-problem/
+	static String longestCommonSubstringTable(String str1, String str2) {
+		int m = str1.length();
+		int n = str2.length();
+		
+		int maxlen = 0; 		// stores the max length of LCS
+		int endingIndex = m;	// stores the ending index of LCS in X
+
 		// lookup[i][j] stores the length of LCS of substring
 		// X[0..i-1], Y[0..j-1]
 		int[][] lookup = new int[m + 1][n + 1];
@@ -285,8 +472,11 @@ public class StringUtils {
 	}
 	
 	
+	/**
+	 * The full table version of {@link #longestCommonSubstrings(String, String)}, kept for comparison.
+	 */
 	//Adapted from: https://stackoverflow.com/questions/34805488/finding-all-the-common-substrings-of-given-two-strings
-	public static Set<String> longestCommonSubstrings(String str1, String str2) {
+	static Set<String> longestCommonSubstringsTable(String str1, String str2) {
 		Set<String> result = new HashSet<String>();
 		
 		if (str1 == null || str2 == null) {
@@ -329,7 +519,7 @@ public class StringUtils {
 	    return result;
 	}
 	
-	private static String[] tokenize(String str, String delimiters, boolean includeDelims) {
+	static String[] tokenize(String str, String delimiters, boolean includeDelims) {
 		String WITH_DELIMITER = "((?<=%1$s)|(?=%1$s))";
 		String[] aEach = str.split(String.format(WITH_DELIMITER, delimiters));
 		return aEach;
@@ -345,7 +535,7 @@ public class StringUtils {
 		//str1 = str1.toLowerCase();
 		// str2 = str2.toLowerCase();
 		
-		String delimiters = "\\s+|,\\s*|\\.\\s*";
+		String delimiters = COMMON_TOKEN_DELIMITERS;
 		
 		//String[] tokens1 = str1.split(delimiters);
 		//String[] tokens2 = str2.split(delimiters);
@@ -0,0 +1,299 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * Enumerates the paths of direct superclasses from a class to one of its superclasses, as
+ * {@link OWLAPIUtil#getPathsToSuperclass(OWLClass, OWLClass, OWLOntology, OWLReasoner)} does, without
+ * building all the paths in memory.
+ * <p>
+ * The direct superclasses of each class are asked once and kept, and so is, for the current target superclass,
+ * whether a class can reach it, so that the dead ends are not explored again. The paths are enumerated lazily,
+ * depth first, as {@link Path} nodes that point to the path they extend, so the paths share their common prefix,
+ * and are only turned into lists by {@link Path#toList()}. The paths can be capped in number and length, and
+ * counted without enumerating them.
+ * <p>
+ * The hierarchy of the reasoner has no cycles, as equivalent classes are never direct superclasses of each other.
+ * The kept superclasses are a snapshot, as in {@link HierarchyIndex}. An instance is not thread safe.
+ */
+public class SuperclassPaths {
+
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private static final OWLClass[] NO_CLASSES = new OWLClass[0];
+
+	private OWLOntology ontology;
+	private OWLReasoner reasoner;
+
+	private Map<OWLClass, OWLClass[]> cls2parents = new HashMap<OWLClass, OWLClass[]>();
+
+	private OWLClass reachTarget;
+	private Map<OWLClass, Boolean> cls2canReach = new HashMap<OWLClass, Boolean>();
+
+	private OWLClass countTarget;
+	private Map<OWLClass, Long> cls2pathCount = new HashMap<OWLClass, Long>();
+
+
+	public SuperclassPaths(OWLOntology ontology, OWLReasoner reasoner) {
+		this.ontology = ontology;
+		this.reasoner = reasoner;
+	}
+
+	/**
+	 * A path from the start class, kept as its last class and the path it extends.
+	 */
+	public static class Path {
+		private final OWLClass cls;
+		private final Path prefix;
+		private final int length;
+
+		private Path(OWLClass cls, Path prefix) {
+			this.cls = cls;
+			this.prefix = prefix;
+			this.length = prefix == null ? 1 : prefix.length + 1;
+		}
+
+		public OWLClass getLastClass() {
+			return cls;
+		}
+
+		/**
+		 * @return the path without its last class, or null for the start class
+		 */
+		public Path getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * @return the number of classes in the path
+		 */
+		public int length() {
+			return length;
+		}
+
+		public boolean contains(OWLClass c) {
+			for (Path p = this; p != null; p = p.prefix) {
+				if (p.cls.equals(c)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return the classes of the path, from the start class to the superclass
+		 */
+		public List<OWLClass> toList() {
+			OWLClass[] clses = new OWLClass[length];
+			int i = length;
+			for (Path p = this; p != null; p = p.prefix) {
+				clses[--i] = p.cls;
+			}
+			return Arrays.asList(clses);
+		}
+
+		@Override
+		public String toString() {
+			return toList().toString();
+		}
+	}
+
+	/**
+	 * @return the direct named superclasses of the class, asked from the reasoner only the first time
+	 */
+	public OWLClass[] getParents(OWLClass cls) {
+		OWLClass[] parents = cls2parents.get(cls);
+		if (parents == null) {
+			parents = cls.isTopEntity() ? NO_CLASSES :
+				OWLAPIUtil.getNamedSuperclasses(cls, ontology, reasoner, true).toArray(NO_CLASSES);
+			cls2parents.put(cls, parents);
+		}
+		return parents;
+	}
+
+	/**
+	 * @return the paths from the class to the superclass, enumerated while iterating
+	 * @param maxPaths - the maximum number of paths returned, or {@link #UNLIMITED}
+	 * @param maxLength - the maximum number of classes in a path, or {@link #UNLIMITED}
+	 */
+	public Iterator<Path> iterator(OWLClass cls, OWLClass superClass, int maxPaths, int maxLength) {
+		return new PathIterator(cls, superClass, maxPaths, maxLength);
+	}
+
+	public Stream<Path> paths(OWLClass cls, OWLClass superClass, int maxPaths, int maxLength) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				iterator(cls, superClass, maxPaths, maxLength), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * @return the paths from the class to the superclass, as lists
+	 */
+	public List<List<OWLClass>> getPaths(OWLClass cls, OWLClass superClass, int maxPaths, int maxLength) {
+		List<List<OWLClass>> paths = new ArrayList<List<OWLClass>>();
+		Iterator<Path> it = iterator(cls, superClass, maxPaths, maxLength);
+		while (it.hasNext()) {
+			paths.add(it.next().toList());
+		}
+		return paths;
+	}
+
+	/**
+	 * @return the number of paths from the class to the superclass, counted per class and summed over the
+	 * direct superclasses, without enumerating the paths; {@link Long#MAX_VALUE}, if there are more
+	 */
+	public long countPaths(OWLClass cls, OWLClass superClass) {
+		if (superClass.equals(countTarget) == false) {
+			countTarget = superClass;
+			cls2pathCount.clear();
+		}
+		return countPaths(cls);
+	}
+
+	/**
+	 * @return true if the class is the superclass, or one of its direct superclasses can reach it
+	 */
+	public boolean canReach(OWLClass cls, OWLClass superClass) {
+		if (superClass.equals(reachTarget) == false) {
+			reachTarget = superClass;
+			cls2canReach.clear();
+		}
+		return canReach(cls);
+	}
+
+
+	private long countPaths(OWLClass cls) {
+		if (cls.equals(countTarget)) {
+			return 1;
+		}
+		Long count = cls2pathCount.get(cls);
+		if (count == null) {
+			long sum = 0;
+			for (OWLClass parent : getParents(cls)) {
+				long parentCount = countPaths(parent);
+				sum = sum > Long.MAX_VALUE - parentCount ? Long.MAX_VALUE : sum + parentCount;
+			}
+			count = sum;
+			cls2pathCount.put(cls, count);
+		}
+		return count;
+	}
+
+	private boolean canReach(OWLClass cls) {
+		if (cls.equals(reachTarget)) {
+			return true;
+		}
+		Boolean reach = cls2canReach.get(cls);
+		if (reach == null) {
+			reach = false;
+			for (OWLClass parent : getParents(cls)) {
+				if (canReach(parent) == true) {
+					reach = true;
+					break;
+				}
+			}
+			cls2canReach.put(cls, reach);
+		}
+		return reach;
+	}
+
+	/**
+	 * Depth first enumeration, with a stack of the open paths and the index of the next parent of each.
+	 */
+	private class PathIterator implements Iterator<Path> {
+		private OWLClass superClass;
+		private int pathsLeft;
+		private int maxLength;
+
+		private List<Path> stack = new ArrayList<Path>();
+		private List<OWLClass[]> stackParents = new ArrayList<OWLClass[]>();
+		private int[] stackCursor = new int[16];
+
+		private Path next;
+
+		PathIterator(OWLClass cls, OWLClass superClass, int maxPaths, int maxLength) {
+			this.superClass = superClass;
+			this.pathsLeft = maxPaths;
+			this.maxLength = maxLength;
+			if (maxPaths > 0 && maxLength > 0 && canReach(cls, superClass) == true) {
+				push(new Path(cls, null));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && pathsLeft > 0) {
+				next = findNext();
+				if (next != null) {
+					pathsLeft--;
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Path next() {
+			if (hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+			Path path = next;
+			next = null;
+			return path;
+		}
+
+		private Path findNext() {
+			while (stack.isEmpty() == false) {
+				int top = stack.size() - 1;
+				Path path = stack.get(top);
+				OWLClass[] parents = stackParents.get(top);
+
+				if (parents == null) {
+					//a path is returned when it reaches the superclass, and not extended beyond it
+					pop();
+					return path;
+				}
+				if (stackCursor[top] == parents.length) {
+					pop();
+					continue;
+				}
+				OWLClass parent = parents[stackCursor[top]++];
+				//a path that does not end in the superclass is only extended, if it can get one class longer
+				if (canReach(parent, superClass) == true &&
+						(path.length() + 1 < maxLength || (path.length() + 1 == maxLength && parent.equals(superClass)))) {
+					push(new Path(parent, path));
+				}
+			}
+			return null;
+		}
+
+		private void push(Path path) {
+			int top = stack.size();
+			stack.add(path);
+			stackParents.add(path.getLastClass().equals(superClass) ? null : getParents(path.getLastClass()));
+			if (top == stackCursor.length) {
+				stackCursor = Arrays.copyOf(stackCursor, top * 2);
+			}
+			stackCursor[top] = 0;
+		}
+
+		private void pop() {
+			int top = stack.size() - 1;
+			stack.remove(top);
+			stackParents.remove(top);
+		}
+	}
+
+}
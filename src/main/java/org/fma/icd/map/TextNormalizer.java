@@ -0,0 +1,288 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Removes excluded words, applies word replacements and collapses whitespace in a single
+ * pass over a string, without regular expressions.
+ * <p>
+ * The excluded words are given in the same format as {@link StringMatcher#excludedWords}:
+ * a literal, optionally with a <code>\b</code> word boundary at the start and/or the end, and
+ * with regex special characters escaped by a backslash. An excluded word is replaced by a space,
+ * like <code>String.replaceAll(excludedWord, " ")</code> would. If several excluded words match at
+ * the same position, the longest one is removed.
+ * <p>
+ * All the excluded words are removed at once, and a removed word counts as a space for its neighbours.
+ * This is different from removing them one after the other with <code>String.replaceAll</code> only when
+ * an excluded word is glued to another word (e.g. "andThe"), where the result of the regexes depends on
+ * the order of the list.
+ * <p>
+ * The replacements are case insensitive literals, tried in the given order at each position. They can be
+ * applied before removing the excluded words (then the replaced text is checked for excluded words, and
+ * it takes an extra scan, but only when something is replaced), or after removing them, in the same pass.
+ * The replaced text is not replaced again.
+ */
+public class TextNormalizer {
+
+	private static final String WORD_BOUNDARY = "\\b";
+
+	private final List<ExcludedWord>[] excludedWordsByFirstChar;
+	private final List<ExcludedWord> excludedWordsNonAscii = new ArrayList<ExcludedWord>();
+
+	private final String[] replaceSources;
+	private final String[] replaceTargets;
+	private final int[][] replaceRulesByFirstChar; //case insensitive; the last one is for the non ASCII chars
+
+	private final boolean lowerCase;
+	private final boolean replaceBeforeExclusion;
+
+
+	/**
+	 * @param excludedWords - the excluded words, in the format of {@link StringMatcher#excludedWords}
+	 * @param replacements - pairs of (source, target) literals; may be empty
+	 * @param lowerCase - if true, the text is lower cased before applying the replacements
+	 * @param replaceBeforeExclusion - if true, the replacements are applied before removing the excluded words
+	 */
+	@SuppressWarnings("unchecked")
+	public TextNormalizer(Collection<String> excludedWords, String[][] replacements,
+			boolean lowerCase, boolean replaceBeforeExclusion) {
+		this.lowerCase = lowerCase;
+		this.replaceBeforeExclusion = replaceBeforeExclusion;
+
+		excludedWordsByFirstChar = (List<ExcludedWord>[]) new List<?>[128];
+		for (String excludedWord : excludedWords) {
+			addExcludedWord(new ExcludedWord(excludedWord));
+		}
+		for (List<ExcludedWord> list : excludedWordsByFirstChar) {
+			if (list != null) {
+				list.sort(Comparator.comparingInt((ExcludedWord e) -> e.literal.length()).reversed());
+			}
+		}
+		excludedWordsNonAscii.sort(Comparator.comparingInt((ExcludedWord e) -> e.literal.length()).reversed());
+
+		replaceSources = new String[replacements.length];
+		replaceTargets = new String[replacements.length];
+		for (int i = 0; i < replacements.length; i++) {
+			replaceSources[i] = replacements[i][0];
+			replaceTargets[i] = replacements[i][1];
+		}
+
+		replaceRulesByFirstChar = new int[129][];
+		for (int c = 0; c < replaceRulesByFirstChar.length; c++) {
+			replaceRulesByFirstChar[c] = getReplaceRulesStartingWith(c);
+		}
+	}
+
+	private int[] getReplaceRulesStartingWith(int c) {
+		int[] rules = new int[replaceSources.length];
+		int count = 0;
+		for (int rule = 0; rule < replaceSources.length; rule++) {
+			char firstChar = replaceSources[rule].charAt(0);
+			boolean matches = c < 128 ?
+					Character.toLowerCase(firstChar) == Character.toLowerCase((char) c) :
+					Character.toLowerCase(firstChar) >= 128 || Character.toUpperCase(firstChar) >= 128;
+			if (matches == true) {
+				rules[count++] = rule;
+			}
+		}
+		return Arrays.copyOf(rules, count);
+	}
+
+	private void addExcludedWord(ExcludedWord excludedWord) {
+		char firstChar = excludedWord.literal.charAt(0);
+		if (firstChar >= excludedWordsByFirstChar.length) {
+			excludedWordsNonAscii.add(excludedWord);
+			return;
+		}
+		List<ExcludedWord> list = excludedWordsByFirstChar[firstChar];
+		if (list == null) {
+			list = new ArrayList<ExcludedWord>();
+			excludedWordsByFirstChar[firstChar] = list;
+		}
+		list.add(excludedWord);
+	}
+
+
+	public String normalize(String str) {
+		if (str == null) {
+			return null;
+		}
+
+		String input = str;
+		if (replaceBeforeExclusion == true) {
+			if (lowerCase == true) {
+				input = input.toLowerCase();
+			}
+			input = replace(input);
+		}
+		boolean lowerCaseOutput = lowerCase == true && replaceBeforeExclusion == false;
+		StringBuilder out = new StringBuilder(input.length());
+
+		boolean pendingSpace = false;
+		boolean prevIsWord = false; //if the last consumed char is a word char that was kept
+
+		int i = 0;
+		while (i < input.length()) {
+			char c = input.charAt(i);
+
+			int excludedLength = findExcludedWord(input, i, prevIsWord != isWordChar(c));
+			if (excludedLength > 0) {
+				i = i + excludedLength;
+				pendingSpace = true;
+				prevIsWord = false;
+				continue;
+			}
+
+			if (isWhitespace(c)) {
+				i++;
+				pendingSpace = true;
+				prevIsWord = false;
+				continue;
+			}
+
+			if (pendingSpace == true && out.length() > 0) {
+				out.append(' ');
+			}
+			pendingSpace = false;
+
+			if (replaceBeforeExclusion == false) {
+				int rule = findReplacement(input, i);
+				if (rule >= 0) {
+					out.append(replaceTargets[rule]);
+					i = i + replaceSources[rule].length();
+					prevIsWord = isWordChar(input.charAt(i - 1));
+					continue;
+				}
+			}
+
+			out.append(lowerCaseOutput == true ? Character.toLowerCase(c) : c);
+			prevIsWord = isWordChar(c);
+			i++;
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Applies the replacements, without removing anything else. The string is copied only if something is replaced.
+	 */
+	private String replace(String str) {
+		StringBuilder out = null;
+		int copiedUntil = 0;
+
+		int i = 0;
+		while (i < str.length()) {
+			int rule = findReplacement(str, i);
+			if (rule < 0) {
+				i++;
+				continue;
+			}
+			if (out == null) {
+				out = new StringBuilder(str.length() + 16);
+			}
+			out.append(str, copiedUntil, i);
+			out.append(replaceTargets[rule]);
+			i = i + replaceSources[rule].length();
+			copiedUntil = i;
+		}
+
+		if (out == null) {
+			return str;
+		}
+		out.append(str, copiedUntil, str.length());
+		return out.toString();
+	}
+
+	/**
+	 * @return the length of the longest excluded word that matches at index, or 0
+	 */
+	private int findExcludedWord(String str, int index, boolean atBoundary) {
+		char c = str.charAt(index);
+		List<ExcludedWord> candidates = c < excludedWordsByFirstChar.length ?
+				excludedWordsByFirstChar[c] : excludedWordsNonAscii;
+		if (candidates == null) {
+			return 0;
+		}
+
+		for (ExcludedWord excludedWord : candidates) {
+			if (excludedWord.matches(str, index, atBoundary)) {
+				return excludedWord.literal.length();
+			}
+		}
+		return 0;
+	}
+
+	private int findReplacement(String str, int index) {
+		char c = str.charAt(index);
+		int[] rules = replaceRulesByFirstChar[Math.min(c, 128)];
+		for (int rule : rules) {
+			String source = replaceSources[rule];
+			if (str.regionMatches(true, index, source, 0, source.length())) {
+				return rule;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The same whitespace as the \s in regular expressions.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * The same word chars as the \b in regular expressions.
+	 */
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+
+	private static class ExcludedWord {
+		private String literal;
+		private boolean boundaryBefore;
+		private boolean boundaryAfter;
+
+		private ExcludedWord(String regex) {
+			if (regex.startsWith(WORD_BOUNDARY)) {
+				boundaryBefore = true;
+				regex = regex.substring(WORD_BOUNDARY.length());
+			}
+			if (regex.endsWith(WORD_BOUNDARY)) {
+				boundaryAfter = true;
+				regex = regex.substring(0, regex.length() - WORD_BOUNDARY.length());
+			}
+			literal = unescape(regex);
+		}
+
+		private boolean matches(String str, int index, boolean isBoundaryBefore) {
+			if (boundaryBefore == true && isBoundaryBefore == false) {
+				return false;
+			}
+			if (str.startsWith(literal, index) == false) {
+				return false;
+			}
+			int end = index + literal.length();
+			return boundaryAfter == false || end == str.length() ||
+					isWordChar(str.charAt(end - 1)) != isWordChar(str.charAt(end));
+		}
+
+		private static String unescape(String regex) {
+			StringBuilder literal = new StringBuilder(regex.length());
+			for (int i = 0; i < regex.length(); i++) {
+				char c = regex.charAt(i);
+				if (c == '\\' && i + 1 < regex.length()) {
+					c = regex.charAt(++i);
+				}
+				literal.append(c);
+			}
+			return literal.toString();
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton that finds, in a single scan of a text, all the patterns that
+ * {@link StringMatcher#contains(String, String, boolean)} (without preprocessing) would find in it,
+ * i.e. the patterns that occur in the text between non-word chars or the ends of the text.
+ * <p>
+ * Add the patterns with {@link #add(String)}, call {@link #build()} once, and then
+ * {@link #findAll(String)} can be called from many threads.
+ */
+public class WordBoundaryMatcher {
+
+	private static final int ROOT = 0;
+
+	private Map<String, Integer> pattern2id = new HashMap<String, Integer>();
+	private List<String> patterns = new ArrayList<String>();
+	private boolean hasEmptyPattern = false;
+
+	//the trie; per node, the chars of the transitions are sorted
+	private char[][] transitionChars = new char[16][];
+	private int[][] transitionNodes = new int[16][];
+	private int[] transitionCounts = new int[16];
+	private int nodeCount = 1;
+
+	private int[][] nodeOutputs = new int[16][]; //the patterns ending at each node
+	private int[] failureLinks;
+	private int[] outputLinks; //the next node on the failure path with outputs, or -1
+
+	/**
+	 * @return the id of the pattern; adding the same pattern again returns the same id
+	 */
+	public int add(String pattern) {
+		Integer id = pattern2id.get(pattern);
+		if (id != null) {
+			return id;
+		}
+		id = patterns.size();
+		pattern2id.put(pattern, id);
+		patterns.add(pattern);
+
+		if (pattern.length() == 0) {
+			hasEmptyPattern = true;
+			return id;
+		}
+
+		int node = ROOT;
+		for (int i = 0; i < pattern.length(); i++) {
+			int next = getTransition(node, pattern.charAt(i));
+			if (next < 0) {
+				next = addNode();
+				addTransition(node, pattern.charAt(i), next);
+			}
+			node = next;
+		}
+		nodeOutputs[node] = append(nodeOutputs[node], id);
+
+		return id;
+	}
+
+	public void build() {
+		failureLinks = new int[nodeCount];
+		outputLinks = new int[nodeCount];
+		outputLinks[ROOT] = -1;
+
+		int[] queue = new int[nodeCount];
+		int head = 0;
+		int tail = 0;
+
+		for (int i = 0; i < transitionCounts[ROOT]; i++) {
+			int child = transitionNodes[ROOT][i];
+			failureLinks[child] = ROOT;
+			outputLinks[child] = -1;
+			queue[tail++] = child;
+		}
+
+		while (head < tail) {
+			int node = queue[head++];
+			for (int i = 0; i < transitionCounts[node]; i++) {
+				char c = transitionChars[node][i];
+				int child = transitionNodes[node][i];
+
+				int failure = failureLinks[node];
+				while (failure != ROOT && getTransition(failure, c) < 0) {
+					failure = failureLinks[failure];
+				}
+				int failureNext = getTransition(failure, c);
+				failureLinks[child] = failureNext >= 0 ? failureNext : ROOT;
+
+				int failureChild = failureLinks[child];
+				outputLinks[child] = nodeOutputs[failureChild] != null ? failureChild : outputLinks[failureChild];
+
+				queue[tail++] = child;
+			}
+		}
+
+		for (int node = 0; node < nodeCount; node++) {
+			if (transitionChars[node] != null) {
+				transitionChars[node] = Arrays.copyOf(transitionChars[node], transitionCounts[node]);
+				transitionNodes[node] = Arrays.copyOf(transitionNodes[node], transitionCounts[node]);
+			}
+		}
+	}
+
+	/**
+	 * @return the ids of the patterns that occur in the text at word boundaries
+	 */
+	public BitSet findAll(String text) {
+		BitSet found = new BitSet(patterns.size());
+		if (text == null) {
+			return found;
+		}
+
+		int length = text.length();
+		int firstLineTerminator = length;
+		int lastLineTerminator = -1;
+		for (int i = 0; i < length; i++) {
+			if (StringMatcher.isLineTerminator(text.charAt(i))) {
+				firstLineTerminator = Math.min(firstLineTerminator, i);
+				lastLineTerminator = i;
+			}
+		}
+
+		int node = ROOT;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			int next = getTransition(node, c);
+			while (next < 0 && node != ROOT) {
+				node = failureLinks[node];
+				next = getTransition(node, c);
+			}
+			node = next >= 0 ? next : ROOT;
+
+			int end = i + 1;
+			for (int outNode = nodeOutputs[node] != null ? node : outputLinks[node];
+					outNode >= 0; outNode = outputLinks[outNode]) {
+				for (int id : nodeOutputs[outNode]) {
+					if (found.get(id) == false &&
+							StringMatcher.isWordMatch(text, end - patterns.get(id).length(), end,
+									firstLineTerminator, lastLineTerminator)) {
+						found.set(id);
+					}
+				}
+			}
+		}
+
+		if (hasEmptyPattern == true && StringMatcher.containsWord(text, "")) {
+			found.set(pattern2id.get(""));
+		}
+
+		return found;
+	}
+
+	public int getId(String pattern) {
+		Integer id = pattern2id.get(pattern);
+		return id == null ? -1 : id;
+	}
+
+	public String getPattern(int id) {
+		return patterns.get(id);
+	}
+
+	public int size() {
+		return patterns.size();
+	}
+
+
+	private int getTransition(int node, char c) {
+		char[] chars = transitionChars[node];
+		if (chars == null) {
+			return -1;
+		}
+		int index = Arrays.binarySearch(chars, 0, transitionCounts[node], c);
+		return index >= 0 ? transitionNodes[node][index] : -1;
+	}
+
+	private void addTransition(int node, char c, int next) {
+		int count = transitionCounts[node];
+		if (transitionChars[node] == null) {
+			transitionChars[node] = new char[2];
+			transitionNodes[node] = new int[2];
+		} else if (count == transitionChars[node].length) {
+			transitionChars[node] = Arrays.copyOf(transitionChars[node], count * 2);
+			transitionNodes[node] = Arrays.copyOf(transitionNodes[node], count * 2);
+		}
+
+		int index = -(Arrays.binarySearch(transitionChars[node], 0, count, c) + 1);
+		System.arraycopy(transitionChars[node], index, transitionChars[node], index + 1, count - index);
+		System.arraycopy(transitionNodes[node], index, transitionNodes[node], index + 1, count - index);
+		transitionChars[node][index] = c;
+		transitionNodes[node][index] = next;
+		transitionCounts[node] = count + 1;
+	}
+
+	private int addNode() {
+		if (nodeCount == transitionCounts.length) {
+			int capacity = nodeCount * 2;
+			transitionChars = Arrays.copyOf(transitionChars, capacity);
+			transitionNodes = Arrays.copyOf(transitionNodes, capacity);
+			transitionCounts = Arrays.copyOf(transitionCounts, capacity);
+			nodeOutputs = Arrays.copyOf(nodeOutputs, capacity);
+		}
+		return nodeCount++;
+	}
+
+	private static int[] append(int[] array, int value) {
+		if (array == null) {
+			return new int[] { value };
+		}
+		int[] newArray = Arrays.copyOf(array, array.length + 1);
+		newArray[array.length] = value;
+		return newArray;
+	}
+
+}
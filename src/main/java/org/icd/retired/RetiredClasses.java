@@ -4,13 +4,18 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringMatcher;
 import org.fma.icd.map.StringUtils;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -40,6 +45,8 @@ public class RetiredClasses {
 
 	private BufferedWriter resultCSVWriter;
 
+	private Map<OWLClass, Boolean> cls2retired = new HashMap<OWLClass, Boolean>();
+
 
 	public RetiredClasses(OWLOntologyManager manager, OWLOntology sourceOnt,
 			BufferedWriter bufferedWriter) {
@@ -57,27 +64,64 @@ public class RetiredClasses {
 	}
 
 
+	/**
+	 * Writes a line for each retired superclass of the classes that cannot be reached from the root
+	 * through a path without retired classes. The classes reachable through such a path are labelled
+	 * first, in one breadth first pass from the root, instead of enumerating the paths to the root of each class.
+	 */
 	private void exportClasses() {
 		log.info("Starting comparison..");
 
 		OWLClass icdClses = getRootClass();
-
-		Set<OWLClass> allSubclses = OWLAPIUtil.getNamedSubclasses(icdClses, icdOnt, reasoner, false);
-		
-		int i = 0;
-		
-		for (OWLClass subcls : allSubclses) {
-			checkSubcls(subcls, icdClses);
-			i++;
+		OWLAPIUtil.indexHierarchy(reasoner);
+		try {
+			Set<OWLClass> allSubclses = OWLAPIUtil.getNamedSubclasses(icdClses, icdOnt, reasoner, false);
+			Set<OWLClass> nonRetiredPathClses = getClsesWithNonRetiredPath(icdClses);
+			log.info("Classes reachable through a non retired path: " + nonRetiredPathClses.size() + " of " + allSubclses.size());
+			
+			int i = 0;
 			
-			if (i % 100 == 0) {
-				log.info("Checked " + i + " classes");
+			for (OWLClass subcls : allSubclses) {
+				if (nonRetiredPathClses.contains(subcls) == false) {
+					checkSubcls(subcls);
+				}
+				i++;
+				
+				if (i % 10000 == 0) {
+					log.info("Checked " + i + " classes");
+				}
 			}
+		} finally {
+			OWLAPIUtil.removeHierarchyIndex(reasoner);
 		}
-
 		log.info("Finished generating list of retired to be deleted");
 	}
 
+	/**
+	 * @return the classes that have a path of direct superclasses to the root, in which no class is retired,
+	 * including the class itself
+	 */
+	private Set<OWLClass> getClsesWithNonRetiredPath(OWLClass root) {
+		Set<OWLClass> visited = new HashSet<OWLClass>();
+		if (labelContainsRetired(root) == true) {
+			return visited;
+		}
+
+		Deque<OWLClass> queue = new ArrayDeque<OWLClass>();
+		visited.add(root);
+		queue.add(root);
+		while (queue.isEmpty() == false) {
+			OWLClass cls = queue.poll();
+			for (OWLClass subcls : OWLAPIUtil.getNamedSubclasses(cls, icdOnt, reasoner, true)) {
+				if (visited.contains(subcls) == false && labelContainsRetired(subcls) == false) {
+					visited.add(subcls);
+					queue.add(subcls);
+				}
+			}
+		}
+		return visited;
+	}
+
 	
 	private OWLClass getRootClass() {
 		//original
@@ -104,42 +148,31 @@ public class RetiredClasses {
 	}
 	
 	
-	private void checkSubcls(OWLClass subcls, OWLClass icdCategory) {
-		
+	/**
+	 * Writes a line for each retired superclass of a class that has no path without retired classes to the root.
+	 */
+	private void checkSubcls(OWLClass subcls) {
 		String subclsLabel = getClassLabel(subcls);
 		Set<OWLClass> superClses = OWLAPIUtil.getNamedSuperclasses(subcls, icdOnt, reasoner, false);
 		
 		for (OWLClass superCls : superClses) {
 			if (labelContainsRetired(superCls)) {
-				boolean toBeDeleted = true;
-				for (List<OWLClass> path : OWLAPIUtil.getPathsToSuperclass(subcls, icdCategory, icdOnt, reasoner)) {
-					if (! path.contains(superCls)) {
-						//this is an alternative path to ICD Categories, which does not go through the retired class identified above.
-						//We need to check that this path does not contain another retired class either
-						boolean nonRetiredPath = true;
-						for (OWLClass cls : path) {
-							if (labelContainsRetired(cls)) {
-								nonRetiredPath = false;
-								break;
-							}
-						}
-						if (nonRetiredPath) {
-							System.out.println(subcls + " / " + superCls + " / " + subclsLabel + " / " +  getClassLabel(superCls));
-							System.out.println(OWLAPIUtil.getPathsToSuperclass(subcls, icdCategory, icdOnt, reasoner));
-							toBeDeleted = false;
-							break;
-						}
-					}
-				}
-				if (toBeDeleted) {
-					//TODO: check for ICD-10 code and not being part of the released set
-					writeLine(subcls, superCls, subclsLabel, getClassLabel(superCls));
-				}
+				//TODO: check for ICD-10 code and not being part of the released set
+				writeLine(subcls, superCls, subclsLabel, getClassLabel(superCls));
 			}
 		}
 	}
 	
 	private boolean labelContainsRetired(OWLClass cls) {
+		Boolean retired = cls2retired.get(cls);
+		if (retired == null) {
+			retired = computeLabelContainsRetired(cls);
+			cls2retired.put(cls, retired);
+		}
+		return retired;
+	}
+
+	private boolean computeLabelContainsRetired(OWLClass cls) {
 		String clsLabel = getClassLabel(cls);
 		if (clsLabel == null) { //e.g. for owl:Thing
 			return false;
@@ -183,7 +216,7 @@ public class RetiredClasses {
 		OWLOntologyManager man = OWLManager.createOWLOntologyManager();
 
 		File icdOntFile = new File(args[0]);
-		OWLOntology sourceOnt = man.loadOntologyFromOntologyDocument(icdOntFile);
+		OWLOntology sourceOnt = OntologyLoader.loadOntology(man, icdOntFile);
 		if (sourceOnt == null) {
 			log.error("Could not load ICD ontology " + args[0]);
 			return;
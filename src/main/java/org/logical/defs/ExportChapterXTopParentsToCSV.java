@@ -14,6 +14,7 @@ import java.util.stream.Collectors;
 import org.apache.log4j.Logger;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringUtils;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -135,7 +136,7 @@ public class ExportChapterXTopParentsToCSV {
 		OWLOntologyManager man = OWLManager.createOWLOntologyManager();
 
 		File icdOntFile = new File(args[0]);
-		OWLOntology sourceOnt = man.loadOntologyFromOntologyDocument(icdOntFile);
+		OWLOntology sourceOnt = OntologyLoader.loadOntology(man, icdOntFile);
 		if (sourceOnt == null) {
 			log.error("Could not load ICD ontology " + args[0]);
 			return;
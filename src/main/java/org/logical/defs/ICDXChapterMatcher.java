@@ -16,6 +16,7 @@ import org.fma.icd.map.FMAExtractedResult;
 import org.fma.icd.map.ICDFMAMatchRecord;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringMatcher;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -297,7 +298,7 @@ public class ICDXChapterMatcher {
 		OWLOntologyManager man = OWLManager.createOWLOntologyManager();
 
 		File icdOntFile = new File(args[0]);
-		OWLOntology sourceOnt = man.loadOntologyFromOntologyDocument(icdOntFile);
+		OWLOntology sourceOnt = OntologyLoader.loadOntology(man, icdOntFile);
 		if (sourceOnt == null) {
 			log.error("Could not load ICD ontology " + args[0]);
 			return;
@@ -17,6 +17,7 @@ import org.apache.log4j.Logger;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringMatcher;
 import org.fma.icd.map.StringUtils;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
@@ -251,7 +252,7 @@ public class LexicalMatchParentChildICDX {
 		OWLOntologyManager man = OWLManager.createOWLOntologyManager();
 
 		File icdOntFile = new File(args[0]);
-		OWLOntology sourceOnt = man.loadOntologyFromOntologyDocument(icdOntFile);
+		OWLOntology sourceOnt = OntologyLoader.loadOntology(man, icdOntFile);
 		if (sourceOnt == null) {
 			log.error("Could not load ICD ontology " + args[0]);
 			return;
@@ -2,24 +2,36 @@ package org.logical.defs.extcauses;
 
 import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.fma.icd.map.HierarchyIndex;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringUtils;
+import org.ontologies.extract.AnnotationFilter;
 import org.ontologies.extract.ExportProperties;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAnnotation;
 import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLOntology;
@@ -39,6 +51,9 @@ import org.semanticweb.owlapi.vocab.SKOSVocabulary;
  * by substracting the common substring in an annotation property called shortLabel.
  * 
  * The output is a separate OWL file. The export is configured via the export.properties.
+ * If thread.count is more than 1, the sibling groups are processed in parallel in a fork/join pool,
+ * and all axioms are added to the target ontology at the end, in one call. The progress is logged
+ * every log.count classes in both modes.
  * 
  * @author ttania
  *
@@ -69,9 +84,23 @@ public class CommonSubstringInSiblingsFinder {
 
 	private int logCount; // default 100
 	private int saveCount; // default 100
+	
+	private int threadCount = 1;
+	private HierarchyIndex hierarchyIndex; //used instead of the reasoner by the workers
+	
+	private AnnotationFilter annotationFilter;
 
 	public CommonSubstringInSiblingsFinder(OWLOntologyManager manager, OWLOntology sourceOntology, OWLOntology targetOntology,
 			URI outputFileURI, OWLReasoner reasoner) {
+		this(manager, sourceOntology, targetOntology, outputFileURI, reasoner,
+				AnnotationFilter.fromExportProperties(manager.getOWLDataFactory()));
+	}
+
+	/**
+	 * @param annotationFilter selects the annotation assertions that are copied, instead of the export properties
+	 */
+	public CommonSubstringInSiblingsFinder(OWLOntologyManager manager, OWLOntology sourceOntology, OWLOntology targetOntology,
+			URI outputFileURI, OWLReasoner reasoner, AnnotationFilter annotationFilter) {
 		this.ontologyManager = manager;
 		this.df = ontologyManager.getOWLDataFactory();
 		this.sourceOntology = sourceOntology;
@@ -80,6 +109,7 @@ public class CommonSubstringInSiblingsFinder {
 		this.reasoner = reasoner;
 		this.commonSubstringProp = df.getOWLAnnotationProperty(COMMON_SUBSTR_PROP);
 		this.shortLabelProp = df.getOWLAnnotationProperty(SHORT_LABEL_PROP);
+		this.annotationFilter = annotationFilter;
 	}
 
 	public static void main(String[] args) {
@@ -88,10 +118,13 @@ public class CommonSubstringInSiblingsFinder {
 			BasicConfigurator.configure();
 
 			// TODO: move all these intializations in methods and constructor
-			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			int threadCount = ExportProperties.getThreadCount(1);
+			//the ontologies of the concurrent manager can be read from several threads
+			OWLOntologyManager manager = threadCount > 1 ? 
+					OWLManager.createConcurrentOWLOntologyManager() : OWLManager.createOWLOntologyManager();
 
 			File sourceOntFile = new File(ExportProperties.getSourceOntologyFileLocation());
-			OWLOntology sourceOnt = manager.loadOntologyFromOntologyDocument(sourceOntFile);
+			OWLOntology sourceOnt = OntologyLoader.loadOntology(manager, sourceOntFile);
 			if (sourceOnt == null) {
 				log.error("Could not load source ontology " + ExportProperties.getSourceOntologyFileLocation());
 				return;
@@ -109,6 +142,8 @@ public class CommonSubstringInSiblingsFinder {
 
 			CommonSubstringInSiblingsFinder extractor = new CommonSubstringInSiblingsFinder(manager, sourceOnt, targetOnt,
 					outputOntFile.toURI(), initReasoner(sourceOnt) );
+			extractor.setThreadCount(threadCount);
+			extractor.setLogCount(ExportProperties.getLogCount(100));
 
 			log.info("Started computation on " + new Date());
 			extractor.compute(ExportProperties.getTopClasses());
@@ -132,7 +167,11 @@ public class CommonSubstringInSiblingsFinder {
 		return reasoner;
 	}
 
-	private void compute(Collection<String> topClassNames) {
+	/**
+	 * Adds the annotations, the subclass axioms and the common substring annotations of the branches of the
+	 * top classes (given by IRI) to the target ontology. The target ontology is not saved at the end.
+	 */
+	public void compute(Collection<String> topClassNames) {
 		Set<OWLClass> topClasses = getTopClasses(sourceOntology, topClassNames);
 		if (topClasses.isEmpty() == true) {
 			log.info("Empty top classes. Nothing to export.");
@@ -141,15 +180,112 @@ public class CommonSubstringInSiblingsFinder {
 
 		traversed.clear();
 
+		if (threadCount > 1) {
+			computeInParallel(topClasses);
+		} else {
+			for (OWLClass sourceClass : topClasses) {
+				try {
+					extractClass(sourceClass);
+				} catch (Throwable t) {
+					log.error("Error at adding class: " + sourceClass, t);
+				}
+			}
+		}
+
+		cleanUp();
+	}
+	
+	/**
+	 * Each class is handled by a task, which collects the annotations of the class, and the subclass axioms 
+	 * and common substring annotations of its children in a local buffer, and forks a task for each child.
+	 * The buffers are added to the target ontology at the end. A class is handled only once, as in 
+	 * {@link #extractClass(OWLClass)}, so the result is the same as in the single threaded run.
+	 */
+	private void computeInParallel(Set<OWLClass> topClasses) {
+		long t0 = System.currentTimeMillis();
+		
+		hierarchyIndex = new HierarchyIndex(reasoner); //the structural reasoner is not thread-safe, the index is
+		
+		Set<OWLClass> traversedInParallel = ConcurrentHashMap.newKeySet();
+		Queue<List<OWLAxiom>> axiomBuffers = new ConcurrentLinkedQueue<List<OWLAxiom>>();
+		AtomicInteger handledCount = new AtomicInteger();
+		
+		List<ExtractClassTask> tasks = new ArrayList<ExtractClassTask>();
 		for (OWLClass sourceClass : topClasses) {
+			tasks.add(new ExtractClassTask(sourceClass, traversedInParallel, axiomBuffers, handledCount));
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+			hierarchyIndex = null;
+		}
+		
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		for (List<OWLAxiom> buffer : axiomBuffers) {
+			axioms.addAll(buffer);
+		}
+		targetOntology.addAxioms(axioms);
+		
+		importedClassesCount = traversedInParallel.size();
+		log.info("Imported " + importedClassesCount + " classes (" + axioms.size() + " axioms) with " + threadCount + 
+				" threads in " + (System.currentTimeMillis() - t0) / 1000 + " seconds");
+	}
+	
+	private class ExtractClassTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private OWLClass sourceClass;
+		private Set<OWLClass> traversedInParallel;
+		private Queue<List<OWLAxiom>> axiomBuffers;
+		private AtomicInteger handledCount;
+		
+		ExtractClassTask(OWLClass sourceClass, Set<OWLClass> traversedInParallel, Queue<List<OWLAxiom>> axiomBuffers,
+				AtomicInteger handledCount) {
+			this.sourceClass = sourceClass;
+			this.traversedInParallel = traversedInParallel;
+			this.axiomBuffers = axiomBuffers;
+			this.handledCount = handledCount;
+		}
+		
+		@Override
+		protected void compute() {
+			if (traversedInParallel.add(sourceClass) == false) {
+				return;
+			}
+			
+			List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+			List<ExtractClassTask> subtasks = new ArrayList<ExtractClassTask>();
 			try {
-				extractClass(sourceClass);
+				annotationFilter.annotationAssertionAxioms(sourceOntology, sourceClass.getIRI()).forEach(axioms::add);
+				
+				Set<OWLClass> subclses = getNamedSubclasses(sourceClass);
+				Collection<String> commonSubstr = StringUtils.getCommonSubstrings(sourceOntology, subclses);
+				
+				for (OWLClass subcls : subclses) {
+					axioms.add(df.getOWLSubClassOfAxiom(subcls, sourceClass));
+					collectCommonStrAnnotationAxioms(subcls, commonSubstr, axioms);
+					subtasks.add(new ExtractClassTask(subcls, traversedInParallel, axiomBuffers, handledCount));
+				}
 			} catch (Throwable t) {
 				log.error("Error at adding class: " + sourceClass, t);
 			}
+			
+			axiomBuffers.add(axioms);
+			
+			int count = handledCount.incrementAndGet();
+			if (logCount > 0 && count % logCount == 0) {
+				log.info("Imported " + count + " classes.\t Last imported class: " + sourceClass + " \t on " + new Date());
+			}
+			invokeAll(subtasks);
 		}
-
-		cleanUp();
 	}
 
 	private void extractClass(OWLClass sourceClass) {
@@ -189,7 +325,7 @@ public class CommonSubstringInSiblingsFinder {
 	}
 
 	private void addChildren(OWLClass sourceClass) throws OWLOntologyChangeException {
-		Set<OWLClass> subclses = OWLAPIUtil.getNamedSubclasses(sourceClass, sourceOntology, reasoner, true);
+		Set<OWLClass> subclses = getNamedSubclasses(sourceClass);
 		
 		Collection<String> commonSubstr = StringUtils.getCommonSubstrings(sourceOntology, subclses);
 		
@@ -204,34 +340,40 @@ public class CommonSubstringInSiblingsFinder {
 
 
 	private void addCommmonStrAnnotationProps(OWLClass subcls, Collection<String> commonSubstr) {
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		collectCommonStrAnnotationAxioms(subcls, commonSubstr, axioms);
+		targetOntology.addAxioms(axioms);
+	}
+	
+	private void collectCommonStrAnnotationAxioms(OWLClass subcls, Collection<String> commonSubstr, List<OWLAxiom> axioms) {
 		OWLAnnotationProperty skosAltProp = df.getOWLAnnotationProperty(SKOSVocabulary.ALTLABEL);
 		
 		for (String commonStr : commonSubstr) {
-			addAnnotationProperty(targetOntology, subcls, commonSubstringProp, commonStr, "en");
+			addAnnotationAxiom(axioms, subcls, commonSubstringProp, commonStr, "en");
 		}
 		
 		String prunnedTitle = StringUtils.pruneString(OWLAPIUtil.getSKOSPrefLabelValue(sourceOntology, subcls), commonSubstr);
-		addAnnotationProperty(targetOntology, subcls, shortLabelProp, prunnedTitle, "en");
+		addAnnotationAxiom(axioms, subcls, shortLabelProp, prunnedTitle, "en");
 		
 		if (addAnnsToSkosAlt() == true) {
-			addAnnotationProperty(targetOntology, subcls, skosAltProp, prunnedTitle, "en");
+			addAnnotationAxiom(axioms, subcls, skosAltProp, prunnedTitle, "en");
 		}
 	}
 	
-	private void addAnnotationProperty(OWLOntology ont, OWLClass cls, OWLAnnotationProperty annProp, String value, String lang) {
+	private void addAnnotationAxiom(List<OWLAxiom> axioms, OWLClass cls, OWLAnnotationProperty annProp, String value, String lang) {
 		if (value == null || value.length() == 0) {
 			return;
 		}
 		
 		OWLAnnotation ann = df.getOWLAnnotation(annProp, lang == null ? df.getOWLLiteral(value) : df.getOWLLiteral(value, lang));
-		ont.addAxiom(df.getOWLAnnotationAssertionAxiom(cls.getIRI(), ann));
+		axioms.add(df.getOWLAnnotationAssertionAxiom(cls.getIRI(), ann));
 	}
 
 	private void attachAnnotations(OWLClass sourceClass)
 			throws OWLOntologyChangeException {
-		Stream<OWLAnnotationAssertionAxiom> annAssertionsStream = sourceOntology
-				.annotationAssertionAxioms(sourceClass.getIRI());
-		annAssertionsStream.forEach(s -> ontologyManager.addAxiom(targetOntology, s)); //TODO filter by excluded annotations
+		Stream<OWLAnnotationAssertionAxiom> annAssertionsStream = annotationFilter
+				.annotationAssertionAxioms(sourceOntology, sourceClass.getIRI());
+		annAssertionsStream.forEach(s -> ontologyManager.addAxiom(targetOntology, s));
 	}
 
 
@@ -251,6 +393,24 @@ public class CommonSubstringInSiblingsFinder {
 		return classes;
 	}
 
+	private Set<OWLClass> getNamedSubclasses(OWLClass owlClass) {
+		if (hierarchyIndex != null) {
+			//called from the workers, which must not use the reasoner; the index has all the classes of the
+			//hierarchy, and the reasoner would not find subclasses of another class either
+			return hierarchyIndex.contains(owlClass) == true ?
+					hierarchyIndex.getSubclasses(owlClass, true) : new HashSet<OWLClass>();
+		}
+		return OWLAPIUtil.getNamedSubclasses(owlClass, sourceOntology, reasoner, true);
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public void setLogCount(int logCount) {
+		this.logCount = logCount;
+	}
+
 	private boolean addAnnsToSkosAlt() {
 		return ADD_SHORT_ANN_TO_SKOS_ALT_LABEL == true;
 	}
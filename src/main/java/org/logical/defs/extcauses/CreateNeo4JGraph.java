@@ -1,21 +1,17 @@
 package org.logical.defs.extcauses;
 
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
+import org.fma.icd.map.GraphWriter;
 import org.fma.icd.map.OWLAPIUtil;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Label;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
+import org.fma.icd.map.OWLGraphExporter;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
@@ -29,13 +25,15 @@ import org.semanticweb.owlapi.model.OWLOntologyStorageException;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
 import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+import org.semanticweb.owlapi.vocab.SKOSVocabulary;
 
 
 public class CreateNeo4JGraph {
 	private static transient Logger log = Logger.getLogger(CreateNeo4JGraph.class);
 	
-	public static final String GR_NAME_PROP = "name";
-	public static final String GR_PREF_LABEL_PROP = "prefLabel";
+	public static final String GR_NAME_PROP = GraphWriter.NAME_PROP;
+	public static final String GR_PREF_LABEL_PROP = GraphWriter.PREF_LABEL_PROP;
+	public static final String GR_TOP_X_PARENT_PROP = "topXParent";
 	
 	private enum RelTypes implements RelationshipType {
 		IS_A, FILLER, MECH
@@ -44,25 +42,31 @@ public class CreateNeo4JGraph {
 	public static final String NEO4J_DB_FOLDER = "/Users/ttania/work/neo4jdb/icd_ext_causes_fillers.db";
 	public static final String ICD_ONT_PATH = "/Users/ttania/work/projects/icd-fma-mapping/logical-defs-ext-causes/_running/icd-external-causes-with-fillers.owl";
 	
+	//"Causes of healthcare related harm", left out of the trees
+	public static final String HEALTHCARE_HARM_ID = "http://id.who.int/icd/entity/558785723";
+	
 	private static OWLOntologyManager man;
 	private static OWLDataFactory df;
 	private static OWLReasoner reasoner;
 
-	private static GraphDatabaseService graphDb;
-
-	private static Map<OWLClass, Node> cls2node = new HashMap<OWLClass, Node>();
+	private static OWLGraphExporter exporter;
 	
-	private static int count = 0;
-	
-	public static void main(String[] args) throws OWLOntologyCreationException, OWLOntologyStorageException {
+	/**
+	 * Writes the graph to the Neo4j database in transactions of neo4j.batch.size writes or, if neo4j.import.dir
+	 * is set, to the CSV files of neo4j-admin import in that folder. With neo4j.upsert=true, an existing database
+	 * is refreshed: only the changed nodes and relationships are written, and the ones not in the ontologies anymore are removed.
+	 */
+	public static void main(String[] args) throws OWLOntologyCreationException, OWLOntologyStorageException, IOException {
 		man = OWLManager.createOWLOntologyManager();
 		df = man.getOWLDataFactory();
 
-		graphDb = new GraphDatabaseFactory().newEmbeddedDatabase(new File(NEO4J_DB_FOLDER));
-		registerShutdownHook(graphDb);
+		GraphWriter graphWriter = GraphWriter.open(new File(NEO4J_DB_FOLDER), GR_TOP_X_PARENT_PROP);
 
-		OWLOntology ont = man.loadOntologyFromOntologyDocument(new File(ICD_ONT_PATH));
+		OWLOntology ont = OntologyLoader.loadOntology(man, new File(ICD_ONT_PATH));
 		reasoner = initReasoner(ont);
+
+		exporter = new OWLGraphExporter(graphWriter, df.getOWLAnnotationProperty(SKOSVocabulary.PREFLABEL.getIRI()), RelTypes.IS_A);
+		exporter.setReasoner(reasoner);
 		
 		log.info("Generate External Causes tree");
 		generateGraphNodes(ont, "ExtCauses", df.getOWLClass(ExtCausesConstants.CHAPTER_EXT_CAUSES_ID));
@@ -71,124 +75,40 @@ public class CreateNeo4JGraph {
 		generateGraphNodes(ont, "ChapterX", df.getOWLClass(ExtCausesConstants.CHAPTER_X_ID));
 		
 		log.info("Started the generation of maps ..");
+		graphWriter.startPhase("Maps");
 		generateMaps(ont, df.getOWLClass(ExtCausesConstants.CHAPTER_EXT_CAUSES_ID));
+		graphWriter.endPhase();
 		log.info("Finished the generation of maps");
 		
-		graphDb.shutdown();
+		graphWriter.removeStale();
+		graphWriter.close();
 
 	}
 	
 	
-	private static void generateGraphNodes(OWLOntology ont, String ontName, OWLClass topCls) {
+	private static void generateGraphNodes(OWLOntology ont, String ontName, OWLClass topCls) throws IOException {
+		Set<OWLClass> clses = getAllClses(ont, topCls);
+
 		log.info("Started creating " + ontName + " classes ..");
-		createClasses(ont, ontName, topCls);
-		log.info("Created " + count + " " + ontName + " classes");
+		exporter.exportClasses(ont, ontName + "Class", Stream.concat(Stream.of(topCls), clses.stream()));
 		
 		log.info("Started creating " + ontName + " relations ..");
-		createRels(ont, topCls);
+		exporter.exportRelations(ont, ontName, clses.stream());
 		log.info("Finished creating " + ontName + " relations.");
 	}
 	
 
-	private static void createClasses(OWLOntology ont, String ontName, OWLClass topCls) {
-		createCls(ont, ontName, topCls);
-		for (OWLClass cls : getAllClses(ont, topCls)) {
-			createCls(ont, ontName, cls);
-		}
-	}
-
-	private static Node createCls(OWLOntology ont, String ontName, OWLClass cls) {
-		Node clsNode = null;
-
-		try (Transaction tx = graphDb.beginTx()) {
-			clsNode = createNode(cls, ontName);
-			cls2node.put(cls, clsNode);
-			
-			addAnnotations(ont, cls, clsNode);
-			
-			count++;
-			logClassCount();
-			
-			tx.success();
-		} catch (Exception e) {
-			log.warn("Exception at creating class " + cls + ", " + e.getMessage(), e);
-		}
-
-		return clsNode;
-	}
-
-	private static Node createNode(OWLClass cls, String ontName) {
-		Node clsNode = null;
-
-		clsNode = graphDb.createNode();
-		clsNode.addLabel(Label.label(ontName + "Class"));
-		clsNode.setProperty(GR_NAME_PROP, cls.getIRI().toString());
-
-		return clsNode;
-	}
-
-	private static void addAnnotations(OWLOntology ont, OWLClass cls, Node clsNode) {
-		String prefLabel = OWLAPIUtil.getSKOSPrefLabelValue(ont, cls);
-		if (prefLabel != null) {
-			clsNode.setProperty(GR_PREF_LABEL_PROP, prefLabel);
-		}
-	}
-
-	private static void createRels(OWLOntology ont, OWLClass topCls) {
-		for (OWLClass cls : getAllClses(ont, topCls)) {
-			createSuperAndRelClses(ont, cls, cls2node.get(cls));
-		}
-	}
-
-	private static void createSuperAndRelClses(OWLOntology ont, OWLClass cls, Node clsNode) {
-		Set<OWLClass> superclses = OWLAPIUtil.getNamedSuperclasses(cls, ont, reasoner, true);
-		for (OWLClass supercls : superclses) {
-			addSuperNode(cls, clsNode, (OWLClass) supercls);
-		}
-	}
-
-	private static void addMechanism(OWLOntology ont, OWLClass cls) {
+	private static void addMechanism(OWLOntology ont, OWLClass cls) throws IOException {
 		IRI mechIri = OWLAPIUtil.getIRIAnnotationValue(ont, cls.getIRI(), df.getOWLAnnotationProperty(ExtCausesConstants.MECHANISM_PROP));
 		if (mechIri == null) {
 			return;
 		}
 		
-		Node clsNode = cls2node.get(cls);
-		
-		Node mechNode = cls2node.get(df.getOWLClass(mechIri));
-		
-		if (mechNode == null) {
-			log.warn("Could not find mechanism node for " + cls);
-			return;
-		}
-		
-		try (Transaction tx = graphDb.beginTx()) {
-			clsNode.createRelationshipTo(mechNode, RelTypes.MECH);
-			tx.success();
-		} catch (Exception e) {
-			log.warn("Exception at adding mechanism for class " + cls, e);
-		}
-		
-	}
-
-
-	private static void addSuperNode(OWLClass cls, Node clsNode, OWLClass supercls) {
-		Node superNode = cls2node.get(supercls);
-		if (superNode == null) {
-			log.error("Error at creating parents for " + cls + ". Could not find node for " + supercls );
-			return;
-		}
-		try (Transaction tx = graphDb.beginTx()) {
-			clsNode.createRelationshipTo(superNode, RelTypes.IS_A);
-			tx.success();
-		} catch (Exception e) {
-			log.warn("Exception at adding supercls for class " + cls + " supercls: " + supercls, e);
-		}
+		exporter.createRelationship(cls, df.getOWLClass(mechIri), RelTypes.MECH, null, null);
 	}
 	
 	
-	
-	private static void generateMaps(OWLOntology ont, OWLClass topCls) {
+	private static void generateMaps(OWLOntology ont, OWLClass topCls) throws IOException {
 		OWLAnnotationProperty fillerProp = df.getOWLAnnotationProperty(ExtCausesConstants.FILLER_PROP);
 		Iterator<OWLClass> it = getAllClses(ont, topCls).iterator();
 		
@@ -201,60 +121,25 @@ public class CreateNeo4JGraph {
 			//add fillers
 			Stream<OWLAnnotationAssertionAxiom> anns = ont.annotationAssertionAxioms(cls.getIRI());
 			if (anns != null) {
-				anns.filter(annAss -> annAss.getProperty().equals(fillerProp)).forEach(ann -> map(cls, ann));
+				Iterator<OWLAnnotationAssertionAxiom> annIt = anns.filter(annAss -> annAss.getProperty().equals(fillerProp)).iterator();
+				while (annIt.hasNext()) {
+					map(cls, annIt.next());
+				}
 			}
 		}
 	}
 	
 	
-	private static void map(OWLClass cls, OWLAnnotationAssertionAxiom annAss) {
+	private static void map(OWLClass cls, OWLAnnotationAssertionAxiom annAss) throws IOException {
 		IRI xmap = annAss.annotationValue().asIRI().get();
 		IRI topXCls = annAss.annotations(df.getOWLAnnotationProperty(ExtCausesConstants.MATCH_X_TOP_CLS_PROP)).findFirst().get().
 			annotationValue().asIRI().get();
-		createMap(cls, df.getOWLClass(xmap), df.getOWLClass(topXCls));
+		exporter.createRelationship(cls, df.getOWLClass(xmap), RelTypes.FILLER, GR_TOP_X_PARENT_PROP, topXCls.toString());
 	}
 
-
-	private static void createMap(OWLClass cls, OWLClass xCls, OWLClass topxCls) {
-		Node clsNode = cls2node.get(cls);
-		if (clsNode == null) {
-			log.warn("Could not find node " + cls);
-			return;
-		}
-		
-		Node xClsNode = cls2node.get(xCls);
-		if (xClsNode == null) {
-			log.warn("Could not find node " + xCls);
-			return;
-		}
-		
-		
-		try (Transaction tx = graphDb.beginTx()) {
-			Relationship rel = clsNode.createRelationshipTo(xClsNode, RelTypes.FILLER);
-			
-			rel.setProperty("topXParent", topxCls.getIRI().toString());
-			
-			tx.success();
-		} catch (Exception e) {
-			log.warn("Exception at creating map for " + cls + " and " + xCls, e);
-		}
-	}
-
-	
-	private static void logClassCount() {
-		if (count % 1000 == 0) {
-			log.info("Created " + count + " classes");
-		}
-	}
-	
 	
 	private static Set<OWLClass> getAllClses(OWLOntology ont, OWLClass topCls) {
-		Set<OWLClass> subclses = OWLAPIUtil.getNamedSubclasses(topCls, ont, reasoner, false);
-		//remove "Causes of healthcare related harm
-		OWLClass healthcareharmCls = df.getOWLClass("http://id.who.int/icd/entity/558785723");
-		subclses.remove(healthcareharmCls);
-		subclses.removeAll(OWLAPIUtil.getNamedSubclasses(healthcareharmCls, ont, reasoner, false));
-		return subclses;
+		return OWLGraphExporter.subtreeClasses(ont, reasoner, topCls, df.getOWLClass(HEALTHCARE_HARM_ID));
 	}
 	
 	
@@ -263,13 +148,5 @@ public class CreateNeo4JGraph {
 		OWLReasoner reasoner = reasonerFactory.createReasoner(ontology);
 		return reasoner;
 	}
-	
-	private static void registerShutdownHook(GraphDatabaseService graphDb) {
-		Runtime.getRuntime().addShutdownHook(new Thread() {
-			public void run() {
-				graphDb.shutdown();
-			};
-		});
-	}
 
 }
@@ -17,7 +17,9 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringMatcher;
+import org.ontologies.extract.AnnotationFilter;
 import org.ontologies.extract.ExportProperties;
+import org.ontologies.extract.OntologyLoader;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
 import org.semanticweb.owlapi.model.IRI;
@@ -69,7 +71,9 @@ public class ExtCausesFindLogDefFillers {
 	
 	private XChapterCache xChapterCache;
 	LabelCache labelCache;
+	private XLabelMatcher xLabelMatcher;
 	private XMatchCache xMatchCache = new XMatchCache();
+	private LabelPairScoreMemo fuzzyScoreMemo = new LabelPairScoreMemo();
 	
 	private Map<OWLClass, OWLClass> cls2TopCls = new HashMap<OWLClass, OWLClass>();
 
@@ -77,6 +81,8 @@ public class ExtCausesFindLogDefFillers {
 
 	private int logCount = 100; 
 	private int saveCount = -1; 
+	
+	private AnnotationFilter annotationFilter;
 
 	public ExtCausesFindLogDefFillers(OWLOntologyManager manager, OWLOntology sourceOntology, OWLOntology targetOntology,
 			URI outputFileURI, OWLReasoner reasoner) {
@@ -86,6 +92,7 @@ public class ExtCausesFindLogDefFillers {
 		this.targetOntology = targetOntology;
 		this.outputOntologyFileURI = outputFileURI;
 		this.reasoner = reasoner;
+		this.annotationFilter = AnnotationFilter.fromExportProperties(df);
 	}
 
 	
@@ -97,7 +104,7 @@ public class ExtCausesFindLogDefFillers {
 			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
 
 			File sourceOntFile = new File(ExportProperties.getSourceOntologyFileLocation());
-			OWLOntology sourceOnt = manager.loadOntologyFromOntologyDocument(sourceOntFile);
+			OWLOntology sourceOnt = OntologyLoader.loadOntology(manager, sourceOntFile);
 			if (sourceOnt == null) {
 				log.error("Could not load source ontology " + ExportProperties.getSourceOntologyFileLocation());
 				return;
@@ -131,33 +138,39 @@ public class ExtCausesFindLogDefFillers {
 
 	
 	private void start(Collection<String> topClassNames) {
-		init();
+		try {
+			init();
 		
-		log.info("Starting logical definition computation..");
+			log.info("Starting logical definition computation..");
 		
-		//saveCount = 300; //while debugging
+			//saveCount = 300; //while debugging
 		
-		Set<OWLClass> topClasses = getTopClasses(sourceOntology, topClassNames);
-		if (topClasses.isEmpty() == true) {
-			log.info("Empty top classes. Nothing to export.");
-			return;
-		}
+			Set<OWLClass> topClasses = getTopClasses(sourceOntology, topClassNames);
+			if (topClasses.isEmpty() == true) {
+				log.info("Empty top classes. Nothing to export.");
+				return;
+			}
 
-		traversed.clear();
+			traversed.clear();
 
-		for (OWLClass sourceClass : topClasses) {
-			try {
-				extractClass(sourceClass, df.getOWLThing(), true);
-			} catch (Throwable t) {
-				log.error("Error at adding class: " + sourceClass, t);
+			for (OWLClass sourceClass : topClasses) {
+				try {
+					extractClass(sourceClass, df.getOWLThing(), true);
+				} catch (Throwable t) {
+					log.error("Error at adding class: " + sourceClass, t);
+				}
 			}
-		}
 
-		postProcess();
+			log.info("Fuzzy score memo: " + fuzzyScoreMemo);
 		
-		cleanUp();
+			postProcess();
 		
-		exportToCSV();
+			cleanUp();
+		
+			exportToCSV();
+		} finally {
+			OWLAPIUtil.removeHierarchyIndex(reasoner); //indexed in init()
+		}
 	}
 
 	private void exportToCSV() {
@@ -187,12 +200,17 @@ public class ExtCausesFindLogDefFillers {
 	private void init() {
 		log.info("Started building caches ..");
 		
+		OWLAPIUtil.indexHierarchy(reasoner); //the source ontology is not changed
+		
 		this.xChapterCache = new XChapterCache(ontologyManager, sourceOntology, reasoner);
 		xChapterCache.init();
 		
 		this.labelCache = new LabelCache(ontologyManager, sourceOntology, reasoner, xChapterCache);
 		labelCache.init(); //it also initializes the lemmaCache; just an optimization
 		
+		this.xLabelMatcher = new XLabelMatcher(labelCache);
+		xLabelMatcher.init(getAllXClasses());
+		
 		fillExtCausesTopClsesCache();
 		
 		log.info("Ended building caches ..");
@@ -205,6 +223,15 @@ public class ExtCausesFindLogDefFillers {
 	}		
 
 	
+	private Set<OWLClass> getAllXClasses() {
+		Set<OWLClass> xClses = new HashSet<OWLClass>();
+		for (OWLClass topXCls : xChapterCache.getXTopClasses()) {
+			xClses.add(topXCls);
+			xClses.addAll(OWLAPIUtil.getNamedSubclasses(topXCls, sourceOntology, reasoner, false));
+		}
+		return xClses;
+	}
+	
 	private void fillExtCausesTopClsesCache() {
 		for (OWLClass topCls : OWLAPIUtil.getNamedSubclasses(df.getOWLClass(ExtCausesConstants.CHAPTER_EXT_CAUSES_ID), sourceOntology, reasoner, true)) {
 			Set<OWLClass> subclses = OWLAPIUtil.getNamedSubclasses(topCls, sourceOntology, reasoner, false);
@@ -352,7 +379,7 @@ public class ExtCausesFindLogDefFillers {
 		Set<OWLClass> subclses = OWLAPIUtil.getNamedSubclasses(topXParent, sourceOntology, reasoner, false);
 		
 		boolean match = false;
-		for (OWLClass xCls : subclses) {
+		for (OWLClass xCls : getXCandidates(cls, topXParent, subclses, label)) {
 			if (matchWithXCls(cls, topXCls, xCls, label, checkForDuplicates) == true) {
 				match = true;
 			}
@@ -364,13 +391,22 @@ public class ExtCausesFindLogDefFillers {
 	private boolean matchWithTopXCls(OWLClass cls, OWLClass topXCls, 
 									 String label, boolean checkForDuplicates) {
 		boolean match = false;
-		for (OWLClass xCls : xChapterCache.getXChildren(topXCls)) {
+		for (OWLClass xCls : getXCandidates(cls, topXCls, xChapterCache.getXChildren(topXCls), label)) {
 			if (matchWithXCls(cls, topXCls, xCls, label, checkForDuplicates) == true) {
 				match = true;
 			}
 		}
 		return match;
 	}
+	
+	/**
+	 * The X classes that can match the label of cls (the same label as in matchWithXCls).
+	 * All the others would get a 0 score in {@link #match(String, String)}.
+	 */
+	private List<OWLClass> getXCandidates(OWLClass cls, OWLClass xParent, Set<OWLClass> xClses, String label) {
+		label = label == null ? labelCache.getLabel(cls) : label;
+		return xLabelMatcher.getCandidates(xParent, xClses, label);
+	}
 
 	
 	private boolean matchWithXCls(OWLClass cls, OWLClass topXCls, OWLClass xCls, 
@@ -759,7 +795,7 @@ public class ExtCausesFindLogDefFillers {
 		//boolean contains = bigStr.contains(smallStr);
 		boolean contains = bigStr.contains(smallStr) && 
 						   StringMatcher.contains(bigStr, smallStr, false) ;
-		return contains == true ? FuzzySearch.ratio(bigStr, smallStr) : 0;
+		return contains == true ? fuzzyScoreMemo.getScore(bigStr, smallStr, FuzzySearch::ratio) : 0;
 	}
 	
 
@@ -808,9 +844,9 @@ public class ExtCausesFindLogDefFillers {
 	
 	private void attachAnnotations(OWLClass sourceClass)
 			throws OWLOntologyChangeException {
-		Stream<OWLAnnotationAssertionAxiom> annAssertionsStream = sourceOntology
-				.annotationAssertionAxioms(sourceClass.getIRI());
-		annAssertionsStream.forEach(s -> ontologyManager.addAxiom(targetOntology, s)); //TODO filter by excluded annotations
+		Stream<OWLAnnotationAssertionAxiom> annAssertionsStream = annotationFilter
+				.annotationAssertionAxioms(sourceOntology, sourceClass.getIRI());
+		annAssertionsStream.forEach(s -> ontologyManager.addAxiom(targetOntology, s));
 	}
 
 
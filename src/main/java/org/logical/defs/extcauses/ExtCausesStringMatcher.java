@@ -4,9 +4,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.fma.icd.map.StringMatcher;
+import org.fma.icd.map.TextNormalizer;
 
 import edu.stanford.nlp.process.Stemmer;
 import edu.stanford.nlp.simple.Document;
@@ -27,6 +30,60 @@ public class ExtCausesStringMatcher {
 			//"other"
 	);
 	
+	//case insensitive literals, replaced in this order
+	public final static String[][] REPLACED_WORDS = {
+			//some medicaments use [], will make them an OR instead..
+			{"[", " or "},
+			{"]", ""},
+			
+			{EXPOSURE_TO_BEING, ""},
+			{CONTACT_WITH, ""},
+			{"Exposure", ""},
+			{ASPECT_OF, ""},
+			{"being", ""},
+			{"accidental", ""},
+			
+			{"elewhere", "elsewhere"},
+			
+			{"undeterminedintent", "undetermined intent"},
+			{"undetremined", "undetermined"},
+			{"underermined", "undetermined"},
+			
+			{"related", ""},
+			{"nonpowered", "unpowered"},
+			{"low-powered", "low powered"},
+			{"animal-powered", "animal powered"},
+			{"vehicle driver", "driver"},
+			{"vehicle passenger", "passenger"},
+			{"motor cyclist", "motorcycle"},
+			{"cyclist", "cycle"},
+			{"off-road nontraffic", "off-road"},
+			{"transport on-road", "transport road"},
+			{"injurious transport event", "transport injury event"},
+			{"swimming-pool", "swimming pool"},
+			{"hand gun", "handgun"},
+			{"air craft", "aircraft"},
+			{"anaesthetic", "anesthetic"},
+			
+			{"fluid", "liquid"},
+			{"person, animal or plant", "animal, plant, or person"},
+			
+			{"analgesics, antipyretics or nonsteroidal anti-inflammatory drugs",
+				"analgesics, antipyretics and anti-inflammatory drugs"},
+			
+			{"cannabinoids & hallucinogens", "cannabinoids or hallucinogens"},
+			//this was a regex before, and the parentheses were a group, so this is what it actually matched
+			{"cannabis natural; phytocannabinoids", "cannabis"},
+			
+			{"controlled fire, flame", "controlled fire"}
+	};
+	
+	private final static Pattern[] replacedWordPatterns = compileReplacedWords();
+	
+	//lower case, replaced words, and removed excluded words in one pass
+	final static TextNormalizer preprocessNormalizer =
+			new TextNormalizer(StringMatcher.excludedWords, REPLACED_WORDS, true, true);
+	
 	private static HashMap<String, String> str2preproc = new HashMap<String, String>();
 	
 	
@@ -48,9 +105,7 @@ public class ExtCausesStringMatcher {
 			return null;
 		}
 		
-		str = str.toLowerCase();
-		str = replaceWords(str);
-		str = StringMatcher.removeExcludedWords(str);
+		str = normalize(str);
 		
 		if (labelCache == null) {
 			str = lemmatize(str);
@@ -88,9 +143,7 @@ public class ExtCausesStringMatcher {
 			return ret;
 		}
 		
-		ret = str.toLowerCase();
-		ret = ExtCausesStringMatcher.replaceWords(ret);
-		ret = StringMatcher.removeExcludedWords(ret);
+		ret = normalize(str);
 		ret = lemmatize(ret);
 		
 		str2preproc.put(str, ret);
@@ -118,58 +171,34 @@ public class ExtCausesStringMatcher {
 		return ret;
 	}
 	
+	/**
+	 * Same as lower casing, {@link #replaceWords(String)} and {@link StringMatcher#removeExcludedWords(String)},
+	 * but in a single pass over the string.
+	 */
+	public static String normalize(String str) {
+		return preprocessNormalizer.normalize(str);
+	}
+	
 	public static String replaceWords(String str) {
 		if (str == null) {
 			return null;
 		}
 		
-		//some medicaments use [], will make them an OR instead..
-		str = str.replaceAll("\\[", " or ");
-		str = str.replaceAll("\\]", "");
-		
-		str = str.replaceAll("(?i:" + EXPOSURE_TO_BEING + ")", "");
-		str = str.replaceAll("(?i:" + CONTACT_WITH + ")", "");
-		str = str.replaceAll("(?i:" + "Exposure" + ")", "");
-		str = str.replaceAll("(?i:" + ASPECT_OF + ")", "");
-		str = str.replaceAll("(?i:" + "being" + ")", "");
-		str = str.replaceAll("(?i:" + "accidental" + ")", "");
-		
-		str = str.replaceAll("(?i:" + "elewhere" + ")", "elsewhere");
-		
-		str = str.replaceAll("(?i:" + "undeterminedintent" + ")", "undetermined intent");
-		str = str.replaceAll("(?i:" + "undetremined" + ")", "undetermined");
-		str = str.replaceAll("(?i:" + "underermined" + ")", "undetermined");
-		
-		str = str.replaceAll("(?i:" + "related" + ")", "");
-		str = str.replaceAll("(?i:" + "nonpowered" + ")", "unpowered");
-		str = str.replaceAll("(?i:" + "low-powered" + ")", "low powered");
-		str = str.replaceAll("(?i:" + "animal-powered" + ")", "animal powered");
-		str = str.replaceAll("(?i:" + "vehicle driver" + ")", "driver");
-		str = str.replaceAll("(?i:" + "vehicle passenger" + ")", "passenger");
-		str = str.replaceAll("(?i:" + "motor cyclist" + ")", "motorcycle");
-		str = str.replaceAll("(?i:" + "cyclist" + ")", "cycle");
-		str = str.replaceAll("(?i:" + "off-road nontraffic" + ")", "off-road");
-		str = str.replaceAll("(?i:" + "transport on-road" + ")", "transport road");
-		str = str.replaceAll("(?i:" + "injurious transport event" + ")", "transport injury event");
-		str = str.replaceAll("(?i:" + "swimming-pool" + ")", "swimming pool");
-		str = str.replaceAll("(?i:" + "hand gun" + ")", "handgun");
-		str = str.replaceAll("(?i:" + "air craft" + ")", "aircraft");
-		str = str.replaceAll("(?i:" + "anaesthetic" + ")", "anesthetic");
-		
-		str = str.replaceAll("(?i:" + "fluid" + ")", "liquid");
-		str = str.replaceAll("(?i:" + "person, animal or plant" + ")", "animal, plant, or person");
-		
-		str = str.replaceAll("(?i:" + "analgesics, antipyretics or nonsteroidal anti-inflammatory drugs" + ")",
-									  "analgesics, antipyretics and anti-inflammatory drugs");
-		
-		str = str.replaceAll("(?i:" + "cannabinoids & hallucinogens" + ")", "cannabinoids or hallucinogens");
-		str = str.replaceAll("(?i:" + "cannabis (natural; phytocannabinoids)" + ")", "cannabis");
-		
-		str = str.replaceAll("(?i:" + "controlled fire, flame" + ")", "controlled fire");
+		for (int i = 0; i < replacedWordPatterns.length; i++) {
+			str = replacedWordPatterns[i].matcher(str).replaceAll(Matcher.quoteReplacement(REPLACED_WORDS[i][1]));
+		}
 		
 		return str;
 	}
 	
+	private static Pattern[] compileReplacedWords() {
+		Pattern[] patterns = new Pattern[REPLACED_WORDS.length];
+		for (int i = 0; i < REPLACED_WORDS.length; i++) {
+			patterns[i] = Pattern.compile(Pattern.quote(REPLACED_WORDS[i][0]), Pattern.CASE_INSENSITIVE);
+		}
+		return patterns;
+	}
+	
 	public static String preprocessString(String s, boolean doStemming) {
 		StringBuffer buff = new StringBuffer();
 		
@@ -1,8 +1,10 @@
 package org.logical.defs.extcauses;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -12,6 +14,8 @@ import java.util.stream.Collectors;
 
 import org.fma.icd.map.OWLAPIUtil;
 import org.fma.icd.map.StringMatcher;
+import org.ontologies.extract.ExportProperties;
+import org.ontologies.extract.FileChecksum;
 import org.semanticweb.owlapi.model.OWLAnnotationProperty;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataFactory;
@@ -19,9 +23,6 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 
-import edu.stanford.nlp.simple.Document;
-import edu.stanford.nlp.simple.Sentence;
-
 public class LabelCache {
 	
 	private OWLOntologyManager ontologyManager;
@@ -37,8 +38,9 @@ public class LabelCache {
 	private Map<OWLClass, List<String>> cls2SplitOrPref = new HashMap<OWLClass, List<String>>();
 	private Map<OWLClass, List<String>> cls2SplitOrShort = new HashMap<OWLClass, List<String>>();
 	
-	private Map<String,String> word2lemma = new HashMap<String,String>(10000, 0.6f);
-	private Map<String,String> lemma2pos = new HashMap<String,String>(10000, 0.6f); //this is not perfect, but should work
+	//filled by the LemmaTable
+	private Map<String,String> word2lemma = new HashMap<String,String>();
+	private Map<String,String> lemma2pos = new HashMap<String,String>(); //this is not perfect, but should work
 	
 	private Set<String> duplicateLabels = new HashSet<String>();
 	
@@ -53,7 +55,53 @@ public class LabelCache {
 	
 	public void init() {
 		initLemmaCache();
-		precacheLabels();
+		
+		String labelCacheFileLocation = ExportProperties.getLabelCacheFileLocation();
+		File labelCacheFile = labelCacheFileLocation == null ? null : new File(labelCacheFileLocation);
+		String snapshotKey = labelCacheFile == null ? null : getSnapshotKey();
+		
+		LabelCacheSnapshot snapshot = snapshotKey == null ? null : LabelCacheSnapshot.load(labelCacheFile, snapshotKey, df);
+		
+		if (snapshot == null) {
+			precacheLabels();
+			if (snapshotKey != null) {
+				new LabelCacheSnapshot(cls2Label, cls2ShortLabel, cls2SplitOrPref, cls2SplitOrShort, duplicateLabels).
+					save(labelCacheFile, snapshotKey);
+			}
+		} else {
+			cls2Label = snapshot.cls2Label;
+			cls2ShortLabel = snapshot.cls2ShortLabel;
+			cls2SplitOrPref = snapshot.cls2SplitOrPref;
+			cls2SplitOrShort = snapshot.cls2SplitOrShort;
+			duplicateLabels = snapshot.duplicateLabels;
+		}
+	}
+	
+	/**
+	 * The key of the label cache snapshot: the checksum of the source ontology,
+	 * and of everything else that changes the preprocessed labels.
+	 * @return the key, or null if the source ontology cannot be read
+	 */
+	private String getSnapshotKey() {
+		String ontologyChecksum = FileChecksum.getChecksum(ExportProperties.getSourceOntologyFileLocation());
+		if (ontologyChecksum == null) {
+			return null;
+		}
+		
+		StringBuilder config = new StringBuilder();
+		config.append(LabelCacheSnapshot.FILE_FORMAT_VERSION).append('\n');
+		config.append(StringMatcher.excludedWords).append('\n');
+		config.append(Arrays.deepToString(ExtCausesStringMatcher.REPLACED_WORDS)).append('\n');
+		config.append(ExportProperties.getLemmaBatchSize(LemmaTable.DEFAULT_BATCH_SIZE)).append('\n');
+		
+		List<String> xTopClses = new ArrayList<String>();
+		for (OWLClass xCls : xChapterCache.getXTopClasses()) {
+			xTopClses.add(xCls.getIRI().toString());
+		}
+		Collections.sort(xTopClses);
+		config.append(xTopClses);
+		
+		return ontologyChecksum + "-" + FileChecksum.getChecksumOfString(config.toString());
 	}
 	
 	private void precacheLabels() {
@@ -103,15 +151,40 @@ public class LabelCache {
 		}
 	}
 	
-	//this is defunct code because HashMap<String, String> was horribly slow..
+	/**
+	 * Fills the lemma tables from the pref labels of the ext causes chapter and of the X top classes.
+	 * If a lemma cache file is configured, the tables are loaded from it when it was saved for the same
+	 * source ontology and batch size, so that CoreNLP is not run at all; otherwise they are saved to it.
+	 * The batch size is part of the key, as the POS tags at the edges of the batches depend on it.
+	 */
 	private void initLemmaCache() {
-		Collection<String> labels = new ArrayList<String>();
-		labels.addAll(getPrefLabels(df.getOWLClass(ExtCausesConstants.CHAPTER_EXT_CAUSES_ID))); 
+		int batchSize = ExportProperties.getLemmaBatchSize(LemmaTable.DEFAULT_BATCH_SIZE);
+		String lemmaCacheFileLocation = ExportProperties.getLemmaCacheFileLocation();
+		File lemmaCacheFile = lemmaCacheFileLocation == null ? null : new File(lemmaCacheFileLocation);
+		String ontologyChecksum = lemmaCacheFile == null ? null :
+				FileChecksum.getChecksum(ExportProperties.getSourceOntologyFileLocation());
+		String cacheKey = ontologyChecksum == null ? null : ontologyChecksum + " batch size " + batchSize;
 		
-		for (OWLClass xCls : xChapterCache.getXTopClasses()) {
-			labels.addAll(getPrefLabels(xCls));
+		LemmaTable lemmaTable = cacheKey == null ? null : LemmaTable.load(lemmaCacheFile, cacheKey);
+		
+		if (lemmaTable == null) {
+			List<String> labels = new ArrayList<String>();
+			labels.addAll(getPrefLabels(df.getOWLClass(ExtCausesConstants.CHAPTER_EXT_CAUSES_ID))); 
+			
+			for (OWLClass xCls : xChapterCache.getXTopClasses()) {
+				labels.addAll(getPrefLabels(xCls));
+			}
+			
+			lemmaTable = new LemmaTable();
+			lemmaTable.fill(labels, batchSize);
+			
+			if (cacheKey != null) {
+				lemmaTable.save(lemmaCacheFile, cacheKey);
+			}
 		}
-		fillLemmaCache(getAllLabelsString(labels));
+		
+		word2lemma = lemmaTable.getWord2Lemma();
+		lemma2pos = lemmaTable.getLemma2Pos();
 	}
 	
 	private Collection<String> getPrefLabels(OWLClass topXCls) {
@@ -122,40 +195,13 @@ public class LabelCache {
 		}
 		return labels;
 	}
-
-	private void fillLemmaCache(String labels) {
-		Document doc = new Document(labels);
-		for (Sentence sentence : doc.sentences()) {
-			for (int i=0; i < sentence.words().size(); i++) {
-				String word = sentence.word(i);
-			
-				if (word != null && word.length() > 0) {
-					String lemma = sentence.lemma(i);
-					word2lemma.put(word, lemma); 
-					lemma2pos.put(lemma, sentence.posTag(i));
-				}
-			}
-		}
-	}
-	
-	private String getAllLabelsString(Collection<String> labels) {
-		//make them into a string
-		StringBuffer allLabels = new StringBuffer();
-		for (String label : labels) {
-			allLabels.append(label);
-			allLabels.append("\n");
-		}
-		return allLabels.toString();
-	}
 	
 	public String preprocess(String str) {
 		if (str == null) {
 			return null;
 		}
 		
-		str = str.toLowerCase();
-		str = ExtCausesStringMatcher.replaceWords(str);
-		str = StringMatcher.removeExcludedWords(str);
+		str = ExtCausesStringMatcher.normalize(str);
 		str = lemmatize(str);
 		
 		return str;
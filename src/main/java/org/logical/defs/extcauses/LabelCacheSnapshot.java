@@ -0,0 +1,284 @@
+package org.logical.defs.extcauses;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+
+/**
+ * A snapshot of the preprocessed labels of the {@link LabelCache}, saved to a compact binary file
+ * and loaded in a later run with the same inputs, without traversing the hierarchies or preprocessing any label.
+ * <p>
+ * The file has a header with the key, a table with all distinct strings (class IRIs and labels),
+ * and the maps, in which each string is written as its index in the table (-1 for null).
+ * It is read with a single memory-mapped read.
+ */
+public class LabelCacheSnapshot {
+
+	private static transient Logger log = Logger.getLogger(LabelCacheSnapshot.class);
+
+	private static final int MAGIC = 0x4C424C43; //"LBLC"
+	public static final int FILE_FORMAT_VERSION = 1;
+
+	private static final int NULL = -1;
+
+	Map<OWLClass,String> cls2Label;
+	Map<OWLClass,String> cls2ShortLabel;
+	Map<OWLClass, List<String>> cls2SplitOrPref;
+	Map<OWLClass, List<String>> cls2SplitOrShort;
+	Set<String> duplicateLabels;
+
+
+	LabelCacheSnapshot(Map<OWLClass,String> cls2Label, Map<OWLClass,String> cls2ShortLabel,
+			Map<OWLClass, List<String>> cls2SplitOrPref, Map<OWLClass, List<String>> cls2SplitOrShort,
+			Set<String> duplicateLabels) {
+		this.cls2Label = cls2Label;
+		this.cls2ShortLabel = cls2ShortLabel;
+		this.cls2SplitOrPref = cls2SplitOrPref;
+		this.cls2SplitOrShort = cls2SplitOrShort;
+		this.duplicateLabels = duplicateLabels;
+	}
+
+
+	public void save(File file, String key) {
+		long t0 = System.currentTimeMillis();
+
+		Map<String, Integer> string2id = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		collectStrings(string2id, strings);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FILE_FORMAT_VERSION);
+			writeString(out, key);
+
+			out.writeInt(strings.size());
+			for (String str : strings) {
+				writeString(out, str);
+			}
+
+			writeLabelMap(out, cls2Label, string2id);
+			writeLabelMap(out, cls2ShortLabel, string2id);
+			writeListMap(out, cls2SplitOrPref, string2id);
+			writeListMap(out, cls2SplitOrShort, string2id);
+
+			out.writeInt(duplicateLabels.size());
+			for (String label : duplicateLabels) {
+				out.writeInt(getId(label, string2id));
+			}
+
+			log.info("Saved label cache snapshot to " + file.getAbsolutePath() + " (" + strings.size() + " strings) in " +
+					(System.currentTimeMillis() - t0) + " ms");
+		} catch (IOException e) {
+			log.error("Could not save label cache snapshot to " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * @return the snapshot saved in the file, or null if the file does not exist,
+	 * cannot be read, or was saved with a different key
+	 */
+	public static LabelCacheSnapshot load(File file, String key, OWLDataFactory df) {
+		if (file.exists() == false) {
+			return null;
+		}
+
+		long t0 = System.currentTimeMillis();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FILE_FORMAT_VERSION ||
+					key.equals(readString(buffer)) == false) {
+				log.info("Label cache snapshot in " + file.getAbsolutePath() + " is for another version of the inputs. Will not use it.");
+				return null;
+			}
+
+			String[] strings = new String[readLength(buffer, 4)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(buffer);
+			}
+
+			//the classes are created once and shared by all maps
+			OWLClass[] clses = new OWLClass[strings.length];
+
+			Map<OWLClass,String> cls2Label = readLabelMap(buffer, strings, clses, df);
+			Map<OWLClass,String> cls2ShortLabel = readLabelMap(buffer, strings, clses, df);
+			Map<OWLClass, List<String>> cls2SplitOrPref = readListMap(buffer, strings, clses, df);
+			Map<OWLClass, List<String>> cls2SplitOrShort = readListMap(buffer, strings, clses, df);
+
+			int duplicateCount = readLength(buffer, 4);
+			Set<String> duplicateLabels = new HashSet<String>(duplicateCount * 2);
+			for (int i = 0; i < duplicateCount; i++) {
+				duplicateLabels.add(getString(buffer.getInt(), strings));
+			}
+
+			log.info("Loaded label cache snapshot from " + file.getAbsolutePath() + " (" + cls2Label.size() + " classes) in " +
+					(System.currentTimeMillis() - t0) + " ms");
+
+			return new LabelCacheSnapshot(cls2Label, cls2ShortLabel, cls2SplitOrPref, cls2SplitOrShort, duplicateLabels);
+		} catch (IOException | RuntimeException e) {
+			//a truncated or corrupt file fails with an underflow, a bad id or a bad length, and the labels are recomputed
+			log.warn("Could not read label cache snapshot from " + file.getAbsolutePath() + ". Will recompute it.", e);
+			return null;
+		}
+	}
+
+
+	private void collectStrings(Map<String, Integer> string2id, List<String> strings) {
+		collectLabelMapStrings(cls2Label, string2id, strings);
+		collectLabelMapStrings(cls2ShortLabel, string2id, strings);
+		collectListMapStrings(cls2SplitOrPref, string2id, strings);
+		collectListMapStrings(cls2SplitOrShort, string2id, strings);
+		for (String label : duplicateLabels) {
+			addString(label, string2id, strings);
+		}
+	}
+
+	private static void collectLabelMapStrings(Map<OWLClass, String> map,
+			Map<String, Integer> string2id, List<String> strings) {
+		for (Map.Entry<OWLClass, String> entry : map.entrySet()) {
+			addString(entry.getKey().getIRI().toString(), string2id, strings);
+			addString(entry.getValue(), string2id, strings);
+		}
+	}
+
+	private static void collectListMapStrings(Map<OWLClass, List<String>> map,
+			Map<String, Integer> string2id, List<String> strings) {
+		for (Map.Entry<OWLClass, List<String>> entry : map.entrySet()) {
+			addString(entry.getKey().getIRI().toString(), string2id, strings);
+			if (entry.getValue() != null) {
+				for (String str : entry.getValue()) {
+					addString(str, string2id, strings);
+				}
+			}
+		}
+	}
+
+	private static void addString(String str, Map<String, Integer> string2id, List<String> strings) {
+		if (str != null && string2id.containsKey(str) == false) {
+			string2id.put(str, strings.size());
+			strings.add(str);
+		}
+	}
+
+	private static int getId(String str, Map<String, Integer> string2id) {
+		return str == null ? NULL : string2id.get(str);
+	}
+
+	private static void writeLabelMap(DataOutputStream out, Map<OWLClass, String> map,
+			Map<String, Integer> string2id) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<OWLClass, String> entry : map.entrySet()) {
+			out.writeInt(getId(entry.getKey().getIRI().toString(), string2id));
+			out.writeInt(getId(entry.getValue(), string2id));
+		}
+	}
+
+	private static void writeListMap(DataOutputStream out, Map<OWLClass, List<String>> map,
+			Map<String, Integer> string2id) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<OWLClass, List<String>> entry : map.entrySet()) {
+			out.writeInt(getId(entry.getKey().getIRI().toString(), string2id));
+			List<String> list = entry.getValue();
+			if (list == null) {
+				out.writeInt(NULL);
+				continue;
+			}
+			out.writeInt(list.size());
+			for (String str : list) {
+				out.writeInt(getId(str, string2id));
+			}
+		}
+	}
+
+	private static Map<OWLClass, String> readLabelMap(MappedByteBuffer buffer, String[] strings,
+			OWLClass[] clses, OWLDataFactory df) throws IOException {
+		int size = readLength(buffer, 8);
+		Map<OWLClass, String> map = new HashMap<OWLClass, String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			OWLClass cls = getCls(buffer.getInt(), strings, clses, df);
+			map.put(cls, getString(buffer.getInt(), strings));
+		}
+		return map;
+	}
+
+	private static Map<OWLClass, List<String>> readListMap(MappedByteBuffer buffer, String[] strings,
+			OWLClass[] clses, OWLDataFactory df) throws IOException {
+		int size = readLength(buffer, 8);
+		Map<OWLClass, List<String>> map = new HashMap<OWLClass, List<String>>(size * 2);
+		for (int i = 0; i < size; i++) {
+			OWLClass cls = getCls(buffer.getInt(), strings, clses, df);
+			int listSize = buffer.getInt();
+			if (listSize == NULL) {
+				map.put(cls, null);
+				continue;
+			}
+			checkLength(buffer, listSize, 4);
+			List<String> list = new ArrayList<String>(listSize);
+			for (int j = 0; j < listSize; j++) {
+				list.add(getString(buffer.getInt(), strings));
+			}
+			map.put(cls, list);
+		}
+		return map;
+	}
+
+	private static OWLClass getCls(int id, String[] strings, OWLClass[] clses, OWLDataFactory df) {
+		OWLClass cls = clses[id];
+		if (cls == null) {
+			cls = df.getOWLClass(strings[id]);
+			clses[id] = cls;
+		}
+		return cls;
+	}
+
+	private static String getString(int id, String[] strings) {
+		return id == NULL ? null : strings[id];
+	}
+
+	/**
+	 * Reads the length of an array, list or map, so that a corrupt length does not allocate a huge one.
+	 * @param minItemBytes - the least number of bytes taken by each item in the file
+	 */
+	private static int readLength(MappedByteBuffer buffer, int minItemBytes) throws IOException {
+		return checkLength(buffer, buffer.getInt(), minItemBytes);
+	}
+
+	private static int checkLength(MappedByteBuffer buffer, int length, int minItemBytes) throws IOException {
+		if (length < 0 || (long) length * minItemBytes > buffer.remaining()) {
+			throw new IOException("Corrupt label cache snapshot: length " + length + " at " + (buffer.position() - 4) +
+					", with " + buffer.remaining() + " bytes left");
+		}
+		return length;
+	}
+
+	//writeUTF is limited to 64K bytes, so the strings are written as length and UTF-8 bytes
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(MappedByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[readLength(buffer, 1)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,59 @@
+package org.logical.defs.extcauses;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ToIntBiFunction;
+
+import org.fma.icd.map.LongIntHashMap;
+
+/**
+ * Remembers the match score of pairs of preprocessed labels, so that the same pair is scored only once.
+ * <p>
+ * The labels are interned to int ids, and the score is stored in a primitive map keyed by the two ids
+ * packed in a long, so that no pair objects are created. It is not thread-safe.
+ */
+public class LabelPairScoreMemo {
+
+	private Map<String, Integer> label2id = new HashMap<String, Integer>();
+	private LongIntHashMap pair2score = new LongIntHashMap(1 << 16);
+
+	private long lookups = 0;
+	private long computed = 0;
+
+
+	/**
+	 * @return the score of the pair, computed with scorer only the first time the pair is seen
+	 */
+	public int getScore(String label1, String label2, ToIntBiFunction<String, String> scorer) {
+		lookups++;
+
+		long key = ((long) getId(label1) << 32) | getId(label2);
+		int score = pair2score.get(key, Integer.MIN_VALUE);
+		if (score == Integer.MIN_VALUE) {
+			score = scorer.applyAsInt(label1, label2);
+			pair2score.put(key, score);
+			computed++;
+		}
+		return score;
+	}
+
+	private int getId(String label) {
+		Integer id = label2id.get(label);
+		if (id == null) {
+			id = label2id.size();
+			label2id.put(label, id);
+		}
+		return id;
+	}
+
+	public long getSavedCount() {
+		return lookups - computed;
+	}
+
+	@Override
+	public String toString() {
+		return "labels: " + label2id.size() + ", pairs: " + pair2score.size() + ", lookups: " + lookups +
+				", scored: " + computed + ", saved: " + getSavedCount();
+	}
+
+}
@@ -0,0 +1,152 @@
+package org.logical.defs.extcauses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import edu.stanford.nlp.simple.Document;
+import edu.stanford.nlp.simple.Sentence;
+
+/**
+ * The word to lemma, and lemma to POS tag tables used by the {@link LabelCache}.
+ * <p>
+ * The tables are filled by running CoreNLP on batches of labels, so that only the annotations of one batch
+ * are in memory at a time. They can be saved to a small gzipped binary file, keyed by a checksum of the
+ * inputs (e.g. of the source ontology), and loaded in a later run, without running CoreNLP at all.
+ */
+public class LemmaTable {
+
+	private static transient Logger log = Logger.getLogger(LemmaTable.class);
+
+	private static final int FILE_FORMAT_VERSION = 1;
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	private Map<String,String> word2lemma = new HashMap<String,String>(10000, 0.6f);
+	private Map<String,String> lemma2pos = new HashMap<String,String>(10000, 0.6f); //this is not perfect, but should work
+
+
+	public Map<String, String> getWord2Lemma() {
+		return word2lemma;
+	}
+
+	public Map<String, String> getLemma2Pos() {
+		return lemma2pos;
+	}
+
+	/**
+	 * Lemmatizes the labels in batches of batchSize labels.
+	 */
+	public void fill(List<String> labels, int batchSize) {
+		long t0 = System.currentTimeMillis();
+
+		List<String> batch = new ArrayList<String>(batchSize);
+		for (String label : labels) {
+			if (label == null) {
+				continue;
+			}
+			batch.add(label);
+			if (batch.size() >= batchSize) {
+				fillBatch(batch);
+				batch.clear();
+			}
+		}
+		fillBatch(batch);
+
+		log.info("Lemmatized " + labels.size() + " labels (" + word2lemma.size() + " words) in " +
+				(System.currentTimeMillis() - t0) / 1000 + " seconds");
+	}
+
+	private void fillBatch(List<String> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		Document doc = new Document(String.join("\n", batch));
+		for (Sentence sentence : doc.sentences()) {
+			for (int i=0; i < sentence.words().size(); i++) {
+				String word = sentence.word(i);
+
+				if (word != null && word.length() > 0) {
+					String lemma = sentence.lemma(i);
+					if (lemma == null) { //same as no lemma for the LabelCache
+						continue;
+					}
+					word2lemma.put(word, lemma);
+					lemma2pos.put(lemma, sentence.posTag(i));
+				}
+			}
+		}
+	}
+
+
+	public void save(File file, String key) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file))))) {
+			out.writeInt(FILE_FORMAT_VERSION);
+			out.writeUTF(key);
+			writeMap(out, word2lemma);
+			writeMap(out, lemma2pos);
+			log.info("Saved lemma table to " + file.getAbsolutePath());
+		} catch (IOException e) {
+			log.error("Could not save lemma table to " + file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * @return the lemma table saved in the file, or null if the file does not exist,
+	 * cannot be read, or was saved with a different key
+	 */
+	public static LemmaTable load(File file, String key) {
+		if (file.exists() == false) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != FILE_FORMAT_VERSION || key.equals(in.readUTF()) == false) {
+				log.info("Lemma table in " + file.getAbsolutePath() + " is for another version of the inputs. Will not use it.");
+				return null;
+			}
+			LemmaTable table = new LemmaTable();
+			readMap(in, table.word2lemma);
+			readMap(in, table.lemma2pos);
+			log.info("Loaded lemma table from " + file.getAbsolutePath() + " (" + table.word2lemma.size() + " words)");
+			return table;
+		} catch (IOException e) {
+			log.warn("Could not read lemma table from " + file.getAbsolutePath() + ". Will recompute it.", e);
+			return null;
+		}
+	}
+
+	private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeUTF(entry.getValue() == null ? "" : entry.getValue());
+		}
+	}
+
+	private static void readMap(DataInputStream in, Map<String, String> map) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			String key = in.readUTF();
+			String value = in.readUTF();
+			map.put(key, value.length() == 0 ? null : value);
+		}
+	}
+
+}
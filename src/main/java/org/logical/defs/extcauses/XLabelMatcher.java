@@ -0,0 +1,150 @@
+package org.logical.defs.extcauses;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.fma.icd.map.WordBoundaryMatcher;
+import org.semanticweb.owlapi.model.OWLClass;
+
+/**
+ * Finds the X chapter classes that could match an ext cause label, in a single scan of the label.
+ * <p>
+ * All the preprocessed labels of the X classes from the {@link LabelCache} (pref, short, and their splits by "or")
+ * are put in a {@link WordBoundaryMatcher}. A X class can match a label in
+ * {@link ExtCausesFindLogDefFillers} only if one of its labels is contained at word boundaries in it,
+ * so the other X classes can be skipped without comparing the labels one by one.
+ */
+public class XLabelMatcher {
+
+	private static transient Logger log = Logger.getLogger(XLabelMatcher.class);
+
+	private LabelCache labelCache;
+
+	private WordBoundaryMatcher matcher = new WordBoundaryMatcher();
+	private List<List<OWLClass>> label2xClses = new ArrayList<List<OWLClass>>();
+	private Set<OWLClass> indexedXClses = new HashSet<OWLClass>();
+
+	//guarded by this; the values are immutable, so they can be read without the lock
+	private Map<OWLClass, XClses> xParent2xClses = new HashMap<OWLClass, XClses>();
+
+
+	/**
+	 * The X classes under an X parent: the position of each one in the collection that is matched,
+	 * so that the candidates keep their order, and the ones that were not indexed.
+	 */
+	private static class XClses {
+		private final Map<OWLClass, Integer> positions;
+		private final List<OWLClass> notIndexed;
+
+		XClses(Map<OWLClass, Integer> positions, List<OWLClass> notIndexed) {
+			this.positions = Collections.unmodifiableMap(positions);
+			this.notIndexed = Collections.unmodifiableList(notIndexed);
+		}
+	}
+
+
+	public XLabelMatcher(LabelCache labelCache) {
+		this.labelCache = labelCache;
+	}
+
+	public void init(Collection<OWLClass> xClses) {
+		for (OWLClass xCls : xClses) {
+			if (indexedXClses.add(xCls) == false) {
+				continue;
+			}
+			addLabel(xCls, labelCache.getLabel(xCls));
+			addLabel(xCls, labelCache.getShortLabel(xCls));
+			addLabels(xCls, labelCache.getOrSplitPrefLabel(xCls));
+			addLabels(xCls, labelCache.getOrSplitShortLabel(xCls));
+		}
+		matcher.build();
+
+		log.info("Indexed " + matcher.size() + " labels of " + indexedXClses.size() + " X classes");
+	}
+
+	private void addLabels(OWLClass xCls, List<String> labels) {
+		if (labels == null) {
+			return;
+		}
+		for (String label : labels) {
+			addLabel(xCls, label);
+		}
+	}
+
+	private void addLabel(OWLClass xCls, String label) {
+		if (label == null) {
+			return;
+		}
+		int id = matcher.add(label);
+		if (id == label2xClses.size()) {
+			label2xClses.add(new ArrayList<OWLClass>(1));
+		}
+		List<OWLClass> xClsesWithLabel = label2xClses.get(id);
+		if (xClsesWithLabel.contains(xCls) == false) {
+			xClsesWithLabel.add(xCls);
+		}
+	}
+
+
+	/**
+	 * Returns the X classes from xClses (which are all the X classes under xParent) that have a label
+	 * contained in one of the given labels, in the iteration order of xClses.
+	 * The X classes that were not indexed are always returned. The X classes of an X parent are
+	 * taken from the first call with it.
+	 */
+	public List<OWLClass> getCandidates(OWLClass xParent, Collection<OWLClass> xClses, String... labels) {
+		XClses xParentClses = getXClses(xParent, xClses);
+		Map<OWLClass, Integer> positions = xParentClses.positions;
+
+		Set<OWLClass> candidates = new HashSet<OWLClass>(xParentClses.notIndexed);
+		for (String label : labels) {
+			BitSet found = matcher.findAll(label);
+			for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+				for (OWLClass xCls : label2xClses.get(id)) {
+					if (positions.containsKey(xCls)) {
+						candidates.add(xCls);
+					}
+				}
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<OWLClass> sortedCandidates = new ArrayList<OWLClass>(candidates);
+		sortedCandidates.sort((c1, c2) -> Integer.compare(positions.get(c1), positions.get(c2)));
+		return sortedCandidates;
+	}
+
+	private synchronized XClses getXClses(OWLClass xParent, Collection<OWLClass> xClses) {
+		XClses xParentClses = xParent2xClses.get(xParent);
+		if (xParentClses != null) {
+			return xParentClses;
+		}
+
+		Map<OWLClass, Integer> positions = new HashMap<OWLClass, Integer>();
+		List<OWLClass> notIndexed = new ArrayList<OWLClass>();
+		for (OWLClass xCls : xClses) {
+			if (positions.containsKey(xCls) == true) {
+				continue;
+			}
+			positions.put(xCls, positions.size());
+			if (indexedXClses.contains(xCls) == false) {
+				notIndexed.add(xCls);
+			}
+		}
+		xParentClses = new XClses(positions, notIndexed);
+		xParent2xClses.put(xParent, xParentClses);
+		return xParentClses;
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.ontologies.extract;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAnnotationSubject;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Selects the annotation assertions that are copied to the target ontology, as configured by
+ * export.annotation.properties (comma separated IRIs; all properties if empty) and
+ * export.annotations.on.annotations (true by default). The properties are resolved once, so the filter
+ * costs a set lookup per assertion.
+ */
+public class AnnotationFilter {
+
+	private static transient Logger log = Logger.getLogger(AnnotationFilter.class);
+
+	private Set<OWLAnnotationProperty> exportedProperties; //null, if all properties are exported
+	private boolean exportAnnotationsOnAnnotations;
+
+
+	public AnnotationFilter(Collection<OWLAnnotationProperty> exportedProperties, boolean exportAnnotationsOnAnnotations) {
+		this.exportedProperties = exportedProperties == null || exportedProperties.isEmpty() ?
+				null : new HashSet<OWLAnnotationProperty>(exportedProperties);
+		this.exportAnnotationsOnAnnotations = exportAnnotationsOnAnnotations;
+	}
+
+	/**
+	 * @return the filter configured in the export properties
+	 */
+	public static AnnotationFilter fromExportProperties(OWLDataFactory df) {
+		Set<OWLAnnotationProperty> props = new HashSet<OWLAnnotationProperty>();
+		for (String propName : ExportProperties.getExportProperties()) {
+			if (propName.trim().isEmpty() == false) {
+				props.add(df.getOWLAnnotationProperty(IRI.create(propName.trim())));
+			}
+		}
+		boolean exportAnnotationsOnAnnotations = ExportProperties.getExportAnnotationsOnAnnotations(true);
+
+		if (props.isEmpty() == false || exportAnnotationsOnAnnotations == false) {
+			log.info("Exporting the annotation properties: " + (props.isEmpty() ? "all" : props) +
+					", annotations on annotations: " + exportAnnotationsOnAnnotations);
+		}
+		return new AnnotationFilter(props, exportAnnotationsOnAnnotations);
+	}
+
+	/**
+	 * @return the exported annotation assertions of the subject, without their annotations, if these are not exported
+	 */
+	public Stream<OWLAnnotationAssertionAxiom> annotationAssertionAxioms(OWLOntology ontology, OWLAnnotationSubject subject) {
+		Stream<OWLAnnotationAssertionAxiom> axioms = ontology.annotationAssertionAxioms(subject);
+		if (exportedProperties != null) {
+			axioms = axioms.filter(ax -> exportedProperties.contains(ax.getProperty()));
+		}
+		if (exportAnnotationsOnAnnotations == false) {
+			axioms = axioms.map(ax -> ax.isAnnotated() == true ? ax.getAxiomWithoutAnnotations() : ax);
+		}
+		return axioms;
+	}
+
+	public boolean isExported(OWLAnnotationProperty prop) {
+		return exportedProperties == null || exportedProperties.contains(prop);
+	}
+
+	public boolean isExportAnnotationsOnAnnotations() {
+		return exportAnnotationsOnAnnotations;
+	}
+
+}
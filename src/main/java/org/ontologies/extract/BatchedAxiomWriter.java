@@ -0,0 +1,142 @@
+package org.ontologies.extract;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+
+/**
+ * Adds axioms to an ontology in batches of at most batchSize axioms, with one addAxioms call per batch,
+ * instead of one change per axiom. It counts the written axioms and the time spent in the ontology,
+ * to report the axioms per second. It is not thread-safe.
+ * <p>
+ * The axioms can also be streamed to an {@link NTriplesAxiomWriter}, instead of being added to an ontology.
+ * If a {@link CheckpointJournal} is set, the written axioms are also appended to it.
+ */
+public class BatchedAxiomWriter {
+
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	private OWLOntology targetOntology;
+	private NTriplesAxiomWriter streamWriter;
+	private CheckpointJournal journal;
+	private int batchSize;
+
+	private List<OWLAxiom> buffer;
+
+	private long axiomCount = 0;
+	private long batchCount = 0;
+	private long writeNanos = 0;
+	private long startNanos = -1;
+
+
+	public BatchedAxiomWriter(OWLOntology targetOntology, int batchSize) {
+		this.targetOntology = targetOntology;
+		this.batchSize = Math.max(1, batchSize);
+		this.buffer = new ArrayList<OWLAxiom>(Math.min(this.batchSize, DEFAULT_BATCH_SIZE));
+	}
+
+	public BatchedAxiomWriter(NTriplesAxiomWriter streamWriter, int batchSize) {
+		this((OWLOntology) null, batchSize);
+		this.streamWriter = streamWriter;
+	}
+
+	public void add(OWLAxiom axiom) {
+		if (startNanos == -1) {
+			startNanos = System.nanoTime();
+		}
+		buffer.add(axiom);
+		if (buffer.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	public void addAll(Collection<? extends OWLAxiom> axioms) {
+		if (buffer.isEmpty() == true && axioms.size() >= batchSize) { //already a batch, no need to copy it
+			if (startNanos == -1) {
+				startNanos = System.nanoTime();
+			}
+			write(axioms);
+			return;
+		}
+		for (OWLAxiom axiom : axioms) {
+			add(axiom);
+		}
+	}
+
+	/**
+	 * Adds the buffered axioms to the ontology, or writes them to the stream.
+	 * It should be called before the ontology is saved or read.
+	 */
+	public void flush() {
+		if (buffer.isEmpty() == false) {
+			write(buffer);
+			buffer.clear();
+		}
+	}
+
+	private void write(Collection<? extends OWLAxiom> axioms) {
+		long t0 = System.nanoTime();
+		try {
+			if (streamWriter == null) {
+				targetOntology.addAxioms(axioms);
+			} else {
+				streamWriter.write(axioms);
+			}
+			if (journal != null) {
+				journal.write(axioms);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		writeNanos += System.nanoTime() - t0;
+		axiomCount += axioms.size();
+		batchCount++;
+	}
+
+	public void setJournal(CheckpointJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the number of axioms added to the ontology or to the stream, without the buffered ones
+	 */
+	public long getAxiomCount() {
+		return axiomCount;
+	}
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the written axioms per second, from the first added axiom until now
+	 */
+	public double getAxiomsPerSecond() {
+		long nanos = startNanos == -1 ? 0 : System.nanoTime() - startNanos;
+		return nanos == 0 ? 0 : axiomCount * 1e9 / nanos;
+	}
+
+	/**
+	 * @return the written axioms per second of time spent in addAxioms, or in writing to the stream
+	 */
+	public double getWriteAxiomsPerSecond() {
+		return writeNanos == 0 ? 0 : axiomCount * 1e9 / writeNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "axioms: " + axiomCount + ", batches: " + batchCount + " (batch size " + batchSize + "), " +
+				(long) getAxiomsPerSecond() + " axioms/s, " + (long) getWriteAxiomsPerSecond() + " axioms/s in addAxioms, " +
+				"addAxioms time: " + writeNanos / 1000000 + " ms";
+	}
+
+}
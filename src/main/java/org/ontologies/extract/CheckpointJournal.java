@@ -0,0 +1,166 @@
+package org.ontologies.extract;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.NTriplesDocumentFormat;
+import org.semanticweb.owlapi.io.FileDocumentSource;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDeclarationAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * An append-only journal of the axioms added to the target ontology, used instead of saving the whole
+ * ontology every save.count classes.
+ * <p>
+ * The axioms are appended as N-Triples, and a checkpoint comment line is written when all the axioms of
+ * the imported classes are in the journal. After an interruption, {@link #resume(OWLOntologyManager, OWLOntology)}
+ * drops the lines after the last checkpoint, adds the journaled axioms to the target ontology, and returns
+ * the classes that were already imported, i.e., the declared ones.
+ */
+public class CheckpointJournal implements Closeable {
+
+	private static transient Logger log = Logger.getLogger(CheckpointJournal.class);
+
+	private static final String CHECKPOINT_COMMENT = "checkpoint ";
+	private static final byte[] CHECKPOINT_LINE_PREFIX = ("# " + CHECKPOINT_COMMENT).getBytes(StandardCharsets.US_ASCII);
+
+	private File file;
+	private NTriplesAxiomWriter writer;
+	private long checkpointCount = 0;
+
+
+	public CheckpointJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds the axioms journaled until the last checkpoint to the target ontology, and truncates the rest.
+	 * @return the classes whose axioms were all added, or an empty set, if there is no journal
+	 */
+	public Set<OWLClass> resume(OWLOntologyManager manager, OWLOntology targetOntology)
+			throws IOException, OWLOntologyCreationException {
+		Set<OWLClass> classes = new HashSet<OWLClass>();
+		if (file.exists() == false) {
+			log.info("No checkpoint journal at " + file.getAbsolutePath() + ". Starting from the beginning.");
+			return classes;
+		}
+
+		long length = getLastCheckpointEnd();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() > length) {
+				log.info("Dropping " + (raf.length() - length) + " bytes after the last checkpoint of " + file.getAbsolutePath());
+				raf.setLength(length);
+			}
+		}
+		if (length == 0) {
+			return classes;
+		}
+
+		OWLOntologyManager journalManager = OWLManager.createOWLOntologyManager();
+		OWLOntology journalOntology = journalManager.loadOntologyFromOntologyDocument(
+				new FileDocumentSource(file, new NTriplesDocumentFormat()));
+
+		//the annotation properties are only declared in the journal, so that it is parsed back correctly
+		manager.addAxioms(targetOntology, journalOntology.axioms().filter(ax -> ax.isOfType(AxiomType.DECLARATION) == false ||
+				((OWLDeclarationAxiom) ax).getEntity().isOWLAnnotationProperty() == false));
+		journalOntology.axioms(AxiomType.DECLARATION).
+			filter(ax -> ax.getEntity().isOWLClass() == true).
+			forEach(ax -> classes.add(ax.getEntity().asOWLClass()));
+
+		log.info("Resumed from " + checkpointCount + " checkpoints: " + journalOntology.getAxiomCount() +
+				" axioms, " + classes.size() + " classes");
+		return classes;
+	}
+
+	/**
+	 * Opens the journal for appending. The journal is emptied, unless it was resumed.
+	 */
+	public void open(boolean append) throws IOException {
+		//the blank nodes are scoped to the file, so each session uses its own ids
+		writer = new NTriplesAxiomWriter(file, null, append, "j" + System.currentTimeMillis() + "x");
+	}
+
+	public void write(Collection<? extends OWLAxiom> axioms) throws IOException {
+		writer.write(axioms);
+	}
+
+	/**
+	 * Marks that all the axioms of the imported classes are in the journal, and flushes it.
+	 */
+	public void checkpoint() throws IOException {
+		checkpointCount++;
+		writer.writeComment(CHECKPOINT_COMMENT + checkpointCount);
+		writer.flush();
+	}
+
+	public long getCheckpointCount() {
+		return checkpointCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+	}
+
+	/**
+	 * Deletes the journal, after the target ontology was saved.
+	 */
+	public void delete() throws IOException {
+		close();
+		if (file.exists() == true && file.delete() == false) {
+			log.warn("Could not delete the checkpoint journal " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @return the byte offset after the last checkpoint line, found in one pass over the lines
+	 */
+	private long getLastCheckpointEnd() throws IOException {
+		long lastEnd = 0;
+		long offset = 0;
+		int linePos = 0; //position in the current line
+		boolean isCheckpointLine = true;
+		checkpointCount = 0;
+
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+			int b;
+			while ((b = in.read()) != -1) {
+				offset++;
+				if (b == '\n') {
+					if (isCheckpointLine == true && linePos >= CHECKPOINT_LINE_PREFIX.length) {
+						lastEnd = offset;
+						checkpointCount++;
+					}
+					linePos = 0;
+					isCheckpointLine = true;
+					continue;
+				}
+				if (isCheckpointLine == true && linePos < CHECKPOINT_LINE_PREFIX.length && b != CHECKPOINT_LINE_PREFIX[linePos]) {
+					isCheckpointLine = false;
+				}
+				linePos++;
+			}
+		}
+		return lastEnd;
+	}
+
+}
@@ -19,17 +19,35 @@ public class ExportProperties {
 	public static final String SOURCE_ONTOLOGY_FILE = "source.ontology.file";
 	public static final String TARGET_ONTOLOGY_FILE = "target.ontology.file";
 	public static final String TARGET_ONTOLOGY_NAME = "target.ontology.name";
+	public static final String TARGET_STREAM_FILE = "target.stream.file";
+	public static final String TARGET_STREAM_CONVERT = "target.stream.convert";
 	public static final String TOP_CLASSES ="export.top.classes";
 	public static final String EXPORT_CSV_FILE = "export.csv.file";
 	
 	public static final String APPEND_PROPERTY = "append.existing.ontology";
+	public static final String DELTA_PROPERTY = "export.delta";
 	public static final String EXPORT_ANNOTATIONS_ON_ANNOTATIONS = "export.annotations.on.annotations";
 	
 	
 	public static final String ANNOTATION_PROPERTIES_TO_EXPORT = "export.annotation.properties";
 
+	public static final String LEMMA_CACHE_FILE = "lemma.cache.file";
+	public static final String LEMMA_BATCH_SIZE_PROPERTY = "lemma.batch.size";
+	public static final String LABEL_CACHE_FILE = "label.cache.file";
+
+	public static final String CHECKPOINT_JOURNAL_FILE = "checkpoint.journal.file";
+	public static final String CHECKPOINT_RESUME_PROPERTY = "checkpoint.resume";
+
+	public static final String ONTOLOGY_SNAPSHOT_PROPERTY = "ontology.snapshot";
+
 	public static final String LOG_COUNT_PROPERTY = "log.count";
 	public static final String SAVE_COUNT_PROPERTY = "save.count";
+	public static final String THREAD_COUNT_PROPERTY = "thread.count";
+	public static final String AXIOM_BATCH_SIZE_PROPERTY = "axiom.batch.size";
+
+	public static final String NEO4J_BATCH_SIZE_PROPERTY = "neo4j.batch.size";
+	public static final String NEO4J_IMPORT_DIR = "neo4j.import.dir";
+	public static final String NEO4J_UPSERT_PROPERTY = "neo4j.upsert";
 
 	
 	private static Collection<String> topClasses;
@@ -49,6 +67,35 @@ public class ExportProperties {
 		return p.getProperty(TARGET_ONTOLOGY_FILE);
 	}
 	
+	/**
+	 * @return the N-Triples file, to which the extracted axioms are streamed instead of being
+	 * added to the target ontology, or null
+	 */
+	public static String getTargetStreamFileLocation() {
+		return p.getProperty(TARGET_STREAM_FILE);
+	}
+
+	/**
+	 * @return true, if the streamed N-Triples file should be converted to RDF/XML in the target ontology file at the end
+	 */
+	public static boolean getTargetStreamConvert() {
+		String convertPropertyValue = p.getProperty(TARGET_STREAM_CONVERT);
+		return convertPropertyValue != null && convertPropertyValue.toLowerCase().equals("true");
+	}
+
+	/**
+	 * @return the journal, to which the added axioms are appended every save.count classes, instead of
+	 * saving the target ontology, or null
+	 */
+	public static String getCheckpointJournalFileLocation() {
+		return p.getProperty(CHECKPOINT_JOURNAL_FILE);
+	}
+
+	public static boolean getCheckpointResume() {
+		String resumePropertyValue = p.getProperty(CHECKPOINT_RESUME_PROPERTY);
+		return resumePropertyValue != null && resumePropertyValue.toLowerCase().equals("true");
+	}
+
 	public static String getSourceOntologyFileLocation() {
 		return p.getProperty(SOURCE_ONTOLOGY_FILE);
 	}
@@ -60,12 +107,28 @@ public class ExportProperties {
 	public static String getExportCSVFileLocation() {
 		return p.getProperty(EXPORT_CSV_FILE);
 	}
+	
+	public static String getLemmaCacheFileLocation() {
+		return p.getProperty(LEMMA_CACHE_FILE);
+	}
+
+	public static String getLabelCacheFileLocation() {
+		return p.getProperty(LABEL_CACHE_FILE);
+	}
 
 	public static boolean getAppendOntologyFile() {
 		String appendPropertyValue = p.getProperty(APPEND_PROPERTY);
 		return !(appendPropertyValue == null || !appendPropertyValue.toLowerCase().equals("true"));
 	}
 
+	/**
+	 * @return true, if only the differences to the existing target ontology should be applied to it
+	 */
+	public static boolean getDeltaExtraction() {
+		String deltaPropertyValue = p.getProperty(DELTA_PROPERTY);
+		return deltaPropertyValue != null && deltaPropertyValue.toLowerCase().equals("true");
+	}
+
 	public static Collection<String> getExportProperties() {
 		if (exportProps == null) {
 			String allProps = p.getProperty(ANNOTATION_PROPERTIES_TO_EXPORT);
@@ -103,6 +166,14 @@ public class ExportProperties {
 		return exportAnnotations;
 	}
 
+	public static boolean getOntologySnapshot(boolean defaultValue) {
+		String c = p.getProperty(ONTOLOGY_SNAPSHOT_PROPERTY);
+		if (c == null) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(c);
+	}
+
 	public static int getLogCount(int defaultValue) {
 		String c = p.getProperty(LOG_COUNT_PROPERTY);
 		if (c == null) {
@@ -129,4 +200,46 @@ public class ExportProperties {
 		return count;
 	}
 
+	public static int getThreadCount(int defaultValue) {
+		return getIntProperty(THREAD_COUNT_PROPERTY, defaultValue);
+	}
+
+	public static int getAxiomBatchSize(int defaultValue) {
+		return getIntProperty(AXIOM_BATCH_SIZE_PROPERTY, defaultValue);
+	}
+
+	public static int getLemmaBatchSize(int defaultValue) {
+		return getIntProperty(LEMMA_BATCH_SIZE_PROPERTY, defaultValue);
+	}
+
+	public static int getNeo4JBatchSize(int defaultValue) {
+		return getIntProperty(NEO4J_BATCH_SIZE_PROPERTY, defaultValue);
+	}
+
+	public static String getNeo4JImportDirLocation() {
+		return p.getProperty(NEO4J_IMPORT_DIR);
+	}
+
+	public static boolean getNeo4JUpsert() {
+		String upsertPropertyValue = p.getProperty(NEO4J_UPSERT_PROPERTY);
+		return upsertPropertyValue != null && Boolean.parseBoolean(upsertPropertyValue);
+	}
+
+
+	/**
+	 * @return the value of the property, or the default value, if it is not set or not a number
+	 */
+	private static int getIntProperty(String name, int defaultValue) {
+		String c = p.getProperty(name);
+		if (c == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(c.trim());
+		} catch (NumberFormatException e) {
+			log.warn("The value of " + name + " is not a number: " + c + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
 }
@@ -0,0 +1,87 @@
+package org.ontologies.extract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checksums of input files, used as keys for the caches that are saved between runs,
+ * so that a cache is used only with the same version of the input (e.g. the source ontology).
+ */
+public class FileChecksum {
+
+	private static transient Logger log = Logger.getLogger(FileChecksum.class);
+
+	//the same file is checked by several caches in a run; keyed on the path, size and modification time
+	private static Map<String, String> file2checksum = new HashMap<String, String>();
+
+	/**
+	 * @return the SHA-256 of the file content as a hex string, or null if the file cannot be read
+	 */
+	public static synchronized String getChecksum(String fileLocation) {
+		if (fileLocation == null) {
+			return null;
+		}
+		File file = new File(fileLocation);
+		if (file.exists() == false) {
+			return null;
+		}
+
+		String fileKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		String checksum = file2checksum.get(fileKey);
+		if (checksum == null) {
+			checksum = computeChecksum(file);
+			if (checksum != null) {
+				file2checksum.put(fileKey, checksum);
+			}
+		}
+		return checksum;
+	}
+
+	private static String computeChecksum(File file) {
+		long t0 = System.currentTimeMillis();
+		try (InputStream is = new FileInputStream(file)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+			String checksum = toHex(digest.digest());
+			log.info("Checksum of " + file.getAbsolutePath() + ": " + checksum +
+					" in " + (System.currentTimeMillis() - t0) + " ms");
+			return checksum;
+		} catch (IOException | NoSuchAlgorithmException e) {
+			log.error("Could not compute the checksum of " + file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the SHA-256 of the string as a hex string
+	 */
+	public static String getChecksumOfString(String str) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return toHex(digest.digest(str.getBytes("UTF-8")));
+		} catch (IOException | NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); //both are always supported
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
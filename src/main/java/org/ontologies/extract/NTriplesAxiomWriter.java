@@ -0,0 +1,261 @@
+package org.ontologies.extract;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotation;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationObject;
+import org.semanticweb.owlapi.model.OWLAnonymousIndividual;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDeclarationAxiom;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.vocab.OWL2Datatype;
+import org.semanticweb.owlapi.vocab.OWLRDFVocabulary;
+
+/**
+ * Writes the axioms of an extracted branch straight to an N-Triples file, as they are produced,
+ * without keeping them in an ontology in memory.
+ * <p>
+ * It writes the axioms used by the extractors: declarations, subclass axioms between named classes, and
+ * annotation assertions, with their annotations reified as in the OWL to RDF mapping. The other axioms are
+ * skipped and counted. The annotation properties are declared the first time they are used, so that the
+ * annotations are read back as annotations; the reader should remove these declarations, if they were not
+ * among the written axioms.
+ */
+public class NTriplesAxiomWriter implements Closeable {
+
+	private static transient Logger log = Logger.getLogger(NTriplesAxiomWriter.class);
+
+	private static final String RDF_TYPE = iri(OWLRDFVocabulary.RDF_TYPE.getIRI());
+	private static final String RDFS_SUBCLASS_OF = iri(OWLRDFVocabulary.RDFS_SUBCLASS_OF.getIRI());
+	private static final String OWL_ANNOTATION_PROPERTY = iri(OWLRDFVocabulary.OWL_ANNOTATION_PROPERTY.getIRI());
+	private static final String OWL_AXIOM = iri(OWLRDFVocabulary.OWL_AXIOM.getIRI());
+	private static final String OWL_ANNOTATION = iri(OWLRDFVocabulary.OWL_ANNOTATION.getIRI());
+	private static final String OWL_ANNOTATED_SOURCE = iri(OWLRDFVocabulary.OWL_ANNOTATED_SOURCE.getIRI());
+	private static final String OWL_ANNOTATED_PROPERTY = iri(OWLRDFVocabulary.OWL_ANNOTATED_PROPERTY.getIRI());
+	private static final String OWL_ANNOTATED_TARGET = iri(OWLRDFVocabulary.OWL_ANNOTATED_TARGET.getIRI());
+
+	private Writer out;
+
+	private Set<IRI> declaredAnnotationProperties = new HashSet<IRI>();
+	private String blankNodePrefix;
+	private long blankNodeCount = 0;
+	private long tripleCount = 0;
+	private long skippedAxiomCount = 0;
+
+
+	public NTriplesAxiomWriter(File file, IRI ontologyIRI) throws IOException {
+		this(file, ontologyIRI, false, "b");
+	}
+
+	/**
+	 * @param append - if true, the triples are appended to the file
+	 * @param blankNodePrefix - the prefix of the blank node ids, which should be different from the ones
+	 * already in the file, if appending to it
+	 */
+	public NTriplesAxiomWriter(File file, IRI ontologyIRI, boolean append, String blankNodePrefix) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8), 1 << 16);
+		this.blankNodePrefix = blankNodePrefix;
+		if (ontologyIRI != null) {
+			writeTriple(iri(ontologyIRI), RDF_TYPE, iri(OWLRDFVocabulary.OWL_ONTOLOGY.getIRI()));
+		}
+	}
+
+	public void write(Iterable<? extends OWLAxiom> axioms) throws IOException {
+		for (OWLAxiom axiom : axioms) {
+			write(axiom);
+		}
+	}
+
+	public void write(OWLAxiom axiom) throws IOException {
+		if (axiom instanceof OWLDeclarationAxiom) {
+			OWLDeclarationAxiom declaration = (OWLDeclarationAxiom) axiom;
+			String entity = iri(declaration.getEntity().getIRI());
+			String type = iri(declaration.getEntity().getEntityType().getVocabulary().getIRI());
+			writeAxiomTriple(axiom, entity, RDF_TYPE, type);
+		} else if (axiom instanceof OWLSubClassOfAxiom && isNamed((OWLSubClassOfAxiom) axiom) == true) {
+			OWLSubClassOfAxiom subclassAxiom = (OWLSubClassOfAxiom) axiom;
+			writeAxiomTriple(axiom, iri(subclassAxiom.getSubClass().asOWLClass().getIRI()), RDFS_SUBCLASS_OF,
+					iri(subclassAxiom.getSuperClass().asOWLClass().getIRI()));
+		} else if (axiom instanceof OWLAnnotationAssertionAxiom) {
+			OWLAnnotationAssertionAxiom annAxiom = (OWLAnnotationAssertionAxiom) axiom;
+			IRI prop = annAxiom.getProperty().getIRI();
+			declareAnnotationProperty(prop);
+			writeAxiomTriple(axiom, term(annAxiom.getSubject()), iri(prop), term(annAxiom.getValue()));
+		} else {
+			skippedAxiomCount++;
+			if (skippedAxiomCount == 1) {
+				log.warn("Axiom type not supported in the N-Triples output, will skip it and the others like it: " + axiom);
+			}
+		}
+	}
+
+	/**
+	 * Writes a comment line, which is ignored by the N-Triples parsers.
+	 */
+	public void writeComment(String comment) throws IOException {
+		out.write("# ");
+		out.write(comment.replace('\n', ' ').replace('\r', ' '));
+		out.write('\n');
+	}
+
+	public long getTripleCount() {
+		return tripleCount;
+	}
+
+	public long getSkippedAxiomCount() {
+		return skippedAxiomCount;
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+
+	private static boolean isNamed(OWLSubClassOfAxiom axiom) {
+		OWLClassExpression subCls = axiom.getSubClass();
+		OWLClassExpression superCls = axiom.getSuperClass();
+		return subCls.isAnonymous() == false && superCls.isAnonymous() == false;
+	}
+
+	private void writeAxiomTriple(OWLAxiom axiom, String subject, String predicate, String object) throws IOException {
+		writeTriple(subject, predicate, object);
+
+		if (axiom.isAnnotated() == true) {
+			String axiomNode = newBlankNode();
+			writeTriple(axiomNode, RDF_TYPE, OWL_AXIOM);
+			writeReifiedTriple(axiomNode, subject, predicate, object);
+			writeAnnotations(axiomNode, axiom.annotations().collect(Collectors.toList()));
+		}
+	}
+
+	private void writeAnnotations(String subject, List<OWLAnnotation> annotations) throws IOException {
+		for (OWLAnnotation ann : annotations) {
+			IRI prop = ann.getProperty().getIRI();
+			declareAnnotationProperty(prop);
+			String value = term(ann.getValue());
+			writeTriple(subject, iri(prop), value);
+
+			if (ann.annotations().findAny().isPresent()) {
+				String annNode = newBlankNode();
+				writeTriple(annNode, RDF_TYPE, OWL_ANNOTATION);
+				writeReifiedTriple(annNode, subject, iri(prop), value);
+				writeAnnotations(annNode, ann.annotations().collect(Collectors.toList()));
+			}
+		}
+	}
+
+	private void writeReifiedTriple(String node, String subject, String predicate, String object) throws IOException {
+		writeTriple(node, OWL_ANNOTATED_SOURCE, subject);
+		writeTriple(node, OWL_ANNOTATED_PROPERTY, predicate);
+		writeTriple(node, OWL_ANNOTATED_TARGET, object);
+	}
+
+	private void declareAnnotationProperty(IRI prop) throws IOException {
+		if (declaredAnnotationProperties.add(prop) == true) {
+			writeTriple(iri(prop), RDF_TYPE, OWL_ANNOTATION_PROPERTY);
+		}
+	}
+
+	private void writeTriple(String subject, String predicate, String object) throws IOException {
+		out.write(subject);
+		out.write(' ');
+		out.write(predicate);
+		out.write(' ');
+		out.write(object);
+		out.write(" .\n");
+		tripleCount++;
+	}
+
+	private String newBlankNode() {
+		return "_:" + blankNodePrefix + (blankNodeCount++);
+	}
+
+	private String term(OWLAnnotationObject obj) {
+		if (obj instanceof IRI) {
+			return iri((IRI) obj);
+		}
+		if (obj instanceof OWLLiteral) {
+			return literal((OWLLiteral) obj);
+		}
+		return anonymous((OWLAnonymousIndividual) obj);
+	}
+
+	private static String anonymous(OWLAnonymousIndividual ind) {
+		//the ids of the anonymous individuals are unique in the ontology, and never start with b and a number
+		return "_:" + ind.getID().getID().replaceAll("[^A-Za-z0-9_]", "_");
+	}
+
+	private static String literal(OWLLiteral literal) {
+		StringBuilder str = new StringBuilder();
+		str.append('"');
+		escape(literal.getLiteral(), str, false);
+		str.append('"');
+		if (literal.hasLang() == true) {
+			str.append('@').append(literal.getLang());
+		} else if (literal.getDatatype().getIRI().equals(OWL2Datatype.XSD_STRING.getIRI()) == false) {
+			str.append("^^").append(iri(literal.getDatatype().getIRI()));
+		}
+		return str.toString();
+	}
+
+	private static String iri(IRI iri) {
+		StringBuilder str = new StringBuilder();
+		str.append('<');
+		escape(iri.toString(), str, true);
+		str.append('>');
+		return str.toString();
+	}
+
+	/**
+	 * In an IRI, the characters are escaped as UCHAR (a backslash, u and four hex digits), as N-Triples allows
+	 * no other escape there. The literals also use the shorter ECHAR escapes, e.g. for a new line.
+	 */
+	private static void escape(String value, StringBuilder str, boolean isIRI) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isIRI == true) {
+				if (c <= 0x20 || "<>\"{}|^`\\".indexOf(c) != -1) {
+					str.append(String.format("\\u%04X", (int) c));
+				} else {
+					str.append(c);
+				}
+				continue;
+			}
+			switch (c) {
+			case '\\': str.append("\\\\"); break;
+			case '"': str.append("\\\""); break;
+			case '\n': str.append("\\n"); break;
+			case '\r': str.append("\\r"); break;
+			case '\t': str.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					str.append(String.format("\\u%04X", (int) c));
+				} else {
+					str.append(c);
+				}
+			}
+		}
+	}
+
+}
@@ -1,26 +1,45 @@
 package org.ontologies.extract;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.fma.icd.map.HierarchyIndex;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.formats.RDFXMLDocumentFormat;
+import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyChangeException;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.model.OWLOntologyStorageException;
-import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
 import org.semanticweb.owlapi.model.UnknownOWLOntologyException;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
@@ -28,6 +47,29 @@ import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
 
 /**
  * OWL Branch extractor for OWL files using the OWL API.
+ * <p>
+ * The branches are traversed iteratively, so the depth of the hierarchy does not depend on the stack size.
+ * If thread.count is more than 1, the classes are handled by the workers of a fork/join pool, which collect the
+ * axioms of each class in a buffer per thread. Full buffers are handed to one writer thread, which adds them
+ * to the target ontology in batches.
+ * <p>
+ * In both cases, the axioms are added with a {@link BatchedAxiomWriter}, in batches of axiom.batch.size axioms.
+ * <p>
+ * If target.stream.file is set, the axioms are not added to the target ontology, but written to that N-Triples file
+ * as they are extracted, so the memory does not grow with the extracted branch, and there are no intermediate saves.
+ * If target.stream.convert is true, the file is converted to RDF/XML in the target ontology file at the end.
+ * <p>
+ * If checkpoint.journal.file is set, the added axioms are appended to a {@link CheckpointJournal}, with a checkpoint
+ * every save.count classes (100 by default; or every batch in parallel mode), instead of saving the whole target
+ * ontology. Without a journal, the target ontology is saved every save.count classes, only if it is set.
+ * If checkpoint.resume is true, an interrupted extraction continues from the last checkpoint of the journal:
+ * the classes in the journal are traversed again, but their axioms are not collected. A failed write stops the
+ * extraction, so that no checkpoint is written after it.
+ * <p>
+ * If export.delta and append.existing.ontology are true, and the target ontology exists, the axioms of each class
+ * of the branch are compared with the ones of the class in the previous target ontology, and only the added and
+ * removed axioms are applied. The classes that are no longer in the branch are removed. The target ontology is
+ * saved only if it changed.
  * 
  * @author Tania Tudorache
  *
@@ -44,16 +86,45 @@ public class OntologyBranchExtractor {
 	private Set<OWLClass> traversed = new HashSet<OWLClass>();
 	private int importedClassesCount = 0;
 
-	private int logCount; // default 100
-	private int saveCount; // default 100
+	private int logCount = 0; //no progress log, if 0
+	private int saveCount = 0; //no intermediate saves or checkpoints, if 0
+
+	private int threadCount = 1;
+	private HierarchyIndex hierarchyIndex; //used instead of the reasoner by the workers
+
+	private int axiomBatchSize = BatchedAxiomWriter.DEFAULT_BATCH_SIZE;
+	private BatchedAxiomWriter axiomWriter;
+	private AnnotationFilter annotationFilter;
+
+	private File streamFile; //if not null, the axioms are streamed to this file instead of the target ontology
+
+	private File journalFile;
+	private boolean resume = false;
+	private CheckpointJournal journal;
+	private Set<OWLClass> resumedClasses = Collections.emptySet(); //imported before the interruption
+
+	private boolean delta = false;
+	private long deltaAxiomCount = 0;
+
+	private static final List<OWLAxiom> END_OF_BATCHES = new ArrayList<OWLAxiom>();
 
 	public OntologyBranchExtractor(OWLOntologyManager manager, OWLOntology sourceOntology, OWLOntology targetOntology,
 			URI outputFileURI, OWLReasoner reasoner) {
+		this(manager, sourceOntology, targetOntology, outputFileURI, reasoner,
+				AnnotationFilter.fromExportProperties(manager.getOWLDataFactory()));
+	}
+
+	/**
+	 * @param annotationFilter selects the annotation assertions that are copied, instead of the export properties
+	 */
+	public OntologyBranchExtractor(OWLOntologyManager manager, OWLOntology sourceOntology, OWLOntology targetOntology,
+			URI outputFileURI, OWLReasoner reasoner, AnnotationFilter annotationFilter) {
 		this.ontologyManager = manager;
 		this.sourceOntology = sourceOntology;
 		this.targetOntology = targetOntology;
 		this.outputOntologyFileURI = outputFileURI;
 		this.reasoner = reasoner;
+		this.annotationFilter = annotationFilter;
 	}
 
 	public static void main(String[] args) {
@@ -62,10 +133,13 @@ public class OntologyBranchExtractor {
 			// BasicConfigurator.configure();
 
 			// TODO: move all these intializations in methods and constructor
-			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			int threadCount = ExportProperties.getThreadCount(1);
+			//the ontologies of the concurrent manager can be read from several threads
+			OWLOntologyManager manager = threadCount > 1 ? 
+					OWLManager.createConcurrentOWLOntologyManager() : OWLManager.createOWLOntologyManager();
 
 			File sourceOntFile = new File(ExportProperties.getSourceOntologyFileLocation());
-			OWLOntology sourceOnt = manager.loadOntologyFromOntologyDocument(sourceOntFile);
+			OWLOntology sourceOnt = OntologyLoader.loadOntology(manager, sourceOntFile);
 			if (sourceOnt == null) {
 				log.error("Could not load source ontology " + ExportProperties.getSourceOntologyFileLocation());
 				return;
@@ -73,23 +147,47 @@ public class OntologyBranchExtractor {
 
 			File outputOntFile = new File(ExportProperties.getTargetOntologyFileLocation());
 			OWLOntology targetOnt = null;
+			boolean delta = false;
 
 			if (ExportProperties.getAppendOntologyFile() && outputOntFile.exists()) {
 				log.info("Loading existing ontology from " + outputOntFile.getAbsolutePath());
 				targetOnt = manager.loadOntologyFromOntologyDocument(outputOntFile);
+				delta = ExportProperties.getDeltaExtraction();
 			} else {
 				targetOnt = manager.createOntology(IRI.create(ExportProperties.getTargetOntologyName()));
 			}
 
 			OntologyBranchExtractor extractor = new OntologyBranchExtractor(manager, sourceOnt, targetOnt,
 					outputOntFile.toURI(), initReasoner(sourceOnt) );
+			extractor.setThreadCount(threadCount);
+			extractor.setAxiomBatchSize(ExportProperties.getAxiomBatchSize(BatchedAxiomWriter.DEFAULT_BATCH_SIZE));
+			extractor.setLogCount(ExportProperties.getLogCount(100));
+
+			String streamFileLocation = ExportProperties.getTargetStreamFileLocation();
+			File streamFile = streamFileLocation == null ? null : new File(streamFileLocation);
+			extractor.setStreamFile(streamFile);
+			extractor.setDelta(delta);
+
+			String journalFileLocation = ExportProperties.getCheckpointJournalFileLocation();
+			if (journalFileLocation != null) {
+				extractor.setCheckpointJournal(new File(journalFileLocation), ExportProperties.getCheckpointResume());
+			}
+			//a checkpoint appends to the journal, while a save writes the whole target ontology, so it is off by default
+			extractor.setSaveCount(ExportProperties.getSaveCount(journalFileLocation == null ? 0 : 100));
 
 			log.info("Started ontology extraction on " + new Date());
 			extractor.extract(ExportProperties.getTopClasses());
 
 			log.info("Finished ontology extraction on " + new Date());
-			log.info("Saving ontology");
-			manager.saveOntology(targetOnt, IRI.create(outputOntFile));
+			if (delta == true && extractor.getDeltaAxiomCount() == 0) {
+				log.info("The target ontology did not change. Not saving it.");
+			} else if (streamFile == null) {
+				log.info("Saving ontology");
+				manager.saveOntology(targetOnt, IRI.create(outputOntFile));
+				extractor.deleteCheckpointJournal(); //it is in the saved ontology
+			} else if (ExportProperties.getTargetStreamConvert() == true) {
+				convertToRDFXML(streamFile, outputOntFile);
+			}
 			log.info("Done on " + new Date());
 		} catch (Throwable t) {
 			log.log(Level.ERROR, t.getMessage(), t);
@@ -97,6 +195,30 @@ public class OntologyBranchExtractor {
 
 	}
 
+	/**
+	 * Loads the streamed N-Triples file in a new manager, and saves it as RDF/XML. It needs the memory
+	 * of the whole ontology, so it is optional.
+	 */
+	private static void convertToRDFXML(File streamFile, File outputOntFile) throws Exception {
+		log.info("Converting " + streamFile.getAbsolutePath() + " to RDF/XML in " + outputOntFile.getAbsolutePath());
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology ont = loadStreamFile(manager, streamFile);
+		manager.saveOntology(ont, new RDFXMLDocumentFormat(), IRI.create(outputOntFile));
+	}
+
+	/**
+	 * Loads the streamed N-Triples file, with the same axioms as the target ontology of an extraction without the stream.
+	 * The {@link NTriplesAxiomWriter} declares the annotation properties, so that the annotations are parsed as such;
+	 * the extraction does not add these declarations, so they are removed.
+	 */
+	private static OWLOntology loadStreamFile(OWLOntologyManager manager, File streamFile) throws OWLOntologyCreationException {
+		OWLOntology ont = manager.loadOntologyFromOntologyDocument(streamFile);
+		ont.removeAxioms(ont.axioms(AxiomType.DECLARATION).
+				filter(ax -> ax.getEntity().isOWLAnnotationProperty() == true).
+				collect(Collectors.toList()));
+		return ont;
+	}
+
 	private static OWLReasoner initReasoner(OWLOntology ontology) {
 		// reasoner = OpenlletReasonerFactory.getInstance().createReasoner(sourceOntology);
 		// ((OpenlletReasoner)reasoner).getKB().realize();
@@ -106,7 +228,11 @@ public class OntologyBranchExtractor {
 		return reasoner;
 	}
 
-	private void extract(Collection<String> topClassNames) {
+	/**
+	 * Extracts the branches of the top classes (given by IRI) with the settings of this extractor. The target
+	 * ontology is not saved at the end; the checkpoint journal, if any, is kept until it is deleted.
+	 */
+	public void extract(Collection<String> topClassNames) {
 		Set<OWLClass> topClasses = getTopClasses(sourceOntology, topClassNames);
 		if (topClasses.isEmpty() == true) {
 			log.info("Empty top classes. Nothing to export.");
@@ -114,66 +240,527 @@ public class OntologyBranchExtractor {
 		}
 
 		traversed.clear();
-
-		for (OWLClass sourceClass : topClasses) {
+		if (delta == true) {
+			extractDelta(topClasses);
+			cleanUp();
+			return;
+		}
+		if (openCheckpointJournal() == false) {
+			return;
+		}
+		NTriplesAxiomWriter streamWriter = null;
+		if (streamFile == null) {
+			axiomWriter = new BatchedAxiomWriter(targetOntology, axiomBatchSize);
+		} else {
 			try {
-				extractClass(sourceClass);
-			} catch (Throwable t) {
-				log.error("Error at adding class: " + sourceClass, t);
+				streamWriter = openStreamWriter();
+			} catch (IOException e) {
+				log.error("Could not open the output file " + streamFile.getAbsolutePath(), e);
+				return;
 			}
+			axiomWriter = new BatchedAxiomWriter(streamWriter, axiomBatchSize);
 		}
+		axiomWriter.setJournal(journal);
+
+		try {
+			if (threadCount > 1) {
+				extractInParallel(topClasses);
+			} else {
+				for (OWLClass sourceClass : topClasses) {
+					extractBranch(sourceClass);
+				}
+				axiomWriter.flush();
+				checkpoint();
+			}
+		} finally {
+			if (streamWriter != null) {
+				closeStreamWriter(streamWriter);
+			}
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					log.error("Could not close the checkpoint journal " + journalFile.getAbsolutePath(), e);
+				}
+			}
+		}
+
+		log.info("Added axioms: " + axiomWriter);
 
 		cleanUp();
 	}
 
-	private void extractClass(OWLClass sourceClass) {
-		if (traversed.contains(sourceClass) == true) {
+	/**
+	 * Opens the stream file, and writes to it the axioms already in the target ontology, e.g., if it is appended to.
+	 */
+	private NTriplesAxiomWriter openStreamWriter() throws IOException {
+		log.info("Streaming the axioms to " + streamFile.getAbsolutePath());
+		NTriplesAxiomWriter streamWriter = new NTriplesAxiomWriter(streamFile,
+				targetOntology.getOntologyID().getOntologyIRI().orElse(null));
+		targetOntology.axioms().forEach(axiom -> {
+			try {
+				streamWriter.write(axiom);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		return streamWriter;
+	}
+
+	/**
+	 * Opens the checkpoint journal, if one is set, and adds the axioms of the resumed classes to the target ontology.
+	 * @return false, if the journal could not be opened, and the extraction should not start
+	 */
+	private boolean openCheckpointJournal() {
+		resumedClasses = Collections.emptySet();
+		if (journalFile == null) {
+			return true;
+		}
+		if (streamFile != null) {
+			log.warn("The checkpoint journal is not used when streaming to " + streamFile.getAbsolutePath());
+			return true;
+		}
+
+		journal = new CheckpointJournal(journalFile);
+		try {
+			if (resume == true) {
+				resumedClasses = journal.resume(ontologyManager, targetOntology);
+			}
+			journal.open(resume);
+		} catch (Exception e) {
+			log.error("Could not open the checkpoint journal " + journalFile.getAbsolutePath(), e);
+			journal = null;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Should be called after a flush of the axiom writer, when all the axioms of the imported classes were written.
+	 */
+	private void checkpoint() {
+		if (journal == null) {
 			return;
 		}
-		traversed.add(sourceClass);
+		try {
+			journal.checkpoint();
+		} catch (IOException e) {
+			log.error("Could not write checkpoint to " + journalFile.getAbsolutePath(), e);
+		}
+	}
 
+	private void closeStreamWriter(NTriplesAxiomWriter streamWriter) {
 		try {
-			declare(sourceClass);
-			declareAndAttachAnnotations(sourceClass);
-			addChildren(sourceClass);
-		} catch (Throwable t) {
-			log.error("Error at adding class: " + sourceClass, t);
+			streamWriter.close();
+			log.info("Wrote " + streamWriter.getTripleCount() + " triples to " + streamFile.getAbsolutePath() +
+					(streamWriter.getSkippedAxiomCount() > 0 ? ", skipped axioms: " + streamWriter.getSkippedAxiomCount() : ""));
+		} catch (IOException e) {
+			log.error("Could not write the output file " + streamFile.getAbsolutePath(), e);
 		}
+	}
 
-		importedClassesCount++;
+	private void extractBranch(OWLClass topClass) {
+		Deque<OWLClass> toVisit = new ArrayDeque<OWLClass>();
+		toVisit.push(topClass);
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
 
-		if (logCount > 0 && importedClassesCount % logCount == 0) {
-			log.info("Imported " + importedClassesCount + " classes.\t Last imported class: " + sourceClass + " \t on "
-					+ new Date());
+		while (toVisit.isEmpty() == false) {
+			OWLClass sourceClass = toVisit.pop();
+			if (traversed.add(sourceClass) == false) {
+				continue;
+			}
+
+			try {
+				Set<OWLClass> subclses = resumedClasses.contains(sourceClass) == true ?
+						getNamedSubclasses(sourceClass, sourceOntology) : collectAxioms(sourceClass, axioms);
+				for (OWLClass subcls : subclses) {
+					toVisit.push(subcls);
+				}
+			} catch (Throwable t) {
+				log.error("Error at adding class: " + sourceClass, t);
+				axioms.clear(); //only the axioms of a class collected without an error are written
+			}
+			//a write error stops the extraction, so that the lost axioms are not checkpointed over
+			axiomWriter.addAll(axioms);
+			axioms.clear();
+
+			importedClassesCount++;
+
+			if (logCount > 0 && importedClassesCount % logCount == 0) {
+				log.info("Imported " + importedClassesCount + " classes.\t Last imported class: " + sourceClass + " \t on "
+						+ new Date() + "\t " + axiomWriter);
+			}
+
+			if (saveCount > 0 && importedClassesCount % saveCount == 0 && streamFile == null) {
+				axiomWriter.flush();
+				if (journal == null) {
+					saveTargetOntology();
+				} else {
+					checkpoint();
+				}
+			}
 		}
+	}
+
+	/**
+	 * Traverses the branches, and applies to the target ontology only the differences between the axioms
+	 * collected for each class and the ones of the class in the target ontology.
+	 * <p>
+	 * The whole branch of the source is still traversed: the source is a new version without a change log,
+	 * so any of its classes may have changed, and an unchanged subtree can only be told by reading it.
+	 * What is saved are the writes to the target ontology and its save, when nothing changed.
+	 */
+	private void extractDelta(Set<OWLClass> topClasses) {
+		long t0 = System.currentTimeMillis();
+		if (threadCount > 1 || streamFile != null || journalFile != null) {
+			log.info("The delta extraction is sequential, and does not stream or journal the axioms.");
+		}
+
+		Set<OWLClass> previousClasses = new HashSet<OWLClass>();
+		targetOntology.axioms(AxiomType.DECLARATION).
+			filter(ax -> ax.getEntity().isOWLClass() == true).
+			forEach(ax -> previousClasses.add(ax.getEntity().asOWLClass()));
+
+		axiomWriter = new BatchedAxiomWriter(targetOntology, axiomBatchSize);
+		List<OWLAxiom> removedAxioms = new ArrayList<OWLAxiom>();
+		long removedAxiomCount = 0;
+		int addedClassesCount = 0;
+		int changedClassesCount = 0;
 
-		if (saveCount > 0 && importedClassesCount % saveCount == 0) {
-			long t0 = System.currentTimeMillis();
-			log.info("Saving ontology (" + importedClassesCount + " classes imported) ... ");
+		Deque<OWLClass> toVisit = new ArrayDeque<OWLClass>(topClasses);
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+
+		while (toVisit.isEmpty() == false) {
+			OWLClass sourceClass = toVisit.pop();
+			if (traversed.add(sourceClass) == false) {
+				continue;
+			}
 
 			try {
-				ontologyManager.saveOntology(targetOntology, new RDFXMLDocumentFormat(),
-						IRI.create(outputOntologyFileURI));
-			} catch (UnknownOWLOntologyException e) {
-				log.error(e.getMessage(), e);
-			} catch (OWLOntologyStorageException e) {
-				log.error(e.getMessage(), e);
+				for (OWLClass subcls : collectAxioms(sourceClass, axioms)) {
+					toVisit.push(subcls);
+				}
+
+				//the axioms of a class are not shared with other classes, so the changes can be applied right away
+				Set<OWLAxiom> newAxioms = new HashSet<OWLAxiom>(axioms);
+				Set<OWLAxiom> oldAxioms = getTargetAxioms(sourceClass);
+				if (newAxioms.equals(oldAxioms) == false) {
+					if (previousClasses.contains(sourceClass) == true) {
+						changedClassesCount++;
+					} else {
+						addedClassesCount++;
+					}
+					for (OWLAxiom axiom : newAxioms) {
+						if (oldAxioms.contains(axiom) == false) {
+							axiomWriter.add(axiom);
+						}
+					}
+					for (OWLAxiom axiom : oldAxioms) {
+						if (newAxioms.contains(axiom) == false) {
+							removedAxioms.add(axiom);
+						}
+					}
+				}
+			} catch (Throwable t) {
+				log.error("Error at comparing class: " + sourceClass, t);
+			}
+			axioms.clear();
+
+			if (removedAxioms.size() >= axiomBatchSize) {
+				removedAxiomCount += removedAxioms.size();
+				targetOntology.removeAxioms(removedAxioms);
+				removedAxioms.clear();
 			}
-			log.info("\tin " + (System.currentTimeMillis() - t0) / 1000 + " seconds");
 		}
+
+		int removedClassesCount = 0;
+		for (OWLClass previousClass : previousClasses) {
+			if (traversed.contains(previousClass) == false) {
+				removedAxioms.addAll(getTargetAxioms(previousClass));
+				removedClassesCount++;
+			}
+		}
+		removedAxiomCount += removedAxioms.size();
+		targetOntology.removeAxioms(removedAxioms);
+		axiomWriter.flush();
+
+		importedClassesCount = traversed.size();
+		deltaAxiomCount = axiomWriter.getAxiomCount() + removedAxiomCount;
+		log.info("Delta of " + importedClassesCount + " classes: " + addedClassesCount + " added, " +
+				changedClassesCount + " changed, " + removedClassesCount + " removed classes; " +
+				axiomWriter.getAxiomCount() + " added, " + removedAxiomCount + " removed axioms in " +
+				(System.currentTimeMillis() - t0) / 1000 + " seconds");
 	}
 
-	private void addChildren(OWLClass sourceClass) throws OWLOntologyChangeException {
+	/**
+	 * @return the axioms of the class in the target ontology, which correspond to the ones in {@link #collectAxioms(OWLClass, List)}
+	 */
+	private Set<OWLAxiom> getTargetAxioms(OWLClass cls) {
+		Set<OWLAxiom> axioms = new HashSet<OWLAxiom>();
+		targetOntology.declarationAxioms(cls).forEach(axioms::add); //indexed by entity, unlike containsAxiom
+		targetOntology.annotationAssertionAxioms(cls.getIRI()).forEach(axioms::add);
+		targetOntology.subClassAxiomsForSuperClass(cls).
+			filter(ax -> ax.getSubClass().isAnonymous() == false).
+			forEach(axioms::add);
+		return axioms;
+	}
+
+	/**
+	 * Adds the declaration, the exported annotation assertions and the subclass axioms of the children of the class to axioms.
+	 * @return the direct subclasses
+	 */
+	private Set<OWLClass> collectAxioms(OWLClass sourceClass, List<OWLAxiom> axioms) {
+		OWLDataFactory df = ontologyManager.getOWLDataFactory();
+
+		axioms.add(df.getOWLDeclarationAxiom(sourceClass));
+		annotationFilter.annotationAssertionAxioms(sourceOntology, sourceClass.getIRI()).forEach(axioms::add);
+
 		Set<OWLClass> subclses = getNamedSubclasses(sourceClass, sourceOntology);
 		for (OWLClass subcls : subclses) {
-			OWLSubClassOfAxiom subclsAxiom = ontologyManager.getOWLDataFactory().getOWLSubClassOfAxiom(subcls,
-					sourceClass);
-			ontologyManager.addAxiom(targetOntology, subclsAxiom);
-			extractClass(subcls);
+			axioms.add(df.getOWLSubClassOfAxiom(subcls, sourceClass));
+		}
+		return subclses;
+	}
+
+	private void saveTargetOntology() {
+		long t0 = System.currentTimeMillis();
+		log.info("Saving ontology (" + importedClassesCount + " classes imported) ... ");
+
+		try {
+			ontologyManager.saveOntology(targetOntology, new RDFXMLDocumentFormat(),
+					IRI.create(outputOntologyFileURI));
+		} catch (UnknownOWLOntologyException e) {
+			log.error(e.getMessage(), e);
+		} catch (OWLOntologyStorageException e) {
+			log.error(e.getMessage(), e);
+		}
+		log.info("\tin " + (System.currentTimeMillis() - t0) / 1000 + " seconds");
+	}
+
+	/********************* Parallel extraction ***********************/
+
+	/**
+	 * The axioms collected by one worker thread, until they are handed to the writer.
+	 */
+	private static class AxiomBuffer {
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+	}
+
+	/**
+	 * The state shared by the tasks of a parallel extraction.
+	 */
+	private static class ParallelTraversal {
+		Set<OWLClass> traversed = ConcurrentHashMap.newKeySet();
+
+		BlockingQueue<List<OWLAxiom>> batches;
+		Queue<AxiomBuffer> allBuffers = new ConcurrentLinkedQueue<AxiomBuffer>();
+		ThreadLocal<AxiomBuffer> threadBuffer = ThreadLocal.withInitial(() -> {
+			AxiomBuffer buffer = new AxiomBuffer();
+			allBuffers.add(buffer);
+			return buffer;
+		});
+
+		//the tasks that were created, but not finished yet
+		AtomicLong pendingTasks = new AtomicLong();
+		CountDownLatch done = new CountDownLatch(1);
+
+		//set by the writer, if a batch could not be written; the batches after it are not checkpointed
+		volatile Throwable writeError;
+
+		ParallelTraversal(int batchQueueSize) {
+			this.batches = new LinkedBlockingQueue<List<OWLAxiom>>(batchQueueSize);
+		}
+	}
+
+	private void extractInParallel(Set<OWLClass> topClasses) {
+		long t0 = System.currentTimeMillis();
+
+		hierarchyIndex = new HierarchyIndex(reasoner); //the structural reasoner is not thread-safe, the index is
+
+		ParallelTraversal traversal = new ParallelTraversal(2 * threadCount);
+
+		Thread writer = new Thread(() -> writeBatches(traversal), "axiom-writer");
+		writer.start();
+
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+		boolean handedOver = false; //true, if all the axioms were handed to the writer
+		try {
+			traversal.pendingTasks.set(topClasses.size());
+			for (OWLClass topClass : topClasses) {
+				pool.execute(new ExtractClassTask(topClass, traversal));
+			}
+			traversal.done.await();
+
+			//the workers are idle, so the rest of their buffers can be taken from here
+			for (AxiomBuffer buffer : traversal.allBuffers) {
+				if (buffer.axioms.isEmpty() == false) {
+					traversal.batches.put(buffer.axioms);
+				}
+			}
+			handedOver = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for the extraction", e);
+		} finally {
+			if (handedOver == false) {
+				writer.interrupt(); //it stops without a checkpoint, and does not block the workers anymore
+			}
+			stopWorkers(pool);
+			stopWriter(writer, traversal.batches, handedOver);
+			hierarchyIndex = null;
+		}
+
+		importedClassesCount = traversal.traversed.size();
+		if (traversal.writeError != null) {
+			throw new IllegalStateException("Could not write the extracted axioms. The extraction is stopped, " +
+					"and was not checkpointed after the failed batch.", traversal.writeError);
+		}
+		log.info("Imported " + importedClassesCount + " classes (" + axiomWriter.getAxiomCount() + " axioms) with " + 
+				threadCount + " threads in " + (System.currentTimeMillis() - t0) / 1000 + " seconds");
+	}
+
+	/**
+	 * Stops the workers and waits for them, so that they do not use the hierarchy index anymore.
+	 * An interruption of the calling thread is kept, but does not stop the wait.
+	 */
+	private static void stopWorkers(ForkJoinPool pool) {
+		pool.shutdownNow();
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (pool.awaitTermination(1, TimeUnit.MINUTES) == false) {
+				log.info("Waiting for the extraction workers to stop");
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if (interrupted == true) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Ends the writer thread after the last batch, if all the axioms were handed over, and waits for it.
+	 */
+	private static void stopWriter(Thread writer, BlockingQueue<List<OWLAxiom>> batches, boolean handedOver) {
+		boolean interrupted = Thread.interrupted();
+		try {
+			if (handedOver == true) {
+				batches.put(END_OF_BATCHES);
+			} else {
+				writer.interrupt();
+			}
+			writer.join();
+		} catch (InterruptedException e) {
+			interrupted = true;
+			writer.interrupt();
+		}
+		if (interrupted == true) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs in the writer thread, which is the only one that uses the axiomWriter until it ends. After a failed
+	 * batch, it still takes the batches, so that the workers are not blocked, but does not write them anymore.
+	 */
+	private void writeBatches(ParallelTraversal traversal) {
+		try {
+			List<OWLAxiom> batch;
+			while ((batch = traversal.batches.take()) != END_OF_BATCHES) {
+				if (traversal.writeError != null) {
+					continue;
+				}
+				try {
+					axiomWriter.addAll(batch);
+					if (journal != null) { //the batches have all the axioms of their classes
+						axiomWriter.flush();
+						checkpoint();
+					}
+				} catch (Throwable t) {
+					log.error("Error at adding " + batch.size() + " axioms", t);
+					traversal.writeError = t;
+				}
+			}
+			if (traversal.writeError == null) {
+				axiomWriter.flush();
+				checkpoint();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Axiom writer interrupted", e);
+		} catch (Throwable t) {
+			log.error("Error at adding the last axioms", t);
+			traversal.writeError = t;
+		}
+	}
+
+	/**
+	 * Handles one class and forks a task for each child that was not visited yet. The task does not wait
+	 * for its subtasks, so the traversal does not use the stack; the extraction waits until no task is pending.
+	 */
+	private class ExtractClassTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private OWLClass sourceClass;
+		private ParallelTraversal traversal;
+
+		ExtractClassTask(OWLClass sourceClass, ParallelTraversal traversal) {
+			this.sourceClass = sourceClass;
+			this.traversal = traversal;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (traversal.traversed.add(sourceClass) == true) {
+					extract();
+				}
+			} finally {
+				if (traversal.pendingTasks.decrementAndGet() == 0) {
+					traversal.done.countDown();
+				}
+			}
+		}
+
+		private void extract() {
+			AxiomBuffer buffer = traversal.threadBuffer.get();
+			List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+			try {
+				Set<OWLClass> subclses = resumedClasses.contains(sourceClass) == true ?
+						getNamedSubclasses(sourceClass, sourceOntology) : collectAxioms(sourceClass, axioms);
+				//only the axioms of a class collected without an error are written, as in the sequential extraction
+				buffer.axioms.addAll(axioms);
+				for (OWLClass subcls : subclses) {
+					if (traversal.traversed.contains(subcls) == false) {
+						traversal.pendingTasks.incrementAndGet();
+						new ExtractClassTask(subcls, traversal).fork();
+					}
+				}
+			} catch (Throwable t) {
+				log.error("Error at adding class: " + sourceClass, t);
+			}
+
+			if (buffer.axioms.size() >= axiomBatchSize) {
+				List<OWLAxiom> batch = buffer.axioms;
+				buffer.axioms = new ArrayList<OWLAxiom>();
+				try {
+					traversal.batches.put(batch);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					log.error("Interrupted while handing axioms to the writer", e);
+				}
+			}
 		}
 	}
 
 	private Set<OWLClass> getNamedSubclasses(OWLClass owlClass, OWLOntology ontology) {
+		if (hierarchyIndex != null) {
+			//called from the workers, which must not use the reasoner; the index has all the classes of the
+			//hierarchy, and the reasoner would not find subclasses of another class either
+			return hierarchyIndex.contains(owlClass) == true ?
+					hierarchyIndex.getSubclasses(owlClass, true) : new HashSet<OWLClass>();
+		}
+
 		Set<OWLClass> subclses = new HashSet<OWLClass>();
 		Stream<OWLClass> subclsesStream = reasoner.getSubClasses(owlClass, true).entities();
 		
@@ -184,18 +771,6 @@ public class OntologyBranchExtractor {
 		return subclses;
 	}
 
-	private void declareAndAttachAnnotations(OWLClass sourceClass)
-			throws OWLOntologyChangeException {
-		Stream<OWLAnnotationAssertionAxiom> annAssertionsStream = sourceOntology
-				.annotationAssertionAxioms(sourceClass.getIRI());
-		annAssertionsStream.forEach(s -> ontologyManager.addAxiom(targetOntology, s)); //TODO filter by excluded annotations
-	}
-
-	private void declare(OWLClass sourceClass) throws OWLOntologyChangeException {
-		OWLDataFactory owlDataFactory = ontologyManager.getOWLDataFactory();
-		ontologyManager.addAxiom(targetOntology, owlDataFactory.getOWLDeclarationAxiom(sourceClass));
-	}
-
 	private Set<OWLClass> getTopClasses(OWLOntology ontology, Collection<String> topClassNames) {
 		HashSet<OWLClass> classes = new HashSet<OWLClass>();
 		OWLDataFactory factory = ontologyManager.getOWLDataFactory();
@@ -213,6 +788,64 @@ public class OntologyBranchExtractor {
 		return classes;
 	}
 
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * @param logCount the progress is logged every logCount classes, in the sequential extraction
+	 */
+	public void setLogCount(int logCount) {
+		this.logCount = logCount;
+	}
+
+	/**
+	 * @param saveCount every saveCount classes of the sequential extraction, the target ontology is saved, or, 
+	 * if there is a checkpoint journal, a checkpoint is written. The parallel extraction checkpoints every batch.
+	 */
+	public void setSaveCount(int saveCount) {
+		this.saveCount = saveCount;
+	}
+
+	public void setAxiomBatchSize(int axiomBatchSize) {
+		this.axiomBatchSize = axiomBatchSize;
+	}
+
+	public void setAnnotationFilter(AnnotationFilter annotationFilter) {
+		this.annotationFilter = annotationFilter;
+	}
+
+	public void setStreamFile(File streamFile) {
+		this.streamFile = streamFile;
+	}
+
+	public void setDelta(boolean delta) {
+		this.delta = delta;
+	}
+
+	/**
+	 * @return the number of axioms added to and removed from the target ontology by the last delta extraction
+	 */
+	public long getDeltaAxiomCount() {
+		return deltaAxiomCount;
+	}
+
+	public void setCheckpointJournal(File journalFile, boolean resume) {
+		this.journalFile = journalFile;
+		this.resume = resume;
+	}
+
+	public void deleteCheckpointJournal() {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.delete();
+		} catch (IOException e) {
+			log.error("Could not delete the checkpoint journal " + journalFile.getAbsolutePath(), e);
+		}
+	}
+
 	private void cleanUp() {
 		traversed.clear();
 	}
@@ -0,0 +1,51 @@
+package org.ontologies.extract;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Loads the source ontologies of the entry points. The first load of a source file parses it, and saves an
+ * {@link OntologySnapshot} next to it (e.g., icd.owl.snapshot), which is used instead of the source in
+ * the later runs, as long as the checksum of the source does not change.
+ * <p>
+ * The snapshots can be turned off with ontology.snapshot=false in the export properties.
+ */
+public class OntologyLoader {
+
+	private static transient Logger log = Logger.getLogger(OntologyLoader.class);
+
+	public static final String SNAPSHOT_FILE_EXTENSION = ".snapshot";
+
+	public static OWLOntology loadOntology(OWLOntologyManager manager, File file) throws OWLOntologyCreationException {
+		if (ExportProperties.getOntologySnapshot(true) == false) {
+			return manager.loadOntologyFromOntologyDocument(file);
+		}
+
+		File snapshotFile = getSnapshotFile(file);
+		String key = FileChecksum.getChecksum(file.getAbsolutePath());
+		if (key == null) { //the source cannot be read, let the manager report it
+			return manager.loadOntologyFromOntologyDocument(file);
+		}
+
+		OWLOntology ontology = OntologySnapshot.load(snapshotFile, key, manager);
+		if (ontology != null) {
+			return ontology;
+		}
+
+		long t0 = System.currentTimeMillis();
+		ontology = manager.loadOntologyFromOntologyDocument(file);
+		log.info("Loaded ontology from " + file.getAbsolutePath() + " in " + (System.currentTimeMillis() - t0) + " ms");
+
+		OntologySnapshot.save(ontology, snapshotFile, key);
+		return ontology;
+	}
+
+	public static File getSnapshotFile(File file) {
+		return new File(file.getAbsolutePath() + SNAPSHOT_FILE_EXTENSION);
+	}
+
+}
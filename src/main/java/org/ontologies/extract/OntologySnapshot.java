@@ -0,0 +1,556 @@
+package org.ontologies.extract;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.FunctionalSyntaxDocumentFormat;
+import org.semanticweb.owlapi.io.StreamDocumentSource;
+import org.semanticweb.owlapi.model.AddOntologyAnnotation;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLAnnotationValue;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassAxiom;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDeclarationAxiom;
+import org.semanticweb.owlapi.model.OWLDocumentFormat;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLNaryBooleanClassExpression;
+import org.semanticweb.owlapi.model.OWLObjectComplementOf;
+import org.semanticweb.owlapi.model.OWLObjectIntersectionOf;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLObjectSomeValuesFrom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.model.OWLQuantifiedObjectRestriction;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+
+/**
+ * A snapshot of an ontology in a compact binary file, which is loaded much faster than the RDF/XML or
+ * functional syntax source, without parsing it.
+ * <p>
+ * The file has a header with the key, a table with all distinct strings (IRIs, lexical forms, language tags),
+ * and tables for the declarations, the annotation assertions, and the subclass and equivalent classes axioms
+ * (with named classes, and some, all, and, or, not restrictions on named object properties), in which each string
+ * is written as its index in the string table. These make most of the ICD and FMA axioms. The other axioms and
+ * the ontology annotations are kept as a functional syntax document at the end, which is much slower to parse.
+ * The file is read with a single memory-mapped read.
+ * <p>
+ * Ontologies with imports are not supported, because the imported ontologies would not be loaded.
+ */
+public class OntologySnapshot {
+
+	private static transient Logger log = Logger.getLogger(OntologySnapshot.class);
+
+	private static final int MAGIC = 0x4F4E5453; //"ONTS"
+	public static final int FILE_FORMAT_VERSION = 1;
+
+	private static final int NULL = -1;
+
+	private static final byte IRI_VALUE = 0;
+	private static final byte LITERAL_VALUE = 1;
+
+	private static final byte SUBCLASS_AXIOM = 0;
+	private static final byte EQUIVALENT_CLASSES_AXIOM = 1;
+
+	private static final byte CLASS = 0;
+	private static final byte SOME_VALUES_FROM = 1;
+	private static final byte ALL_VALUES_FROM = 2;
+	private static final byte INTERSECTION_OF = 3;
+	private static final byte UNION_OF = 4;
+	private static final byte COMPLEMENT_OF = 5;
+
+	private static final List<EntityType<?>> ENTITY_TYPES = EntityType.values();
+
+
+	/**
+	 * Saves the snapshot to a temporary file, which replaces the file when it is complete.
+	 * @return false, if the ontology has imports, or the file could not be written
+	 */
+	public static boolean save(OWLOntology ontology, File file, String key) {
+		if (ontology.importsDeclarations().findAny().isPresent() == true) {
+			log.info("Ontology " + ontology.getOntologyID() + " has imports. Will not save a snapshot of it.");
+			return false;
+		}
+
+		long t0 = System.currentTimeMillis();
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+
+		Map<String, Integer> string2id = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		List<OWLAxiom> otherAxioms = new ArrayList<OWLAxiom>();
+		collectStrings(ontology, string2id, strings, otherAxioms);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FILE_FORMAT_VERSION);
+			writeString(out, key);
+
+			out.writeInt(strings.size());
+			for (String str : strings) {
+				writeString(out, str);
+			}
+
+			OWLOntologyID id = ontology.getOntologyID();
+			out.writeInt(getId(id.getOntologyIRI(), string2id));
+			out.writeInt(getId(id.getVersionIRI(), string2id));
+			OWLDocumentFormat format = ontology.getOWLOntologyManager().getOntologyFormat(ontology);
+			writeString(out, format == null ? "" : format.getClass().getName());
+
+			List<OWLDeclarationAxiom> declarations = getDeclarations(ontology).collect(Collectors.toList());
+			out.writeInt(declarations.size());
+			for (OWLDeclarationAxiom ax : declarations) {
+				out.writeByte(ENTITY_TYPES.indexOf(ax.getEntity().getEntityType()));
+				out.writeInt(string2id.get(ax.getEntity().getIRI().toString()));
+			}
+			declarations = null;
+
+			List<OWLAnnotationAssertionAxiom> annAssertions = getAnnotationAssertions(ontology).collect(Collectors.toList());
+			out.writeInt(annAssertions.size());
+			for (OWLAnnotationAssertionAxiom ax : annAssertions) {
+				out.writeInt(string2id.get(ax.getSubject().toString()));
+				out.writeInt(string2id.get(ax.getProperty().getIRI().toString()));
+				writeAnnotationValue(out, ax.getValue(), string2id);
+			}
+			annAssertions = null;
+
+			List<OWLClassAxiom> classAxioms = getClassAxioms(ontology).collect(Collectors.toList());
+			out.writeInt(classAxioms.size());
+			for (OWLClassAxiom ax : classAxioms) {
+				writeClassAxiom(out, ax, string2id);
+			}
+			classAxioms = null;
+
+			byte[] otherBytes = renderOtherAxioms(ontology, otherAxioms);
+			out.writeInt(otherBytes.length);
+			out.write(otherBytes);
+		} catch (IOException | OWLOntologyCreationException | OWLOntologyStorageException e) {
+			log.warn("Could not save ontology snapshot to " + file.getAbsolutePath(), e);
+			tmpFile.delete();
+			return false;
+		}
+
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not save ontology snapshot to " + file.getAbsolutePath(), e);
+			tmpFile.delete();
+			return false;
+		}
+
+		log.info("Saved ontology snapshot to " + file.getAbsolutePath() + " (" + strings.size() + " strings, " +
+				otherAxioms.size() + " axioms in functional syntax) in " + (System.currentTimeMillis() - t0) + " ms");
+		return true;
+	}
+
+	/**
+	 * Creates the ontology in the manager from the snapshot.
+	 * @return the ontology, or null if the file does not exist, cannot be read, or was saved with a different key
+	 */
+	public static OWLOntology load(File file, String key, OWLOntologyManager manager) {
+		if (file.exists() == false) {
+			return null;
+		}
+
+		long t0 = System.currentTimeMillis();
+		OWLOntology ontology = null;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FILE_FORMAT_VERSION ||
+					key.equals(readString(buffer)) == false) {
+				log.info("Ontology snapshot in " + file.getAbsolutePath() + " is for another version of the source. Will not use it.");
+				return null;
+			}
+
+			String[] strings = new String[readLength(buffer, 4)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(buffer);
+			}
+			IRI[] iris = new IRI[strings.length]; //created once and shared by all axioms
+
+			IRI ontologyIRI = getIRI(buffer.getInt(), strings, iris);
+			IRI versionIRI = getIRI(buffer.getInt(), strings, iris);
+			String formatClassName = readString(buffer);
+
+			ontology = manager.createOntology(new OWLOntologyID(Optional.ofNullable(ontologyIRI), Optional.ofNullable(versionIRI)));
+			OWLDataFactory df = manager.getOWLDataFactory();
+			List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+
+			int declarationCount = buffer.getInt();
+			for (int i = 0; i < declarationCount; i++) {
+				EntityType<?> type = ENTITY_TYPES.get(buffer.get());
+				axioms.add(df.getOWLDeclarationAxiom(df.getOWLEntity(type, getIRI(buffer.getInt(), strings, iris))));
+			}
+
+			int annAssertionCount = buffer.getInt();
+			for (int i = 0; i < annAssertionCount; i++) {
+				IRI subject = getIRI(buffer.getInt(), strings, iris);
+				IRI prop = getIRI(buffer.getInt(), strings, iris);
+				OWLAnnotationValue value = readAnnotationValue(buffer, strings, iris, df);
+				axioms.add(df.getOWLAnnotationAssertionAxiom(df.getOWLAnnotationProperty(prop), subject, value));
+			}
+
+			OWLClass[] clses = new OWLClass[strings.length];
+			int classAxiomCount = buffer.getInt();
+			for (int i = 0; i < classAxiomCount; i++) {
+				axioms.add(readClassAxiom(buffer, strings, iris, clses, df));
+			}
+
+			ontology.addAxioms(axioms);
+			axioms = null;
+
+			byte[] otherBytes = new byte[readLength(buffer, 1)];
+			buffer.get(otherBytes);
+			addOtherAxioms(ontology, otherBytes);
+
+			setFormat(manager, ontology, formatClassName);
+
+			log.info("Loaded ontology snapshot from " + file.getAbsolutePath() + " (" + ontology.getAxiomCount() + " axioms) in " +
+					(System.currentTimeMillis() - t0) + " ms");
+			return ontology;
+		} catch (IOException | OWLOntologyCreationException | RuntimeException e) {
+			//a truncated or corrupt file fails with an underflow, a bad id or a bad length, and the source is parsed instead
+			log.warn("Could not read ontology snapshot from " + file.getAbsolutePath() + ". Will load the source.", e);
+			if (ontology != null) {
+				manager.removeOntology(ontology);
+			}
+			return null;
+		}
+	}
+
+
+	private static Stream<OWLDeclarationAxiom> getDeclarations(OWLOntology ontology) {
+		return ontology.axioms(AxiomType.DECLARATION).filter(ax -> ax.isAnnotated() == false);
+	}
+
+	private static Stream<OWLAnnotationAssertionAxiom> getAnnotationAssertions(OWLOntology ontology) {
+		return ontology.axioms(AxiomType.ANNOTATION_ASSERTION).filter(ax -> ax.isAnnotated() == false &&
+				ax.getSubject().isIRI() == true && ax.getValue().isIndividual() == false);
+	}
+
+	private static Stream<OWLClassAxiom> getClassAxioms(OWLOntology ontology) {
+		return Stream.concat(ontology.axioms(AxiomType.SUBCLASS_OF), ontology.axioms(AxiomType.EQUIVALENT_CLASSES)).
+				filter(ax -> isInTable(ax));
+	}
+
+	/**
+	 * Adds the strings of the axioms in the tables to the string table, and the rest of the axioms to otherAxioms.
+	 */
+	private static void collectStrings(OWLOntology ontology, Map<String, Integer> string2id, List<String> strings,
+			List<OWLAxiom> otherAxioms) {
+		OWLOntologyID id = ontology.getOntologyID();
+		id.getOntologyIRI().ifPresent(iri -> addString(iri.toString(), string2id, strings));
+		id.getVersionIRI().ifPresent(iri -> addString(iri.toString(), string2id, strings));
+
+		getDeclarations(ontology).forEach(ax -> addString(ax.getEntity().getIRI().toString(), string2id, strings));
+		getAnnotationAssertions(ontology).forEach(ax -> {
+			addString(ax.getSubject().toString(), string2id, strings);
+			addString(ax.getProperty().getIRI().toString(), string2id, strings);
+			OWLAnnotationValue value = ax.getValue();
+			if (value.isIRI() == true) {
+				addString(value.toString(), string2id, strings);
+			} else {
+				OWLLiteral literal = value.asLiteral().get();
+				addString(literal.getLiteral(), string2id, strings);
+				addString(literal.hasLang() ? literal.getLang() : literal.getDatatype().getIRI().toString(), string2id, strings);
+			}
+		});
+		getClassAxioms(ontology).forEach(ax -> ax.signature().
+				forEach(entity -> addString(entity.getIRI().toString(), string2id, strings)));
+
+		ontology.axioms().
+			filter(ax -> (ax.isOfType(AxiomType.DECLARATION) && ax.isAnnotated() == false) == false).
+			filter(ax -> (ax.isOfType(AxiomType.SUBCLASS_OF, AxiomType.EQUIVALENT_CLASSES) && isInTable((OWLClassAxiom) ax)) == false).
+			filter(ax -> (ax.isOfType(AxiomType.ANNOTATION_ASSERTION) && isInTable((OWLAnnotationAssertionAxiom) ax)) == false).
+			forEach(otherAxioms::add);
+	}
+
+	private static boolean isInTable(OWLClassAxiom ax) {
+		if (ax.isAnnotated() == true) {
+			return false;
+		}
+		if (ax instanceof OWLSubClassOfAxiom) {
+			OWLSubClassOfAxiom subclassAxiom = (OWLSubClassOfAxiom) ax;
+			return isEncoded(subclassAxiom.getSubClass()) && isEncoded(subclassAxiom.getSuperClass());
+		}
+		return ax instanceof OWLEquivalentClassesAxiom &&
+				((OWLEquivalentClassesAxiom) ax).classExpressions().allMatch(ce -> isEncoded(ce));
+	}
+
+	private static boolean isEncoded(OWLClassExpression ce) {
+		switch (ce.getClassExpressionType()) {
+		case OWL_CLASS:
+			return true;
+		case OBJECT_SOME_VALUES_FROM:
+		case OBJECT_ALL_VALUES_FROM:
+			OWLQuantifiedObjectRestriction restriction = (OWLQuantifiedObjectRestriction) ce;
+			return restriction.getProperty().isAnonymous() == false && isEncoded(restriction.getFiller());
+		case OBJECT_INTERSECTION_OF:
+		case OBJECT_UNION_OF:
+			return ((OWLNaryBooleanClassExpression) ce).operands().allMatch(op -> isEncoded(op));
+		case OBJECT_COMPLEMENT_OF:
+			return isEncoded(((OWLObjectComplementOf) ce).getOperand());
+		default:
+			return false;
+		}
+	}
+
+	private static void writeClassAxiom(DataOutputStream out, OWLClassAxiom ax, Map<String, Integer> string2id) throws IOException {
+		if (ax instanceof OWLSubClassOfAxiom) {
+			out.writeByte(SUBCLASS_AXIOM);
+			writeClassExpression(out, ((OWLSubClassOfAxiom) ax).getSubClass(), string2id);
+			writeClassExpression(out, ((OWLSubClassOfAxiom) ax).getSuperClass(), string2id);
+		} else {
+			List<OWLClassExpression> ces = ((OWLEquivalentClassesAxiom) ax).classExpressions().collect(Collectors.toList());
+			out.writeByte(EQUIVALENT_CLASSES_AXIOM);
+			out.writeInt(ces.size());
+			for (OWLClassExpression ce : ces) {
+				writeClassExpression(out, ce, string2id);
+			}
+		}
+	}
+
+	private static OWLClassAxiom readClassAxiom(MappedByteBuffer buffer, String[] strings, IRI[] iris, OWLClass[] clses,
+			OWLDataFactory df) throws IOException {
+		byte kind = buffer.get();
+		if (kind == SUBCLASS_AXIOM) {
+			OWLClassExpression subCls = readClassExpression(buffer, strings, iris, clses, df);
+			OWLClassExpression superCls = readClassExpression(buffer, strings, iris, clses, df);
+			return df.getOWLSubClassOfAxiom(subCls, superCls);
+		}
+		return df.getOWLEquivalentClassesAxiom(readClassExpressions(buffer, strings, iris, clses, df));
+	}
+
+	private static void writeClassExpression(DataOutputStream out, OWLClassExpression ce, Map<String, Integer> string2id) throws IOException {
+		switch (ce.getClassExpressionType()) {
+		case OWL_CLASS:
+			out.writeByte(CLASS);
+			out.writeInt(string2id.get(ce.asOWLClass().getIRI().toString()));
+			break;
+		case OBJECT_SOME_VALUES_FROM:
+		case OBJECT_ALL_VALUES_FROM:
+			OWLQuantifiedObjectRestriction restriction = (OWLQuantifiedObjectRestriction) ce;
+			out.writeByte(ce instanceof OWLObjectSomeValuesFrom ? SOME_VALUES_FROM : ALL_VALUES_FROM);
+			out.writeInt(string2id.get(restriction.getProperty().asOWLObjectProperty().getIRI().toString()));
+			writeClassExpression(out, restriction.getFiller(), string2id);
+			break;
+		case OBJECT_INTERSECTION_OF:
+		case OBJECT_UNION_OF:
+			List<OWLClassExpression> operands = ((OWLNaryBooleanClassExpression) ce).getOperandsAsList();
+			out.writeByte(ce instanceof OWLObjectIntersectionOf ? INTERSECTION_OF : UNION_OF);
+			out.writeInt(operands.size());
+			for (OWLClassExpression op : operands) {
+				writeClassExpression(out, op, string2id);
+			}
+			break;
+		case OBJECT_COMPLEMENT_OF:
+			out.writeByte(COMPLEMENT_OF);
+			writeClassExpression(out, ((OWLObjectComplementOf) ce).getOperand(), string2id);
+			break;
+		default:
+			throw new IllegalArgumentException("Class expression not supported in the snapshot tables: " + ce);
+		}
+	}
+
+	private static OWLClassExpression readClassExpression(MappedByteBuffer buffer, String[] strings, IRI[] iris,
+			OWLClass[] clses, OWLDataFactory df) throws IOException {
+		byte kind = buffer.get();
+		switch (kind) {
+		case CLASS:
+			return getCls(buffer.getInt(), strings, iris, clses, df);
+		case SOME_VALUES_FROM:
+		case ALL_VALUES_FROM:
+			OWLObjectProperty prop = df.getOWLObjectProperty(getIRI(buffer.getInt(), strings, iris));
+			OWLClassExpression filler = readClassExpression(buffer, strings, iris, clses, df);
+			return kind == SOME_VALUES_FROM ? df.getOWLObjectSomeValuesFrom(prop, filler) : df.getOWLObjectAllValuesFrom(prop, filler);
+		case INTERSECTION_OF:
+			return df.getOWLObjectIntersectionOf(readClassExpressions(buffer, strings, iris, clses, df));
+		case UNION_OF:
+			return df.getOWLObjectUnionOf(readClassExpressions(buffer, strings, iris, clses, df));
+		case COMPLEMENT_OF:
+			return df.getOWLObjectComplementOf(readClassExpression(buffer, strings, iris, clses, df));
+		default:
+			throw new IllegalArgumentException("Unknown class expression kind in snapshot: " + kind);
+		}
+	}
+
+	private static List<OWLClassExpression> readClassExpressions(MappedByteBuffer buffer, String[] strings, IRI[] iris,
+			OWLClass[] clses, OWLDataFactory df) throws IOException {
+		int size = readLength(buffer, 5);
+		List<OWLClassExpression> ces = new ArrayList<OWLClassExpression>(size);
+		for (int i = 0; i < size; i++) {
+			ces.add(readClassExpression(buffer, strings, iris, clses, df));
+		}
+		return ces;
+	}
+
+	private static boolean isInTable(OWLAnnotationAssertionAxiom ax) {
+		return ax.isAnnotated() == false && ax.getSubject().isIRI() == true && ax.getValue().isIndividual() == false;
+	}
+
+	private static void writeAnnotationValue(DataOutputStream out, OWLAnnotationValue value,
+			Map<String, Integer> string2id) throws IOException {
+		if (value.isIRI() == true) {
+			out.writeByte(IRI_VALUE);
+			out.writeInt(string2id.get(value.toString()));
+			return;
+		}
+		OWLLiteral literal = value.asLiteral().get();
+		out.writeByte(LITERAL_VALUE);
+		out.writeInt(string2id.get(literal.getLiteral()));
+		if (literal.hasLang() == true) {
+			out.writeInt(string2id.get(literal.getLang()));
+			out.writeInt(NULL);
+		} else {
+			out.writeInt(NULL);
+			out.writeInt(string2id.get(literal.getDatatype().getIRI().toString()));
+		}
+	}
+
+	private static OWLAnnotationValue readAnnotationValue(MappedByteBuffer buffer, String[] strings, IRI[] iris,
+			OWLDataFactory df) {
+		byte kind = buffer.get();
+		if (kind == IRI_VALUE) {
+			return getIRI(buffer.getInt(), strings, iris);
+		}
+		String lexicalForm = strings[buffer.getInt()];
+		int langId = buffer.getInt();
+		int datatypeId = buffer.getInt();
+		return langId != NULL ? df.getOWLLiteral(lexicalForm, strings[langId]) :
+			df.getOWLLiteral(lexicalForm, df.getOWLDatatype(getIRI(datatypeId, strings, iris)));
+	}
+
+	/**
+	 * @return the other axioms and the ontology annotations in functional syntax
+	 */
+	private static byte[] renderOtherAxioms(OWLOntology ontology, List<OWLAxiom> otherAxioms)
+			throws OWLOntologyCreationException, OWLOntologyStorageException {
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology otherOntology = manager.createOntology();
+		otherOntology.addAxioms(otherAxioms);
+		manager.applyChanges(ontology.annotations().
+				map(ann -> new AddOntologyAnnotation(otherOntology, ann)).collect(Collectors.toList()));
+
+		//only the axioms of the list are written, without declarations for their entities
+		FunctionalSyntaxDocumentFormat format = new FunctionalSyntaxDocumentFormat();
+		format.setAddMissingTypes(false);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manager.saveOntology(otherOntology, format, out);
+		return out.toByteArray();
+	}
+
+	private static void addOtherAxioms(OWLOntology ontology, byte[] otherBytes) throws OWLOntologyCreationException {
+		OWLOntologyManager otherManager = OWLManager.createOWLOntologyManager();
+		OWLOntology otherOntology = otherManager.loadOntologyFromOntologyDocument(
+				new StreamDocumentSource(new ByteArrayInputStream(otherBytes), IRI.create("snapshot:other"),
+						new FunctionalSyntaxDocumentFormat(), null));
+
+		//the parser declares the entities used in the document, but all the declarations of the source are in the table
+		OWLOntologyManager manager = ontology.getOWLOntologyManager();
+		manager.addAxioms(ontology, otherOntology.axioms().
+				filter(ax -> ax.isOfType(AxiomType.DECLARATION) == false || ax.isAnnotated() == true));
+		manager.applyChanges(otherOntology.annotations().
+				map(ann -> new AddOntologyAnnotation(ontology, ann)).collect(Collectors.toList()));
+	}
+
+	private static void setFormat(OWLOntologyManager manager, OWLOntology ontology, String formatClassName) {
+		if (formatClassName.isEmpty() == true) {
+			return;
+		}
+		try {
+			manager.setOntologyFormat(ontology, (OWLDocumentFormat) Class.forName(formatClassName).getDeclaredConstructor().newInstance());
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			log.warn("Could not set the format of the ontology to " + formatClassName, e);
+		}
+	}
+
+	private static void addString(String str, Map<String, Integer> string2id, List<String> strings) {
+		if (str != null && string2id.containsKey(str) == false) {
+			string2id.put(str, strings.size());
+			strings.add(str);
+		}
+	}
+
+	private static int getId(Optional<IRI> iri, Map<String, Integer> string2id) {
+		return iri.isPresent() ? string2id.get(iri.get().toString()) : NULL;
+	}
+
+	private static IRI getIRI(int id, String[] strings, IRI[] iris) {
+		if (id == NULL) {
+			return null;
+		}
+		IRI iri = iris[id];
+		if (iri == null) {
+			iri = IRI.create(strings[id]);
+			iris[id] = iri;
+		}
+		return iri;
+	}
+
+	private static OWLClass getCls(int id, String[] strings, IRI[] iris, OWLClass[] clses, OWLDataFactory df) {
+		OWLClass cls = clses[id];
+		if (cls == null) {
+			cls = df.getOWLClass(getIRI(id, strings, iris));
+			clses[id] = cls;
+		}
+		return cls;
+	}
+
+	/**
+	 * Reads the length of an array or list, so that a corrupt length does not allocate a huge array.
+	 * @param minItemBytes - the least number of bytes taken by each item in the file
+	 */
+	private static int readLength(MappedByteBuffer buffer, int minItemBytes) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0 || (long) length * minItemBytes > buffer.remaining()) {
+			throw new IOException("Corrupt ontology snapshot: length " + length + " at " + (buffer.position() - 4) +
+					", with " + buffer.remaining() + " bytes left");
+		}
+		return length;
+	}
+
+	//writeUTF is limited to 64K bytes, so the strings are written as length and UTF-8 bytes
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(MappedByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[readLength(buffer, 1)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.fma.icd.map;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link OWLAPIUtil} hierarchy methods give the same results with the {@link HierarchyIndex}
+ * as with the StructuralReasoner alone, on random polyhierarchies.
+ */
+public class HierarchyIndexTest extends TestCase {
+
+	public void testSameHierarchyAsStructuralReasoner() throws Exception {
+		for (int seed = 0; seed < 10; seed++) {
+			Random random = new Random(seed);
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			OWLDataFactory df = manager.getOWLDataFactory();
+			OWLOntology ont = manager.createOntology(IRI.create("http://test.org/hierarchy"));
+			OWLClass[] clses = RandomHierarchy.addClasses(ont, 60, 3, random);
+			OWLReasoner reasoner = new StructuralReasonerFactory().createReasoner(ont);
+
+			List<OWLClass> allClses = new ArrayList<OWLClass>(Arrays.asList(clses));
+			allClses.add(df.getOWLThing());
+			List<Set<OWLClass>> expectedHierarchy = getHierarchy(allClses, ont, reasoner);
+			List<Boolean> expectedSubclassOf = getSubclassOf(clses, reasoner);
+
+			OWLAPIUtil.indexHierarchy(reasoner);
+			try {
+				assertEquals("seed " + seed, expectedHierarchy, getHierarchy(allClses, ont, reasoner));
+				assertEquals("seed " + seed, expectedSubclassOf, getSubclassOf(clses, reasoner));
+			} finally {
+				OWLAPIUtil.removeHierarchyIndex(reasoner);
+			}
+		}
+	}
+
+
+	/**
+	 * With subclass cycles, the reasoner nodes can share classes, so the index merges them. The classes in a cycle are
+	 * then equivalent, as in the subclass axioms, and not subclasses of each other. The reasoner may also leave
+	 * some classes out of the hierarchy below owl:Thing, which are then not in the index.
+	 */
+	public void testCyclesAreEquivalentClasses() throws Exception {
+		for (int seed = 0; seed < 10; seed++) {
+			Random random = new Random(seed);
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			OWLDataFactory df = manager.getOWLDataFactory();
+			OWLOntology ont = manager.createOntology(IRI.create("http://test.org/hierarchy"));
+			OWLClass[] clses = RandomHierarchy.addClasses(ont, 60, 3, random);
+			for (int i = 0; i < 5; i++) {
+				int sub = random.nextInt(clses.length);
+				int sup = sub + random.nextInt(clses.length - sub);
+				ont.addAxiom(df.getOWLSubClassOfAxiom(clses[sub], clses[sup]));
+			}
+			OWLReasoner reasoner = new StructuralReasonerFactory().createReasoner(ont);
+			HierarchyIndex index = new HierarchyIndex(reasoner);
+
+			for (OWLClass subcls : clses) {
+				if (index.contains(subcls) == false) {
+					continue;
+				}
+				Set<OWLClass> superClses = getAssertedSuperclasses(subcls, ont);
+				for (OWLClass superCls : clses) {
+					if (index.contains(superCls) == false) {
+						continue;
+					}
+					boolean expected = superClses.contains(superCls) == true &&
+							getAssertedSuperclasses(superCls, ont).contains(subcls) == false;
+					assertEquals("seed " + seed + " " + subcls + " " + superCls, expected, index.isSubclassOf(subcls, superCls));
+					assertEquals("seed " + seed + " " + subcls + " " + superCls, expected,
+							index.getSuperclasses(subcls, false).contains(superCls));
+					assertEquals("seed " + seed + " " + subcls + " " + superCls, expected,
+							index.getSubclasses(superCls, false).contains(subcls));
+				}
+			}
+		}
+	}
+
+
+	//the classes reached over the subclass axioms
+	private static Set<OWLClass> getAssertedSuperclasses(OWLClass cls, OWLOntology ont) {
+		Set<OWLClass> result = new HashSet<OWLClass>();
+		Deque<OWLClass> toVisit = new ArrayDeque<OWLClass>();
+		toVisit.add(cls);
+		while (toVisit.isEmpty() == false) {
+			ont.subClassAxiomsForSubClass(toVisit.poll()).forEach(ax -> {
+				OWLClass superCls = ax.getSuperClass().asOWLClass();
+				if (result.add(superCls) == true) {
+					toVisit.add(superCls);
+				}
+			});
+		}
+		return result;
+	}
+
+	private static List<Set<OWLClass>> getHierarchy(List<OWLClass> clses, OWLOntology ont, OWLReasoner reasoner) {
+		List<Set<OWLClass>> result = new ArrayList<Set<OWLClass>>();
+		for (OWLClass cls : clses) {
+			for (boolean direct : new boolean[] { true, false }) {
+				result.add(OWLAPIUtil.getNamedSubclasses(cls, ont, reasoner, direct));
+				result.add(OWLAPIUtil.getNamedSuperclasses(cls, ont, reasoner, direct));
+			}
+		}
+		return result;
+	}
+
+	private static List<Boolean> getSubclassOf(OWLClass[] clses, OWLReasoner reasoner) {
+		List<Boolean> result = new ArrayList<Boolean>();
+		for (OWLClass subcls : clses) {
+			for (OWLClass superCls : clses) {
+				result.add(OWLAPIUtil.isSubclassOf(subcls, superCls, reasoner));
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+/**
+ * The previous path enumeration, which the tests compare the current algorithms with.
+ */
+public class PathEnumeration {
+
+	/**
+	 * The previous {@link OWLAPIUtil#getPathsToSuperclass(OWLClass, OWLClass, OWLOntology, OWLReasoner)}.
+	 */
+	public static Set<List<OWLClass>> getPathsByBreadthFirstSearch(OWLClass cls, OWLClass superClass, OWLOntology ont, OWLReasoner reasoner) {
+		Set<List<OWLClass>> result = new HashSet<List<OWLClass>>();
+		Set<List<OWLClass>> paths = new HashSet<List<OWLClass>>();
+		paths.add(Arrays.asList(cls));
+		while (paths.isEmpty() == false) {
+			Set<List<OWLClass>> nextPaths = new HashSet<List<OWLClass>>();
+			for (List<OWLClass> path : paths) {
+				OWLClass last = path.get(path.size() - 1);
+				if (last.equals(superClass) == true) {
+					result.add(path);
+				} else if (last.isTopEntity() == false) {
+					for (OWLClass parent : OWLAPIUtil.getNamedSuperclasses(last, ont, reasoner, true)) {
+						if (path.contains(parent) == false) {
+							List<OWLClass> nextPath = new ArrayList<OWLClass>(path);
+							nextPath.add(parent);
+							nextPaths.add(nextPath);
+						}
+					}
+				}
+			}
+			paths = nextPaths;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.fma.icd.map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+/**
+ * Builds the random polyhierarchies of the tests.
+ */
+public class RandomHierarchy {
+
+	public static final String NS = "http://test.org/hierarchy#";
+
+	/**
+	 * Adds the classes C0 .. C(classCount - 1) to the ontology. Each class but C0 is a direct subclass of one to
+	 * maxParents earlier classes, so that there are several paths from most classes to their ancestors.
+	 * @return the classes, by number
+	 */
+	public static OWLClass[] addClasses(OWLOntology ont, int classCount, int maxParents, Random random) {
+		OWLDataFactory df = ont.getOWLOntologyManager().getOWLDataFactory();
+		OWLClass[] clses = new OWLClass[classCount];
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		for (int i = 0; i < classCount; i++) {
+			clses[i] = df.getOWLClass(IRI.create(NS + "C" + i));
+			axioms.add(df.getOWLDeclarationAxiom(clses[i]));
+			if (i > 0) {
+				int parentCount = 1 + random.nextInt(maxParents);
+				for (int j = 0; j < parentCount; j++) {
+					axioms.add(df.getOWLSubClassOfAxiom(clses[i], clses[random.nextInt(i)]));
+				}
+			}
+		}
+		ont.addAxioms(axioms);
+		return clses;
+	}
+
+	/**
+	 * @return the manager of the main methods for the thread count: the concurrent one, if there are several threads
+	 */
+	public static OWLOntologyManager createManager(int threadCount) {
+		return threadCount > 1 ? OWLManager.createConcurrentOWLOntologyManager() : OWLManager.createOWLOntologyManager();
+	}
+
+	/**
+	 * Annotates each class with labelProp, and the label of its number.
+	 */
+	public static void addLabels(OWLOntology ont, OWLClass[] clses, OWLAnnotationProperty labelProp, IntFunction<OWLLiteral> labels) {
+		OWLDataFactory df = ont.getOWLOntologyManager().getOWLDataFactory();
+		List<OWLAxiom> axioms = new ArrayList<OWLAxiom>();
+		for (int i = 0; i < clses.length; i++) {
+			axioms.add(df.getOWLAnnotationAssertionAxiom(labelProp, clses[i].getIRI(), labels.apply(i)));
+		}
+		ont.addAxioms(axioms);
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.fma.icd.map;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link StringMatcher#containsWord(String, String)} and {@link WordBoundaryMatcher} give the same
+ * results as the previous, regex based, {@link StringMatcher#containsRegex(String, String)}.
+ * <p>
+ * The strings are random, built from word chars, non-word chars, non ASCII chars and line terminators, and
+ * the substring is either random or cut out of the string, so that all the boundary cases come up.
+ */
+public class StringMatcherTest extends TestCase {
+
+	private static final String ALPHABET = "abAB_09 ,-.()[]:\\$\u00e9\u00e0\u00a0\n\r\u2028\u0085\t";
+
+	public void testContainsWordSameAsRegex() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			String str = randomString(random, random.nextInt(12));
+			String subStr;
+			if (str.length() > 0 && random.nextInt(4) > 0) {
+				int start = random.nextInt(str.length() + 1);
+				int end = start + random.nextInt(str.length() - start + 1);
+				subStr = str.substring(start, end);
+			} else {
+				subStr = randomString(random, random.nextInt(4));
+			}
+
+			assertEquals("[" + escape(str) + "] [" + escape(subStr) + "]",
+					StringMatcher.containsRegex(str, subStr), StringMatcher.containsWord(str, subStr));
+		}
+	}
+
+	public void testWordBoundaryMatcherSameAsContainsWord() {
+		Random random = new Random(43);
+		for (int a = 0; a < 200; a++) {
+			WordBoundaryMatcher matcher = new WordBoundaryMatcher();
+			int patternCount = 1 + random.nextInt(50);
+			for (int i = 0; i < patternCount; i++) {
+				matcher.add(randomString(random, random.nextInt(5)));
+			}
+			matcher.build();
+
+			for (int t = 0; t < 100; t++) {
+				String text = randomString(random, random.nextInt(20));
+				BitSet found = matcher.findAll(text);
+				for (int id = 0; id < matcher.size(); id++) {
+					assertEquals("[" + escape(text) + "] [" + escape(matcher.getPattern(id)) + "]",
+							StringMatcher.containsWord(text, matcher.getPattern(id)), found.get(id));
+				}
+			}
+		}
+	}
+
+
+	private static String randomString(Random random, int length) {
+		StringBuilder buff = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			buff.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return buff.toString();
+	}
+
+	private static String escape(String str) {
+		StringBuilder buff = new StringBuilder();
+		for (char c : str.toCharArray()) {
+			if (c < 32 || c > 126) {
+				buff.append(String.format("\\u%04x", (int) c));
+			} else {
+				buff.append(c);
+			}
+		}
+		return buff.toString();
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.fma.icd.map;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Pins the common words and the pruned titles of ICD sibling labels, which are written by
+ * {@link org.logical.defs.extcauses.CommonSubstringInSiblingsFinder}, and the ones of
+ * {@link StringUtils#getCommonTokenSubstrings(List)}, where they differ.
+ */
+public class StringUtilsTest extends TestCase {
+
+	public void testThreatToBreathing() {
+		String title = "Threat to breathing by inhalation or ingestion of food with undetermined intent";
+		List<String> labels = Arrays.asList(
+				"Threat to breathing by external compression of airways or chest with undetermined intent",
+				"Threat to breathing by inhalation or ingestion of liquids with undetermined intent",
+				"Threat to breathing by suffocation from object covering mouth or nose with undetermined intent",
+				title);
+
+		assertCommonWords(labels, title, "inhalation or ingestion of food", "Threat to breathing by ", "with undetermined intent");
+		assertEquals(set("Threat to breathing by ", "with undetermined intent"), StringUtils.getCommonTokenSubstrings(labels));
+	}
+
+	public void testSelfHarm() {
+		String title = "Intentional self-harm by body piercing byproduct";
+		List<String> labels = Arrays.asList(
+				"Intentional self-harm by being cut or pierced by knife, sword or dagger",
+				"Intentional self-harm by being cut or pierced by  sharp glass",
+				title);
+
+		assertCommonWords(labels, title, "body piercing byproduct", "Intentional self-harm by ");
+	}
+
+	public void testPartOfBuilding() {
+		String title = "part of building or grounds, playroom or family room";
+		List<String> labels = Arrays.asList(
+				"Part of building or grounds, bathroom, toilet",
+				"Part of building or grounds, elevator",
+				title);
+
+		assertCommonWords(labels, title, "playroom or family room", "Part of building or grounds, ");
+	}
+
+	public void testLegalIntervention() {
+		String title = "Type of legal intervention, potential arrest related traffic pursuit";
+		List<String> labels = Arrays.asList(
+				"Type of legal intervention, potential arrest related investigation of a suspicious person or incident",
+				"Type of legal intervention, potential arrest related execution of an arrest",
+				title);
+
+		//the pairwise intersection keeps "arrest", which two of the labels have twice
+		assertCommonWords(labels, title, "traffic pursuit", "Type of legal intervention, potential arrest related ", "arrest");
+		assertEquals(set("Type of legal intervention, potential arrest related "), StringUtils.getCommonTokenSubstrings(labels));
+	}
+
+	public void testTransportEvent() {
+		String title = "Railway vehicle as mode of transport of person injured in transport related event";
+		List<String> labels = Arrays.asList(
+				"Low-powered passenger vehicle as mode of transport of person injured in transport event",
+				title);
+
+		//the pairwise intersection also keeps the fragment "transport " of the longer common run
+		assertCommonWords(labels, title, "Railway related",
+				"vehicle as mode of transport of person injured in transport ", "transport ", "event");
+		assertEquals(set("vehicle as mode of transport of person injured in transport ", "event"),
+				StringUtils.getCommonTokenSubstrings(labels));
+	}
+
+
+	private static void assertCommonWords(List<String> labels, String title, String prunedTitle, String... commonWords) {
+		Collection<String> common = StringUtils.getCommonWords(labels);
+		assertEquals(set(commonWords), new HashSet<String>(common));
+		assertEquals(prunedTitle, StringUtils.pruneString(title, common));
+	}
+
+	private static HashSet<String> set(String... strs) {
+		return new HashSet<String>(Arrays.asList(strs));
+	}
+
+}
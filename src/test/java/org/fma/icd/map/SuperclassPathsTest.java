@@ -0,0 +1,60 @@
+package org.fma.icd.map;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link SuperclassPaths} finds the same paths as the previous breadth first search
+ * of {@link PathEnumeration}, on random polyhierarchies, to owl:Thing and to random superclasses.
+ */
+public class SuperclassPathsTest extends TestCase {
+
+	public void testSamePathsAsBreadthFirstSearch() throws Exception {
+		for (int seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			OWLDataFactory df = manager.getOWLDataFactory();
+			OWLOntology ont = manager.createOntology(IRI.create("http://test.org/paths"));
+			OWLClass[] clses = RandomHierarchy.addClasses(ont, 30, 3, random);
+			OWLReasoner reasoner = new StructuralReasonerFactory().createReasoner(ont);
+			SuperclassPaths superclassPaths = new SuperclassPaths(ont, reasoner);
+
+			for (OWLClass cls : clses) {
+				for (OWLClass superCls : new OWLClass[] { df.getOWLThing(), clses[random.nextInt(clses.length)] }) {
+					String message = "seed " + seed + " " + cls + " " + superCls;
+					Set<List<OWLClass>> expected = PathEnumeration.getPathsByBreadthFirstSearch(cls, superCls, ont, reasoner);
+
+					assertEquals(message, expected, OWLAPIUtil.getPathsToSuperclass(cls, superCls, ont, reasoner));
+					assertEquals(message, expected.size(), superclassPaths.countPaths(cls, superCls));
+
+					Set<List<OWLClass>> shortPaths = new HashSet<List<OWLClass>>();
+					for (List<OWLClass> path : expected) {
+						if (path.size() <= 3) {
+							shortPaths.add(path);
+						}
+					}
+					assertEquals(message, shortPaths,
+							new HashSet<List<OWLClass>>(superclassPaths.getPaths(cls, superCls, SuperclassPaths.UNLIMITED, 3)));
+
+					List<List<OWLClass>> firstPaths = superclassPaths.getPaths(cls, superCls, 2, SuperclassPaths.UNLIMITED);
+					assertEquals(message, Math.min(2, expected.size()), firstPaths.size());
+					assertTrue(message, expected.containsAll(firstPaths));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.icd.retired;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.fma.icd.map.OWLAPIUtil;
+import org.fma.icd.map.PathEnumeration;
+import org.fma.icd.map.RandomHierarchy;
+import org.fma.icd.map.StringMatcher;
+import org.fma.icd.map.StringUtils;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+import org.semanticweb.owlapi.vocab.SKOSVocabulary;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link RetiredClasses} writes the same lines as the previous algorithm, which enumerated all the paths
+ * to the root of each class with a retired superclass, on random polyhierarchies with some retired classes.
+ */
+public class RetiredClassesTest extends TestCase {
+
+	public void testSameLinesAsPathEnumeration() throws Exception {
+		int lineCount = 0;
+		for (int seed = 0; seed < 20; seed++) {
+			OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+			OWLOntology ont = createOntology(manager, new Random(seed));
+
+			StringWriter out = new StringWriter();
+			new RetiredClasses(manager, ont, new BufferedWriter(out)).export();
+
+			List<String> expected = getLinesByPathEnumeration(ont);
+			assertEquals("seed " + seed, expected, sortedLines(out.toString()));
+			lineCount += expected.size();
+		}
+		assertTrue("no retired classes to delete in the test ontologies", lineCount > 0);
+	}
+
+
+	private static OWLOntology createOntology(OWLOntologyManager manager, Random random) throws OWLOntologyCreationException {
+		OWLDataFactory df = manager.getOWLDataFactory();
+		OWLOntology ont = manager.createOntology(IRI.create("http://test.org/retired"));
+		OWLAnnotationProperty prefLabelProp = df.getOWLAnnotationProperty(SKOSVocabulary.PREFLABEL.getIRI());
+		OWLAnnotationProperty icatIdProp = df.getOWLAnnotationProperty(RetiredClasses.ICAT_ID);
+
+		OWLClass[] clses = RandomHierarchy.addClasses(ont, 40, 3, random);
+		for (int i = 0; i < clses.length; i++) {
+			String label = random.nextInt(5) == 0 ? "Retired class " + i : "Class " + i;
+			ont.addAxiom(df.getOWLAnnotationAssertionAxiom(prefLabelProp, clses[i].getIRI(), df.getOWLLiteral(label)));
+			ont.addAxiom(df.getOWLAnnotationAssertionAxiom(icatIdProp, clses[i].getIRI(), df.getOWLLiteral("ID" + i)));
+		}
+		return ont;
+	}
+
+	/**
+	 * The previous algorithm: a retired superclass is written, if no path to the root avoids it and all other retired classes.
+	 */
+	private static List<String> getLinesByPathEnumeration(OWLOntology ont) throws IOException {
+		OWLDataFactory df = ont.getOWLOntologyManager().getOWLDataFactory();
+		OWLReasoner reasoner = new StructuralReasonerFactory().createReasoner(ont);
+		OWLClass root = df.getOWLThing();
+
+		StringWriter out = new StringWriter();
+		BufferedWriter writer = new BufferedWriter(out);
+		for (OWLClass subcls : OWLAPIUtil.getNamedSubclasses(root, ont, reasoner, false)) {
+			for (OWLClass superCls : OWLAPIUtil.getNamedSuperclasses(subcls, ont, reasoner, false)) {
+				if (isRetired(ont, superCls) == false) {
+					continue;
+				}
+				boolean toBeDeleted = true;
+				for (List<OWLClass> path : PathEnumeration.getPathsByBreadthFirstSearch(subcls, root, ont, reasoner)) {
+					if (path.contains(superCls) == false && path.stream().noneMatch(cls -> isRetired(ont, cls))) {
+						toBeDeleted = false;
+						break;
+					}
+				}
+				if (toBeDeleted == true) {
+					writer.write(getIcatId(ont, subcls) + StringUtils.COL_SEPARATOR + getIcatId(ont, superCls) + StringUtils.COL_SEPARATOR +
+							OWLAPIUtil.getSKOSPrefLabelValue(ont, subcls) + StringUtils.COL_SEPARATOR + OWLAPIUtil.getSKOSPrefLabelValue(ont, superCls));
+					writer.newLine();
+				}
+			}
+		}
+		writer.close();
+		return sortedLines(out.toString());
+	}
+
+	private static boolean isRetired(OWLOntology ont, OWLClass cls) {
+		String label = OWLAPIUtil.getSKOSPrefLabelValue(ont, cls);
+		return label != null && StringMatcher.contains(label.toLowerCase(), "retired");
+	}
+
+	private static String getIcatId(OWLOntology ont, OWLClass cls) {
+		return OWLAPIUtil.getStringAnnotationValue(ont, cls,
+				ont.getOWLOntologyManager().getOWLDataFactory().getOWLAnnotationProperty(RetiredClasses.ICAT_ID));
+	}
+
+	//the classes are visited in the order of a hash set, so the lines are compared sorted
+	private static List<String> sortedLines(String csv) {
+		List<String> lines = new ArrayList<String>();
+		for (String line : csv.split("\\R")) {
+			if (line.isEmpty() == false) {
+				lines.add(line);
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+
+}
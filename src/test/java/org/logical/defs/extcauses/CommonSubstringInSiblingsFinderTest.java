@@ -0,0 +1,68 @@
+package org.logical.defs.extcauses;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.fma.icd.map.RandomHierarchy;
+import org.ontologies.extract.AnnotationFilter;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+import org.semanticweb.owlapi.vocab.SKOSVocabulary;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link CommonSubstringInSiblingsFinder} adds the same axioms to the target ontology with several
+ * threads as with one, on a random polyhierarchy whose labels share words.
+ */
+public class CommonSubstringInSiblingsFinderTest extends TestCase {
+
+	private static final String[] WORDS = { "Threat", "to", "breathing", "by", "inhalation", "of", "food", "with",
+			"undetermined", "intent", "vehicle", "transport" };
+
+	public void testParallelSameAsSequential() throws Exception {
+		assertEquals(compute(1), compute(4));
+	}
+
+
+	private static Set<OWLAxiom> compute(int threadCount) throws Exception {
+		OWLOntologyManager manager = RandomHierarchy.createManager(threadCount);
+		OWLDataFactory df = manager.getOWLDataFactory();
+		OWLOntology sourceOnt = manager.createOntology(IRI.create("http://test.org/source"));
+		OWLOntology targetOnt = manager.createOntology(IRI.create("http://test.org/target"));
+
+		Random random = new Random(5);
+		OWLClass[] clses = RandomHierarchy.addClasses(sourceOnt, 600, 2, random);
+		OWLAnnotationProperty prefLabelProp = df.getOWLAnnotationProperty(SKOSVocabulary.PREFLABEL.getIRI());
+		RandomHierarchy.addLabels(sourceOnt, clses, prefLabelProp, i -> df.getOWLLiteral(randomLabel(random), "en"));
+
+		CommonSubstringInSiblingsFinder finder = new CommonSubstringInSiblingsFinder(manager, sourceOnt, targetOnt,
+				new File("common-substrings.owl").toURI(), new StructuralReasonerFactory().createReasoner(sourceOnt),
+				new AnnotationFilter(null, true));
+		finder.setThreadCount(threadCount);
+		finder.compute(Arrays.asList(clses[0].getIRI().toString()));
+
+		assertTrue(targetOnt.annotationPropertiesInSignature().anyMatch(
+				p -> p.getIRI().toString().equals(CommonSubstringInSiblingsFinder.COMMON_SUBSTR_PROP)));
+		return targetOnt.axioms().collect(Collectors.toSet());
+	}
+
+	private static String randomLabel(Random random) {
+		StringBuilder label = new StringBuilder();
+		int wordCount = 2 + random.nextInt(8);
+		for (int i = 0; i < wordCount; i++) {
+			label.append(i > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return label.toString();
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.ontologies.extract;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.fma.icd.map.RandomHierarchy;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+import org.semanticweb.owlapi.vocab.SKOSVocabulary;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that {@link OntologyBranchExtractor} extracts the declarations, the subclass axioms and the annotations
+ * selected by its filter, with several threads as with one, on a random polyhierarchy; and that an extraction
+ * stopped by a failed write and resumed from its checkpoint journal ends with the same axioms as a full one.
+ */
+public class OntologyBranchExtractorTest extends TestCase {
+
+	private static final int CLASS_COUNT = 2000;
+
+	public void testParallelSameAsSequential() throws Exception {
+		Set<OWLAxiom> sequential = extract(1);
+		assertEquals(sequential, extract(4));
+	}
+
+	public void testResumeAfterFailedWrite() throws Exception {
+		resumeAfterFailedWrite(1);
+	}
+
+	public void testResumeAfterFailedWriteInParallel() throws Exception {
+		resumeAfterFailedWrite(4);
+	}
+
+
+	private static Set<OWLAxiom> extract(int threadCount) throws Exception {
+		OWLOntologyManager manager = RandomHierarchy.createManager(threadCount);
+		OWLDataFactory df = manager.getOWLDataFactory();
+		OWLOntology sourceOnt = manager.createOntology(IRI.create("http://test.org/source"));
+		OWLOntology targetOnt = manager.createOntology(IRI.create("http://test.org/target"));
+		OWLClass[] clses = addClasses(sourceOnt);
+
+		AnnotationFilter annotationFilter = createAnnotationFilter(df);
+		OntologyBranchExtractor extractor = createExtractor(sourceOnt, targetOnt, threadCount);
+		extractor.extract(getTopClassNames(clses));
+
+		Set<OWLAxiom> expected = new HashSet<OWLAxiom>();
+		for (OWLClass cls : clses) {
+			expected.add(df.getOWLDeclarationAxiom(cls));
+			annotationFilter.annotationAssertionAxioms(sourceOnt, cls.getIRI()).forEach(expected::add);
+			sourceOnt.subClassAxiomsForSuperClass(cls).forEach(expected::add);
+		}
+		Set<OWLAxiom> axioms = targetOnt.axioms().collect(Collectors.toSet());
+		assertEquals(expected, axioms);
+		return axioms;
+	}
+
+	private static void resumeAfterFailedWrite(int threadCount) throws Exception {
+		OWLOntologyManager manager = RandomHierarchy.createManager(threadCount);
+		OWLOntology sourceOnt = manager.createOntology(IRI.create("http://test.org/source"));
+		OWLClass[] clses = addClasses(sourceOnt);
+
+		OWLOntology fullTargetOnt = manager.createOntology(IRI.create("http://test.org/full"));
+		createExtractor(sourceOnt, fullTargetOnt, threadCount).extract(getTopClassNames(clses));
+
+		File journalFile = File.createTempFile("branch-journal", ".nt");
+		try {
+			OWLOntology failedTargetOnt = failAfterWrites(manager.createOntology(IRI.create("http://test.org/failed")), 4);
+			OntologyBranchExtractor extractor = createExtractor(sourceOnt, failedTargetOnt, threadCount);
+			extractor.setAxiomBatchSize(500);
+			extractor.setSaveCount(100);
+			extractor.setCheckpointJournal(journalFile, false);
+			try {
+				extractor.extract(getTopClassNames(clses));
+				fail("The extraction should stop at the failed write");
+			} catch (IllegalStateException e) {
+				//expected
+			}
+			long checkpointCount = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).stream().
+					filter(line -> line.startsWith("# checkpoint")).count();
+			assertTrue(checkpointCount > 0);
+
+			OWLOntology resumedTargetOnt = manager.createOntology(IRI.create("http://test.org/resumed"));
+			extractor = createExtractor(sourceOnt, resumedTargetOnt, threadCount);
+			extractor.setAxiomBatchSize(500);
+			extractor.setSaveCount(100);
+			extractor.setCheckpointJournal(journalFile, true);
+			extractor.extract(getTopClassNames(clses));
+
+			assertEquals(fullTargetOnt.axioms().collect(Collectors.toSet()),
+					resumedTargetOnt.axioms().collect(Collectors.toSet()));
+		} finally {
+			journalFile.delete();
+		}
+	}
+
+	private static OWLClass[] addClasses(OWLOntology sourceOnt) {
+		OWLDataFactory df = sourceOnt.getOWLOntologyManager().getOWLDataFactory();
+		OWLClass[] clses = RandomHierarchy.addClasses(sourceOnt, CLASS_COUNT, 2, new Random(5));
+		RandomHierarchy.addLabels(sourceOnt, clses, df.getRDFSLabel(), i -> df.getOWLLiteral("Class " + i));
+		OWLAnnotationProperty altLabelProp = df.getOWLAnnotationProperty(SKOSVocabulary.ALTLABEL.getIRI());
+		RandomHierarchy.addLabels(sourceOnt, clses, altLabelProp, i -> df.getOWLLiteral("Other class " + i));
+		return clses;
+	}
+
+	/**
+	 * @return the filter of the tests, which selects only the rdfs:labels
+	 */
+	private static AnnotationFilter createAnnotationFilter(OWLDataFactory df) {
+		return new AnnotationFilter(Collections.singleton(df.getRDFSLabel()), true);
+	}
+
+	private static OntologyBranchExtractor createExtractor(OWLOntology sourceOnt, OWLOntology targetOnt, int threadCount) {
+		OWLOntologyManager manager = sourceOnt.getOWLOntologyManager();
+		OntologyBranchExtractor extractor = new OntologyBranchExtractor(manager, sourceOnt, targetOnt,
+				new File("branch.owl").toURI(), new StructuralReasonerFactory().createReasoner(sourceOnt),
+				createAnnotationFilter(manager.getOWLDataFactory()));
+		extractor.setThreadCount(threadCount);
+		return extractor;
+	}
+
+	private static Collection<String> getTopClassNames(OWLClass[] clses) {
+		return Arrays.asList(clses[0].getIRI().toString());
+	}
+
+	/**
+	 * @return the ontology, whose addAxioms calls fail after the first writeCount ones, as if the process was killed
+	 */
+	private static OWLOntology failAfterWrites(OWLOntology ontology, int writeCount) {
+		AtomicInteger writes = new AtomicInteger();
+		return (OWLOntology) Proxy.newProxyInstance(OWLOntology.class.getClassLoader(), new Class<?>[] { OWLOntology.class },
+				(proxy, method, args) -> {
+					if (method.getName().equals("addAxioms") && writes.incrementAndGet() > writeCount) {
+						throw new IllegalStateException("Write " + writes.get() + " failed");
+					}
+					try {
+						return method.invoke(ontology, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+}